@@ -31,7 +31,12 @@
 package btree4j;
 
 import btree4j.indexer.BasicIndexQuery;
+import btree4j.indexer.BasicIndexQuery.IndexConditionANY;
+import btree4j.indexer.BasicIndexQuery.IndexConditionBW;
+import btree4j.indexer.BasicIndexQuery.IndexConditionBWX;
+import btree4j.indexer.BasicIndexQuery.IndexConditionEQ;
 import btree4j.indexer.IndexQuery;
+import btree4j.indexer.SkipScanIndexQuery;
 import btree4j.utils.codec.VariableByteCodec;
 import btree4j.utils.collections.longs.LongHash.BucketEntry;
 import btree4j.utils.collections.longs.LongHash.Cleaner;
@@ -47,6 +52,8 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnegative;
@@ -73,8 +80,37 @@ public class BTree extends Paged {
     }
 
     public static final int KEY_NOT_FOUND = -1;
+    /**
+     * Reported in place of a pointer for a key whose value is stored inline in its leaf, see
+     * {@link #addInlineValue(Value, byte[])}.
+     */
+    public static final int INLINE_VALUE = -2;
     private static final int LEAST_KEYS = 5;
 
+    /** Nodes having less keys than this are searched by plain binary search */
+    private static final int INTERPOLATION_THRESHOLD = 16;
+    /** Interpolation probes tried before falling back to binary search */
+    private static final int MAX_INTERPOLATION_PROBES = 4;
+
+    /**
+     * Marks the transient pointers to the values stored inline in leaves, which are formed as
+     * {@code leafPage << 16 | INLINE_FLAG | slot}. Pointers to data pages never set this bit as
+     * a data page holds up to {@link Short#MAX_VALUE} tuples. As slots shift on inserts, removals
+     * and splits, such pointers are used only while the monitor of the tree is held and are never
+     * returned by the public methods.
+     */
+    private static final long INLINE_FLAG = 0x8000L;
+
+    private static final ConcurrentMap<String, KeyComparator> COMPARATORS =
+            new ConcurrentHashMap<String, KeyComparator>();
+    static {
+        for (KeyComparator c : new KeyComparator[] {KeyComparator.BYTES,
+                KeyComparator.UNSIGNED_BYTES, KeyComparator.LITTLE_ENDIAN_INTEGER,
+                KeyComparator.CASE_INSENSITIVE}) {
+            COMPARATORS.put(c.getName(), c);
+        }
+    }
+
     private static final byte[] EmptyBytes = new byte[0];
     private static final Value EmptyValue = new Value(EmptyBytes);
 
@@ -97,6 +133,21 @@ public class BTree extends Paged {
     private BTreeRootInfo _rootInfo;
     private BTreeNode _rootNode;
 
+    @Nonnull
+    private SplitPolicy _splitPolicy = SplitPolicy.HALF;
+    @Nonnull
+    private KeyComparator _comparator = KeyComparator.BYTES;
+
+    // the leaf that received the last insert, used to skip descending from the root on appends
+    @Nullable
+    private BTreeNode _appendLeaf;
+    @Nullable
+    private Value _appendLastKey;
+    @Nullable
+    private Value _appendFence; // exclusive upper bound of the leaf, null for the rightmost leaf
+    @Nullable
+    private Value _leafFence; // upper bound of the leaf found by BTreeNode#findLeafNode
+
     public BTree(@Nonnull File file) {
         this(file, true);
     }
@@ -166,9 +217,11 @@ public class BTree extends Paged {
     @Override
     public boolean open() throws BTreeException {
         if (super.open()) {
+            this._comparator = resolveKeyComparator(_fileHeader._comparatorName);
             long p = _fileHeader.getRootPage();
             this._rootInfo = new BTreeRootInfo(p);
             this._rootNode = getBTreeNode(_rootInfo, p, null);
+            this._appendLeaf = null;
             return true;
         } else {
             return false;
@@ -185,7 +238,9 @@ public class BTree extends Paged {
             this._rootInfo = new BTreeRootInfo(p);
             this._rootNode = new BTreeNode(_rootInfo, getPage(p), null);
             _rootNode.ph.setStatus(LEAF);
-            _rootNode.set(new Value[0], new long[0]);
+            _rootNode.set(new Value[0], new long[0],
+                (_fileHeader._inlineThreshold > 0) ? new byte[0][] : null);
+            this._appendLeaf = null;
             try {
                 _rootNode.write();
             } catch (IOException e) {
@@ -206,31 +261,367 @@ public class BTree extends Paged {
         return _fileHeader._duplicateAllowed;
     }
 
+    /**
+     * Declares that every key of this tree has exactly the given width in bytes. Keys are then
+     * stored as a dense array in the nodes (no per-key length) and nodes are searched by
+     * interpolation search.
+     * 
+     * The width is persisted in the file header when the tree file is created, so it has to be
+     * declared before {@link #create(boolean)} (or {@link #init(boolean)} on a new file). On
+     * {@link #open()}, the width recorded in the file takes precedence.
+     *
+     * @param width the key width in bytes, or 0 for variable-length keys (default)
+     */
+    public void setFixedKeyWidth(@Nonnegative int width) {
+        if (width < 0 || width > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal key width: " + width);
+        }
+        if (_rootNode != null) {
+            throw new IllegalStateException(
+                "Key width must be declared before the B+Tree file is created: "
+                        + _file.getAbsolutePath());
+        }
+        _fileHeader._fixedKeyWidth = width;
+    }
+
+    /**
+     * @return the key width in bytes, or 0 if keys are variable-length
+     */
+    public final int getFixedKeyWidth() {
+        return _fileHeader._fixedKeyWidth;
+    }
+
+    /**
+     * Declares that values up to the given length are stored inline in leaves next to their keys,
+     * so that they are read along with the keys. See {@link #addInlineValue(Value, byte[])}.
+     *
+     * The threshold is persisted in the file header when the tree file is created, so it has to
+     * be declared before {@link #create(boolean)} (or {@link #init(boolean)} on a new file). On
+     * {@link #open()}, the threshold recorded in the file takes precedence.
+     *
+     * @param length the maximum length of inline values in bytes, or 0 for no inline values
+     *        (default)
+     */
+    protected void setInlineThreshold(@Nonnegative int length) {
+        // a leaf holding the least keys fits in a page
+        final int max = _fileHeader.getWorkSize() / (LEAST_KEYS * 2);
+        if (length < 0 || length > max) {
+            throw new IllegalArgumentException(
+                "Illegal inline threshold: " + length + ", expected [0, " + max + "]");
+        }
+        if (_rootNode != null) {
+            throw new IllegalStateException(
+                "Inline threshold must be declared before the B+Tree file is created: "
+                        + _file.getAbsolutePath());
+        }
+        _fileHeader._inlineThreshold = length;
+    }
+
+    /**
+     * @return the maximum length of values stored inline in leaves, or 0 if values are not
+     *         stored inline
+     */
+    public final int getInlineThreshold() {
+        return _fileHeader._inlineThreshold;
+    }
+
+    /**
+     * Declares the order of keys. Keys are ordered by {@link KeyComparator#BYTES} by default.
+     *
+     * The name of the comparator is persisted in the file header when the tree file is created,
+     * so it has to be declared before {@link #create(boolean)} (or {@link #init(boolean)} on a
+     * new file). On {@link #open()}, the comparator recorded in the file is looked up by name
+     * unless the declared one has the same name. Files that do not record a comparator are
+     * ordered by {@link KeyComparator#BYTES}.
+     */
+    public void setKeyComparator(@Nonnull KeyComparator comparator) {
+        if (comparator == null) {
+            throw new IllegalArgumentException("KeyComparator should not be null");
+        }
+        if (_rootNode != null) {
+            throw new IllegalStateException(
+                "Key comparator must be declared before the B+Tree file is created: "
+                        + _file.getAbsolutePath());
+        }
+        this._comparator = comparator;
+        _fileHeader._comparatorName = comparator.getName();
+    }
+
+    @Nonnull
+    public final KeyComparator getKeyComparator() {
+        return _comparator;
+    }
+
+    /**
+     * Registers a comparator so that trees recorded with its name can be opened.
+     */
+    public static void registerKeyComparator(@Nonnull KeyComparator comparator) {
+        final KeyComparator prev = COMPARATORS.putIfAbsent(comparator.getName(), comparator);
+        if (prev != null && prev != comparator) {
+            throw new IllegalArgumentException(
+                "KeyComparator '" + comparator.getName() + "' is already registered");
+        }
+    }
+
+    @Nonnull
+    private KeyComparator resolveKeyComparator(@Nonnull final String name)
+            throws BTreeException {
+        if (_comparator.getName().equals(name)) {
+            return _comparator;
+        }
+        final KeyComparator comparator = COMPARATORS.get(name);
+        if (comparator == null) {
+            throw new BTreeException("Unknown key comparator '" + name + "' for the B+Tree file: "
+                    + _file.getAbsolutePath());
+        }
+        return comparator;
+    }
+
+    /**
+     * Sets the policy deciding where overflowed nodes are split. Nodes are split in halves by
+     * default.
+     */
+    public synchronized void setSplitPolicy(@Nonnull SplitPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("SplitPolicy should not be null");
+        }
+        this._splitPolicy = policy;
+    }
+
     /**
      * addValue adds a Value to the BTree and associates a pointer with it. The pointer can be used
      * for referencing any type of data.
      *
      * @param key The Value to add
      * @param pointer The pointer to associate with it
-     * @return The previous value for the pointer (or -1)
+     * @return The previous value for the pointer (or -1), or {@link #INLINE_VALUE} if the
+     *         previous value was stored inline
      */
     public synchronized long addValue(@Nonnull Value key, long pointer) throws BTreeException {
+        return recordPointer(addValue(key, pointer, null));
+    }
+
+    /**
+     * Adds the given key with the value stored inline in the leaf next to the key, so that the
+     * value is read with the key without visiting another page. The leaves of the tree are to be
+     * declared to hold values by {@link #setInlineThreshold(int)}.
+     *
+     * An inline value has no record pointer. The public methods report {@link #INLINE_VALUE}
+     * as its pointer, while {@link #findPointer(Value)} and the callbacks of searches give
+     * transient pointers telling the leaf and the slot of the entry, which are resolved by
+     * {@link #getInlineValue(long)} until the tree is modified.
+     */
+    protected final synchronized void addInlineValue(@Nonnull Value key, @Nonnull byte[] value)
+            throws BTreeException {
+        final int threshold = _fileHeader._inlineThreshold;
+        if (value.length > threshold) {
+            throw new IllegalArgumentException("Value of " + value.length
+                    + " bytes exceeds the inline threshold " + threshold);
+        }
+        addValue(key, 0L, value);
+    }
+
+    private long addValue(@Nonnull final Value key, final long pointer,
+            @Nullable final byte[] inline) throws BTreeException {
+        final int width = _fileHeader._fixedKeyWidth;
+        if (width > 0 && key.getLength() != width) {
+            throw new IllegalArgumentException(
+                "Expected a " + width + " bytes key but was " + key.getLength() + " bytes");
+        }
+        try {
+            final BTreeNode leaf = getAppendLeaf(key);
+            if (leaf != null) {
+                return leaf.addValue(key, pointer, inline);
+            }
+            this._appendFence = null;
+            return _rootNode.addValue(key, pointer, inline);
+        } catch (IOException e) {
+            throw new BTreeException(e);
+        }
+    }
+
+    /**
+     * @return whether the given pointer is a transient pointer to a value stored inline in a leaf
+     */
+    protected final boolean isInlinePointer(final long ptr) {
+        return _fileHeader._inlineThreshold > 0 && ptr != KEY_NOT_FOUND
+                && (ptr & INLINE_FLAG) != 0L;
+    }
+
+    /**
+     * @param ptr a pointer to an inline value given by the tree since it was modified last
+     * @return the inline value, which must not be modified
+     */
+    @Nonnull
+    protected final synchronized byte[] getInlineValue(final long ptr) throws BTreeException {
+        final BTreeNode leaf = getInlineLeaf(ptr);
+        return leaf.values[(int) (ptr & Short.MAX_VALUE)];
+    }
+
+    /**
+     * Replaces the inline value the given pointer refers to. The entry is then pointed to the
+     * given pointer instead if the value is null.
+     */
+    protected final synchronized void replaceInlineValue(final long ptr,
+            @Nullable final byte[] value, final long pointer) throws BTreeException {
+        final BTreeNode leaf = getInlineLeaf(ptr);
         try {
-            return _rootNode.addValue(key, pointer);
+            leaf.replaceValue((int) (ptr & Short.MAX_VALUE), value, pointer);
         } catch (IOException e) {
             throw new BTreeException(e);
         }
     }
 
+    /**
+     * @return the given pointer, or {@link #INLINE_VALUE} if it is a transient pointer to an
+     *         inline value
+     */
+    private long recordPointer(final long ptr) {
+        return isInlinePointer(ptr) ? INLINE_VALUE : ptr;
+    }
+
+    @Nonnull
+    private BTreeNode getInlineLeaf(final long ptr) throws BTreeException {
+        if (!isInlinePointer(ptr)) {
+            throw new IllegalArgumentException("Not a pointer to an inline value: " + ptr);
+        }
+        final BTreeNode leaf = getBTreeNode(_rootInfo, ptr >>> 16);
+        final int slot = (int) (ptr & Short.MAX_VALUE);
+        final byte[][] values = leaf.values;
+        if (values == null || slot >= values.length || values[slot] == null) {
+            throw new BTreeCorruptException("Stale pointer to an inline value: " + ptr);
+        }
+        return leaf;
+    }
+
+    /**
+     * Adds the given keys and associated pointers in a batch. The batch is sorted by keys and
+     * each run of keys falling into the same leaf is merged into the leaf at once, descending from
+     * the root once per run instead of once per key. A leaf overflowed by the merge is split as
+     * many times as needed.
+     *
+     * @param keys keys to add in any order
+     * @param pointers pointers associated with the keys
+     */
+    public synchronized void addValues(@Nonnull final Value[] keys, @Nonnull final long[] pointers)
+            throws BTreeException {
+        final int size = keys.length;
+        if (pointers.length != size) {
+            throw new IllegalArgumentException(
+                "keys.length " + size + " != pointers.length " + pointers.length);
+        }
+        final int width = _fileHeader._fixedKeyWidth;
+        final int[] order = ArrayUtils.sortedIndexes(keys, _comparator);
+        final Value[] sortedKeys = new Value[size];
+        final long[] sortedPtrs = new long[size];
+        for (int i = 0; i < size; i++) {
+            final int idx = order[i];
+            final Value key = keys[idx];
+            if (width > 0 && key.getLength() != width) {
+                throw new IllegalArgumentException(
+                    "Expected a " + width + " bytes key but was " + key.getLength() + " bytes");
+            }
+            sortedKeys[i] = key;
+            sortedPtrs[i] = pointers[idx];
+        }
+        try {
+            int from = 0;
+            while (from < size) {
+                this._leafFence = null;
+                final BTreeNode leaf = _rootNode.findLeafNode(sortedKeys[from], true);
+                final Value fence = _leafFence;
+                // a node holds up to Short.MAX_VALUE keys
+                final int limit = Math.min(size, from + (Short.MAX_VALUE - leaf.keys.length));
+                int to = from + 1;
+                while (to < limit
+                        && (fence == null || _comparator.compare(sortedKeys[to], fence) < 0)) {
+                    to++;
+                }
+                leaf.addValues(sortedKeys, sortedPtrs, from, to);
+                from = to;
+            }
+        } catch (IOException e) {
+            throw new BTreeException(e);
+        }
+    }
+
+    /**
+     * Finds the pointers associated with the given keys in a batch. The keys are looked up in
+     * sorted order so that keys falling into the same leaf are found by descending from the root
+     * once.
+     *
+     * @return the pointers in the order of the given keys. {@link #KEY_NOT_FOUND} for missing keys
+     *         and {@link #INLINE_VALUE} for values stored inline.
+     */
+    @Nonnull
+    public synchronized long[] findValues(@Nonnull final Value[] keys) throws BTreeException {
+        final long[] pointers = findPointers(keys);
+        for (int i = 0; i < pointers.length; i++) {
+            pointers[i] = recordPointer(pointers[i]);
+        }
+        return pointers;
+    }
+
+    /**
+     * Finds the pointers as {@link #findValues(Value[])} does but gives transient pointers to
+     * values stored inline, which are valid until the tree is modified.
+     */
+    @Nonnull
+    protected final synchronized long[] findPointers(@Nonnull final Value[] keys)
+            throws BTreeException {
+        final int size = keys.length;
+        final long[] pointers = new long[size];
+        final int[] order = ArrayUtils.sortedIndexes(keys, _comparator);
+        BTreeNode leaf = null;
+        Value fence = null;
+        for (int i = 0; i < size; i++) {
+            final int idx = order[i];
+            final Value key = keys[idx];
+            if (leaf == null || (fence != null && _comparator.compare(key, fence) >= 0)) {
+                this._leafFence = null;
+                leaf = _rootNode.findLeafNode(key, false);
+                fence = _leafFence;
+            }
+            pointers[idx] = leaf.findValue(key);
+        }
+        return pointers;
+    }
+
+    /**
+     * Returns the leaf that received the last insert if the given key falls into it, that is,
+     * the key is not less than the last inserted key and less than the upper fence of the leaf.
+     */
+    @Nullable
+    private BTreeNode getAppendLeaf(@Nonnull final Value key) {
+        final BTreeNode leaf = _appendLeaf;
+        if (leaf == null) {
+            return null;
+        }
+        if (_comparator.compare(key, _appendLastKey) < 0) {
+            return null;
+        }
+        if (_appendFence != null && _comparator.compare(key, _appendFence) >= 0) {
+            return null;
+        }
+        synchronized (_cache) {
+            if (_cache.get(leaf.page.getPageNum()) != leaf) {// paged out
+                this._appendLeaf = null;
+                return null;
+            }
+        }
+        return leaf;
+    }
+
     /**
      * removeValue removes a Value from the BTree and returns the associated pointer for it.
      *
      * @param key The Value to remove
-     * @return The pointer that was associated with it
+     * @return The pointer that was associated with it, or {@link #INLINE_VALUE} if the value was
+     *         stored inline
      */
     public synchronized long removeValue(@Nonnull Value key) throws BTreeException {
         try {
-            return _rootNode.removeValue(key);
+            return recordPointer(_rootNode.removeValue(key));
         } catch (IOException e) {
             throw new BTreeException(e);
         }
@@ -253,12 +644,207 @@ public class BTree extends Paged {
      * findValue finds a Value in the BTree and returns the associated pointer for it.
      *
      * @param key The key to find
-     * @return The pointer associated with the given key
+     * @return The pointer associated with the given key, {@link #KEY_NOT_FOUND} if the key is
+     *         not found, or {@link #INLINE_VALUE} if its value is stored inline
      */
     public synchronized long findValue(@Nonnull Value key) throws BTreeException {
+        return recordPointer(_rootNode.findValue(key));
+    }
+
+    /**
+     * Finds the pointer as {@link #findValue(Value)} does but gives a transient pointer to a value
+     * stored inline, which is valid until the tree is modified.
+     */
+    protected final synchronized long findPointer(@Nonnull Value key) throws BTreeException {
         return _rootNode.findValue(key);
     }
 
+    /**
+     * @return the smallest key, or null if the tree is empty
+     */
+    @Nullable
+    public synchronized Value firstKey() throws BTreeException {
+        try {
+            return _rootNode.getLeafNode(SearchType.LEFT_MOST, null).keyAtOrAfter(0);
+        } catch (IOException e) {
+            throw new BTreeException(e);
+        }
+    }
+
+    /**
+     * @return the largest key, or null if the tree is empty
+     */
+    @Nullable
+    public synchronized Value lastKey() throws BTreeException {
+        try {
+            final BTreeNode leaf = _rootNode.getLeafNode(SearchType.RIGHT_MOST, null);
+            return leaf.keyAtOrBefore(leaf.keys.length - 1);
+        } catch (IOException e) {
+            throw new BTreeException(e);
+        }
+    }
+
+    /**
+     * @return the largest key less than or equal to the given key, or null if there is no such key
+     */
+    @Nullable
+    public synchronized Value floor(@Nonnull Value key) throws BTreeException {
+        try {
+            final BTreeNode leaf = _rootNode.getLeafNode(SearchType.RIGHT, key);
+            return leaf.keyAtOrBefore(leaf.upperBound(key) - 1);
+        } catch (IOException e) {
+            throw new BTreeException(e);
+        }
+    }
+
+    /**
+     * @return the smallest key greater than or equal to the given key, or null if there is no
+     *         such key
+     */
+    @Nullable
+    public synchronized Value ceiling(@Nonnull Value key) throws BTreeException {
+        try {
+            final BTreeNode leaf = _rootNode.getLeafNode(SearchType.LEFT, key);
+            return leaf.keyAtOrAfter(leaf.lowerBound(key));
+        } catch (IOException e) {
+            throw new BTreeException(e);
+        }
+    }
+
+    /**
+     * Counts the keys matching the given query without callbacks.
+     * 
+     * For ANY, EQ, GT, GE, LT, LE, BW, BWX and START_WITH, the first and the last matching
+     * positions are found by binary search in the edge leaves, and the leaves between them are
+     * counted by their numbers of keys. Only keys of the edge leaves are tested by the query, so
+     * the query must match every key between the bounds of its operator. The other operators and
+     * {@link SkipScanIndexQuery} are counted by scanning, except that NE, NBW and NBWX are
+     * counted by their complements.
+     */
+    public synchronized long countRange(@Nonnull IndexQuery query) throws BTreeException {
+        query = bindComparator(query);
+        final BTreeNode root = _rootNode;
+        final Value[] keys = query.getOperands();
+        final int op = query.getOperator();
+        if (query instanceof SkipScanIndexQuery) {
+            return countByScan(query);
+        }
+        final BTreeNode left, right;
+        final int from, to;
+        try {
+            switch (op) {
+                case BasicIndexQuery.ANY:
+                case BasicIndexQuery.LT:
+                case BasicIndexQuery.LE:
+                    left = root.getLeafNode(SearchType.LEFT_MOST, null);
+                    from = 0;
+                    break;
+                case BasicIndexQuery.EQ:
+                case BasicIndexQuery.GE:
+                case BasicIndexQuery.BW:
+                    left = root.getLeafNode(SearchType.LEFT, keys[0]);
+                    from = left.lowerBound(keys[0]);
+                    break;
+                case BasicIndexQuery.START_WITH:
+                    if (_comparator != KeyComparator.BYTES) {
+                        return countByScan(query);
+                    }
+                    left = root.getLeafNode(SearchType.LEFT, keys[0]);
+                    from = left.lowerBound(keys[0]);
+                    break;
+                case BasicIndexQuery.GT:
+                case BasicIndexQuery.BWX:
+                    left = root.getLeafNode(SearchType.RIGHT, keys[0]);
+                    from = left.upperBound(keys[0]);
+                    break;
+                case BasicIndexQuery.NE:
+                case BasicIndexQuery.NBW:
+                case BasicIndexQuery.NBWX:
+                    // counts the complement
+                    return countRange(new IndexConditionANY()) - countRange(complementOf(query));
+                default:
+                    return countByScan(query);
+            }
+            if ((op == BasicIndexQuery.BW || op == BasicIndexQuery.START_WITH)
+                    && _comparator.compare(keys[0], keys[keys.length - 1]) > 0) {
+                return 0L;
+            }
+            if (op == BasicIndexQuery.BWX
+                    && _comparator.compare(keys[0], keys[keys.length - 1]) >= 0) {
+                return 0L;
+            }
+            switch (op) {
+                case BasicIndexQuery.ANY:
+                case BasicIndexQuery.GT:
+                case BasicIndexQuery.GE:
+                    right = root.getLeafNode(SearchType.RIGHT_MOST, null);
+                    to = right.keys.length;
+                    break;
+                case BasicIndexQuery.LT:
+                case BasicIndexQuery.BWX:
+                    right = root.getLeafNode(SearchType.LEFT, keys[keys.length - 1]);
+                    to = right.lowerBound(keys[keys.length - 1]);
+                    break;
+                default: // EQ, LE, BW, START_WITH
+                    right = root.getLeafNode(SearchType.RIGHT, keys[keys.length - 1]);
+                    to = right.upperBound(keys[keys.length - 1]);
+                    break;
+            }
+        } catch (IOException e) {
+            throw new BTreeException(e);
+        }
+        final boolean test = (op != BasicIndexQuery.ANY);
+        final long rightPageNum = right.page.getPageNum();
+        if (left.page.getPageNum() == rightPageNum) {
+            return left.countKeys(query, test, from, to);
+        }
+        long count = left.countKeys(query, test, from, left.keys.length);
+        BTreeNode cur = left;
+        while (true) {
+            if (cur.next == -1L) {
+                return 0L; // the last position precedes the first one
+            }
+            cur = getBTreeNode(_rootInfo, cur.next, null);
+            if (cur.page.getPageNum() == rightPageNum) {
+                break;
+            }
+            count += cur.keys.length;
+        }
+        return count + right.countKeys(query, test, 0, to);
+    }
+
+    @Nonnull
+    private static IndexQuery complementOf(@Nonnull final IndexQuery query) {
+        final Value[] keys = query.getOperands();
+        switch (query.getOperator()) {
+            case BasicIndexQuery.NE:
+                return new IndexConditionEQ(keys[0]);
+            case BasicIndexQuery.NBW:
+                return new IndexConditionBWX(keys[0], keys[keys.length - 1]);
+            case BasicIndexQuery.NBWX:
+                return new IndexConditionBW(keys[0], keys[keys.length - 1]);
+            default:
+                throw new IllegalArgumentException("Unexpected operator: " + query.getOperator());
+        }
+    }
+
+    private long countByScan(@Nonnull final IndexQuery query) throws BTreeException {
+        final long[] count = new long[1];
+        searchLeaves(query, new BTreeBatchCallback() {
+            @Override
+            public boolean indexInfo(Value[] keys, long[] pointers, int from, int to) {
+                count[0] += (to - from);
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value[] keys, byte[][] values, int from, int to) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        return count[0];
+    }
+
     public enum SearchType {
         LEFT_MOST, LEFT /* normal */, RIGHT, RIGHT_MOST
     }
@@ -272,10 +858,104 @@ public class BTree extends Paged {
      */
     public synchronized void search(@Nonnull IndexQuery query, @Nonnull BTreeCallback callback)
             throws BTreeException {
+        searchLeaves(query, new PerEntryCallback(callback));
+    }
+
+    /**
+     * Performs a query as {@link #search(IndexQuery, BTreeCallback)} does, but reports the
+     * matching entries of a leaf in slices.
+     */
+    public synchronized void search(@Nonnull IndexQuery query,
+            @Nonnull BTreeBatchCallback callback) throws BTreeException {
+        searchLeaves(query, callback);
+    }
+
+    /** Reports the entries of a slice one by one */
+    private static final class PerEntryCallback implements BTreeBatchCallback {
+
+        private final BTreeCallback handler;
+
+        PerEntryCallback(@Nonnull BTreeCallback handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, long[] pointers, int from, int to) {
+            final BTreeCallback h = handler;
+            for (int i = from; i < to; i++) {
+                if (!h.indexInfo(keys[i], pointers[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, byte[][] values, int from, int to) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Reports the matching keys in key order, skipping the first {@code offset} ones and stopping
+     * as soon as {@code limit} keys are reported.
+     * 
+     * The scan starts from the first position of the query, or with one seek right after the
+     * position recorded in the given continuation token, which must come from the same query.
+     * While keys are skipped by the offset, a leaf whose keys all fall within the bounds of the
+     * operator is skipped as a whole by its number of keys, so the query must match every key
+     * between the bounds of its operator as {@link #countRange(IndexQuery)} requires. Operators
+     * without bounds such as NE and NOT_IN are evaluated in a single pass over the leaves.
+     *
+     * @param continuation the token returned for the previous page, or null for the first page
+     * @return the token to resume the search after the last reported key, or null if the search
+     *         is exhausted before the limit is reached
+     */
+    @Nullable
+    public synchronized ContinuationToken search(@Nonnull IndexQuery query,
+            @Nullable ContinuationToken continuation, @Nonnegative int offset,
+            @Nonnegative int limit, @Nonnull BTreeCallback callback) throws BTreeException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Illegal offset: " + offset);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Illegal limit: " + limit);
+        }
+        query = bindComparator(query);
+        final LimitCallback limiter = new LimitCallback(callback, offset, limit, continuation);
+        try {
+            scanLimited(query, continuation, limiter);
+        } catch (IOException e) {
+            throw new BTreeException(e);
+        }
+        return limiter.getContinuation();
+    }
+
+    /**
+     * Returns the query to be tested against keys of this tree, i.e., a copy of a
+     * {@link BasicIndexQuery} that compares in the order of {@link #getKeyComparator()}.
+     */
+    @Nonnull
+    private IndexQuery bindComparator(@Nonnull final IndexQuery query) {
+        if (query instanceof BasicIndexQuery) {
+            return ((BasicIndexQuery) query).withComparator(_comparator);
+        }
+        return query;
+    }
+
+    private void searchLeaves(@Nonnull IndexQuery query, @Nonnull BTreeBatchCallback callback)
+            throws BTreeException {
+        query = bindComparator(query);
         final BTreeNode root = _rootNode;
         final Value[] keys = query.getOperands();
         final int op = query.getOperator();
         try {
+            if (_comparator != KeyComparator.BYTES
+                    && (op == BasicIndexQuery.START_WITH || op == BasicIndexQuery.NOT_START_WITH)) {
+                // prefixes do not bound contiguous ranges in other orders
+                scanFiltered(query, callback);
+                return;
+            }
             switch (op) {
                 case BasicIndexQuery.EQ: {
                     if (isDuplicateAllowed()) {
@@ -304,25 +984,54 @@ public class BTree extends Paged {
                 }
                 case BasicIndexQuery.NE:
                 case BasicIndexQuery.NBW:
-                case BasicIndexQuery.NOT_IN:
                 case BasicIndexQuery.NOT_START_WITH:
                 case BasicIndexQuery.NBWX: {
                     BTreeNode leftmost = root.getLeafNode(SearchType.LEFT_MOST, null);
-                    BTreeNode left = root.getLeafNode(SearchType.LEFT, keys[0]);
                     BTreeNode rightmost = root.getLeafNode(SearchType.RIGHT_MOST, null);
-                    BTreeNode right = root.getLeafNode(SearchType.RIGHT, keys[keys.length - 1]);
-                    scanRange(leftmost, left, query, callback);
+                    final Value first = keys[0], last = keys[keys.length - 1];
+                    if (op == BasicIndexQuery.NBW && _comparator.compare(first, last) >= 0) {
+                        scanRange(leftmost, rightmost, query, callback);
+                        break;
+                    }
+                    // NBW matches the operands, which may be duplicated across the edges
+                    BTreeNode left = root.getLeafNode(
+                        op == BasicIndexQuery.NBW ? SearchType.RIGHT : SearchType.LEFT, first);
+                    BTreeNode right = root.getLeafNode(
+                        op == BasicIndexQuery.NBW ? SearchType.LEFT : SearchType.RIGHT, last);
                     long lp = left.page.getPageNum(), rp = right.page.getPageNum();
-                    if (lp != rp) {
+                    if (lp == rp) {
+                        scanRange(leftmost, rightmost, query, callback);
+                        break;
+                    }
+                    // skips the leaves between the edges, which hold no matching key
+                    if (scanRange(leftmost, left, query, callback)) {
                         scanRange(right, rightmost, query, callback);
                     }
                     break;
                 }
+                case BasicIndexQuery.IN: {
+                    if (keys.length == 0) {
+                        break;
+                    }
+                    // scan the leaves between the first and the last operand if they are
+                    // dense, otherwise seek each operand
+                    if (root.estimateLeafSpan(keys[0], keys[keys.length - 1]) > keys.length) {
+                        seekOperands(keys, callback);
+                        break;
+                    }
+                    BTreeNode left = root.getLeafNode(SearchType.LEFT, keys[0]);
+                    BTreeNode right = root.getLeafNode(SearchType.RIGHT, keys[keys.length - 1]);
+                    scanRange(left, right, query, callback);
+                    break;
+                }
                 case BasicIndexQuery.BW:
                 case BasicIndexQuery.START_WITH:
-                case BasicIndexQuery.IN:
                 case BasicIndexQuery.BWX: {
                     BTreeNode left = root.getLeafNode(SearchType.LEFT, keys[0]);
+                    if (query instanceof SkipScanIndexQuery) {
+                        skipScan(left, keys[0], (SkipScanIndexQuery) query, callback);
+                        break;
+                    }
                     BTreeNode right = root.getLeafNode(SearchType.RIGHT, keys[keys.length - 1]);
                     scanRange(left, right, query, callback);
                     break;
@@ -339,8 +1048,340 @@ public class BTree extends Paged {
         }
     }
 
-    private final void scanRange(@Nonnull BTreeNode left, @Nonnull BTreeNode right,
-            @Nonnull IndexQuery query, @Nonnull BTreeCallback callback) throws BTreeException {
+    private void scanLimited(@Nonnull final IndexQuery query,
+            @Nullable final ContinuationToken continuation, @Nonnull final LimitCallback limiter)
+            throws IOException, BTreeException {
+        final BTreeNode root = _rootNode;
+        final Value[] keys = query.getOperands();
+        final int op = query.getOperator();
+        if (op == BasicIndexQuery.IN && keys.length == 0) {
+            return;
+        }
+        final boolean ordered = _comparator == KeyComparator.BYTES
+                || (op != BasicIndexQuery.START_WITH && op != BasicIndexQuery.NOT_START_WITH);
+        // the first position, the upper bound, and whether every key within them matches
+        BTreeNode leaf = null;
+        int idx = 0;
+        Value upper = null;
+        boolean inclusive = true, bounded = true;
+        switch (ordered ? op : BasicIndexQuery.NOT_START_WITH) {
+            case BasicIndexQuery.ANY:
+                break;
+            case BasicIndexQuery.IN:
+                bounded = false;
+                // fall through
+            case BasicIndexQuery.EQ:
+            case BasicIndexQuery.BW:
+            case BasicIndexQuery.START_WITH:
+                upper = keys[keys.length - 1];
+                // fall through
+            case BasicIndexQuery.GE:
+                leaf = root.getLeafNode(SearchType.LEFT, keys[0]);
+                idx = leaf.lowerBound(keys[0]);
+                break;
+            case BasicIndexQuery.BWX:
+                upper = keys[keys.length - 1];
+                inclusive = false;
+                // fall through
+            case BasicIndexQuery.GT:
+                leaf = root.getLeafNode(SearchType.RIGHT, keys[0]);
+                idx = leaf.upperBound(keys[0]);
+                break;
+            case BasicIndexQuery.LT:
+                inclusive = false;
+                // fall through
+            case BasicIndexQuery.LE:
+                upper = keys[0];
+                break;
+            default:
+                bounded = false;
+                break;
+        }
+        if (leaf == null) {
+            leaf = root.getLeafNode(SearchType.LEFT_MOST, null);
+        }
+        if (continuation != null) {// seeks right after the last key reported
+            final Value lastKey = continuation.getLastKey();
+            leaf = root.getLeafNode(SearchType.LEFT, lastKey);
+            idx = leaf.lowerBound(lastKey);
+            for (int dups = continuation.getDuplicates(); dups > 0;) {
+                if (idx >= leaf.keys.length) {
+                    if (leaf.next == -1L) {
+                        return;
+                    }
+                    leaf = getBTreeNode(_rootInfo, leaf.next, null);
+                    idx = 0;
+                    continue;
+                }
+                if (_comparator.compare(leaf.keys[idx], lastKey) != 0) {
+                    break;
+                }
+                idx++;
+                dups--;
+            }
+        }
+        if (ordered && query instanceof SkipScanIndexQuery
+                && (op == BasicIndexQuery.BW || op == BasicIndexQuery.START_WITH
+                        || op == BasicIndexQuery.BWX)) {
+            skipScan(leaf, idx, (SkipScanIndexQuery) query, limiter);
+            return;
+        }
+        bounded &= !(query instanceof SkipScanIndexQuery);
+        while (true) {
+            final Value[] leafKeys = leaf.keys;
+            final int size = leafKeys.length;
+            if (bounded && idx < size && size - idx <= limiter.offset
+                    && (upper == null || withinUpper(leafKeys[size - 1], upper, inclusive))) {
+                limiter.skip(leafKeys, idx, size);
+            } else {
+                for (; idx < size; idx++) {
+                    final Value key = leafKeys[idx];
+                    if (upper != null && !withinUpper(key, upper, inclusive)) {
+                        return;
+                    }
+                    if ((bounded || query.testValue(key))
+                            && !limiter.report(key, leaf.pointerAt(idx))) {
+                        return;
+                    }
+                }
+            }
+            if (leaf.next == -1L) {
+                return;
+            }
+            leaf = getBTreeNode(_rootInfo, leaf.next, null);
+            idx = 0;
+        }
+    }
+
+    private boolean withinUpper(@Nonnull final Value key, @Nonnull final Value upper,
+            final boolean inclusive) {
+        final int cmp = _comparator.compare(key, upper);
+        return inclusive ? cmp <= 0 : cmp < 0;
+    }
+
+    /**
+     * Skips the first keys by the offset and cancels the scan when the limit is reached. It
+     * tracks the last key consumed to issue a {@link ContinuationToken}.
+     */
+    private final class LimitCallback implements BTreeBatchCallback {
+
+        private final BTreeCallback handler;
+        private final int limit;
+        private int offset;
+        private int reported = 0;
+        private boolean canceled = false;
+
+        @Nullable
+        private Value lastKey = null;
+        private int duplicates = 0;
+
+        LimitCallback(@Nonnull BTreeCallback handler, int offset, int limit,
+                @Nullable ContinuationToken continuation) {
+            this.handler = handler;
+            this.offset = offset;
+            this.limit = limit;
+            if (continuation != null) {
+                this.lastKey = continuation.getLastKey();
+                this.duplicates = continuation.getDuplicates();
+            }
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, long[] pointers, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (!report(keys[i], pointers[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, byte[][] values, int from, int to) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Skips the given entry by the offset or reports it.
+         * 
+         * @return false if the limit is reached or the handler canceled the scan
+         */
+        boolean report(@Nonnull Value key, long pointer) {
+            consume(key, 1);
+            if (offset > 0) {
+                offset--;
+                return true;
+            }
+            reported++;
+            if (!handler.indexInfo(key, pointer)) {
+                this.canceled = true;
+                return false;
+            }
+            return reported < limit;
+        }
+
+        /** Skips the keys in {@code [from, to)} by the offset */
+        void skip(@Nonnull final Value[] keys, final int from, final int to) {
+            assert (to - from <= offset);
+            final Value last = keys[to - 1];
+            int i = to - 1;
+            while (i > from && _comparator.compare(keys[i - 1], last) == 0) {
+                i--;
+            }
+            consume(last, to - i);
+            offset -= (to - from);
+        }
+
+        private void consume(@Nonnull final Value key, final int n) {
+            if (lastKey != null && _comparator.compare(lastKey, key) == 0) {
+                duplicates += n;
+            } else {
+                this.lastKey = key;
+                this.duplicates = n;
+            }
+        }
+
+        @Nullable
+        ContinuationToken getContinuation() {
+            if (reported < limit && !canceled) {
+                return null;
+            }
+            return new ContinuationToken(lastKey, duplicates);
+        }
+    }
+
+    /** Tests every key of the tree */
+    private void scanFiltered(@Nonnull final IndexQuery query,
+            @Nonnull final BTreeBatchCallback callback) throws IOException, BTreeException {
+        BTreeNode leaf = _rootNode.getLeafNode(SearchType.LEFT_MOST, null);
+        while (true) {
+            if (!leaf.emitMatching(query, callback, 0, leaf.keys.length)) {
+                return;
+            }
+            if (leaf.next == -1L) {
+                break;
+            }
+            leaf = getBTreeNode(_rootInfo, leaf.next, null);
+        }
+    }
+
+    /**
+     * Looks up each of the given sorted keys. A leaf is reused for the following keys while they
+     * fall below its upper fence, so leaves without any key are never read.
+     */
+    private void seekOperands(@Nonnull final Value[] keys,
+            @Nonnull final BTreeBatchCallback callback) throws IOException, BTreeException {
+        final BTreeNode root = _rootNode;
+        final boolean dupAllowed = isDuplicateAllowed();
+        BTreeNode leaf = null;
+        Value fence = null;
+        Value prevKey = null;
+        for (final Value key : keys) {
+            if (prevKey != null && _comparator.compare(key, prevKey) == 0) {
+                continue;
+            }
+            prevKey = key;
+            if (dupAllowed) {// duplicates may span leaves
+                BTreeNode left = root.getLeafNode(SearchType.LEFT, key);
+                BTreeNode right = root.getLeafNode(SearchType.RIGHT, key);
+                if (!scanRange(left, right, new IndexConditionEQ(key), callback)) {
+                    return;
+                }
+                continue;
+            }
+            if (leaf == null || (fence != null && _comparator.compare(key, fence) >= 0)) {
+                this._leafFence = null;
+                leaf = root.findLeafNode(key, false);
+                fence = _leafFence;
+            }
+            final Value[] leafKeys = leaf.keys;
+            final int idx = leaf.searchKey(leafKeys, key, leafKeys.length);
+            if (idx >= 0 && !leaf.emit(callback, idx, idx + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Scans leaves from the first key not less than {@code from} in the given leaf. When a key does
+     * not match, the scan seeks to the next candidate of the query, descending from the root if
+     * the candidate is beyond the current leaf, until the query tells no more keys match.
+     */
+    private void skipScan(@Nonnull BTreeNode leaf, @Nonnull final Value from,
+            @Nonnull final SkipScanIndexQuery query, @Nonnull final BTreeBatchCallback callback)
+            throws IOException, BTreeException {
+        skipScan(leaf, leaf.lowerBound(from), query, callback);
+    }
+
+    private void skipScan(@Nonnull BTreeNode leaf, int idx,
+            @Nonnull final SkipScanIndexQuery query, @Nonnull final BTreeBatchCallback callback)
+            throws IOException, BTreeException {
+        final BTreeNode root = _rootNode;
+        int seeks = 0;
+        int run = -1; // the start of the matching keys in the current leaf
+        while (true) {
+            final Value[] keys = leaf.keys;
+            final int size = keys.length;
+            if (idx >= size) {
+                if (run >= 0) {
+                    if (!leaf.emit(callback, run, size)) {
+                        break;
+                    }
+                    run = -1;
+                }
+                if (leaf.next == -1L) {
+                    break;
+                }
+                leaf = getBTreeNode(_rootInfo, leaf.next, null);
+                idx = 0;
+                continue;
+            }
+            final Value key = keys[idx];
+            if (query.testValue(key)) {
+                if (run < 0) {
+                    run = idx;
+                }
+                idx++;
+                continue;
+            }
+            if (run >= 0) {
+                if (!leaf.emit(callback, run, idx)) {
+                    break;
+                }
+                run = -1;
+            }
+            final Value candidate = query.nextCandidate(key);
+            if (candidate == null) {
+                break;
+            }
+            int next = leaf.searchLeftmostKey(keys, candidate, size);
+            next = next < 0 ? -(next + 1) : next;
+            if (next < size) {
+                idx = Math.max(next, idx + 1);
+                continue;
+            }
+            // the candidate is beyond this leaf
+            final BTreeNode target = root.getLeafNode(SearchType.LEFT, candidate);
+            ++seeks;
+            if (target == leaf) {
+                idx = size; // move to the next leaf
+                continue;
+            }
+            leaf = target;
+            idx = leaf.searchLeftmostKey(leaf.keys, candidate, leaf.keys.length);
+            idx = idx < 0 ? -(idx + 1) : idx;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("skip scan end. total seeks: " + seeks);
+        }
+    }
+
+    /**
+     * @return false if the callback canceled the scan
+     */
+    private final boolean scanRange(@Nonnull BTreeNode left, @Nonnull BTreeNode right,
+            @Nonnull IndexQuery query, @Nonnull BTreeBatchCallback callback)
+            throws BTreeException {
         final long rightmostPageNum = right.page.getPageNum();
         if (LOG.isDebugEnabled()) {
             LOG.debug(
@@ -348,15 +1389,19 @@ public class BTree extends Paged {
         }
         BTreeNode cur = left;
         int scaned = 0;
+        boolean completed = true;
         while (true) {
             long curPageNum = cur.page.getPageNum();
             if (curPageNum == rightmostPageNum) {
-                cur.scanLeaf(query, callback, true);
+                completed = cur.scanLeaf(query, callback, true);
                 ++scaned;
                 break;
             } else {
-                cur.scanLeaf(query, callback, scaned == 0);
                 ++scaned;
+                if (!cur.scanLeaf(query, callback, scaned == 1)) {
+                    completed = false;
+                    break;
+                }
             }
             long next = cur.next;
             if (next == curPageNum) {
@@ -369,6 +1414,7 @@ public class BTree extends Paged {
         if (LOG.isDebugEnabled()) {
             LOG.debug("scan range end. total scaned pages: " + scaned);
         }
+        return completed;
     }
 
     @Override
@@ -480,10 +1526,41 @@ public class BTree extends Paged {
         }
         if (clear) {
             _cache.clear();
+            this._appendLeaf = null;
         }
         super.flush();
     }
 
+    /**
+     * Maps the (at most) 8 bytes following the given offset to a double so that the order of
+     * {@link Value#compareTo(Value)}, which compares signed bytes, is preserved.
+     */
+    private static double ordinal(@Nonnull final Value v, final int offset) {
+        final byte[] data = v._data;
+        final int pos = v._pos + offset;
+        final int len = v._len - offset;
+        long l = 0L;
+        for (int i = 0; i < 8; i++) {
+            l <<= 8;
+            if (i < len) {
+                l |= (data[pos + i] ^ 0x80) & 0xFF;
+            }
+        }
+        return (double) (l >>> 11); // 53 bits of precision is enough for interpolation
+    }
+
+    /** @return the number of leading bytes the given values have in common */
+    private static int commonPrefixLength(@Nonnull final Value v1, @Nonnull final Value v2) {
+        final byte[] b1 = v1._data, b2 = v2._data;
+        final int p1 = v1._pos, p2 = v2._pos;
+        final int len = Math.min(v1._len, v2._len);
+        int i = 0;
+        while (i < len && b1[p1 + i] == b2[p2 + i]) {
+            i++;
+        }
+        return i;
+    }
+
     private static final class BTreeRootInfo {
 
         private final long page;
@@ -508,6 +1585,13 @@ public class BTree extends Paged {
 
         private Value[] keys;
         private long[] ptrs;
+        // values stored inline (null for the ones in data pages) if this is a leaf of a tree
+        // having inline values, otherwise null
+        @Nullable
+        private byte[][] values;
+        // ptrs where the entries of inline values are replaced by pointers to them
+        @Nullable
+        private long[] inlinePtrs;
         private long next = -1;
         private long prev = -1;
         private Value prefix = null;
@@ -546,110 +1630,329 @@ public class BTree extends Paged {
                 }
                 return parentCache;
             }
-            return null;
+            return null;
+        }
+
+        private void setParent(@Nonnull final BTreeNode node) {
+            long parentPage = node.page.getPageNum();
+            if (parentPage != ph.parentPage) {
+                ph.parentPage = parentPage;
+                this.parentCache = node;
+                this.dirty = true; // no need to be setDirty(true);
+            }
+        }
+
+        long addValue(@Nonnull Value key, final long pointer, @Nullable final byte[] inline)
+                throws IOException, BTreeException {
+            int idx = searchRightmostKey(keys, key, keys.length);
+            switch (ph.getStatus()) {
+                case BRANCH: {
+                    idx = idx < 0 ? -(idx + 1) : idx + 1;
+                    if (idx < keys.length) {// the innermost separator bounds the leaf
+                        _appendFence = keys[idx];
+                    }
+                    return getChildNode(idx).addValue(key, pointer, inline);
+                }
+                case LEAF: {
+                    final boolean found = idx >= 0;
+                    final long oldPtr;
+                    if (found) {
+                        if (!isDuplicateAllowed()) {
+                            throw new BTreeCorruptException(
+                                "Attempt to add duplicate key to the unique index: " + key);
+                        }
+                        oldPtr = pointerAt(idx);
+                        key = keys[idx]; // use the existing key object
+                        idx = idx + 1;
+                    } else {
+                        oldPtr = -1;
+                        idx = -(idx + 1);
+                    }
+                    final byte[][] vals = this.values;
+                    if (vals == null && inline != null) {
+                        throw new IllegalStateException(
+                            "Values cannot be stored inline in the B+Tree file: "
+                                    + _file.getAbsolutePath());
+                    }
+                    set(ArrayUtils.<Value>insert(keys, idx, key),
+                        ArrayUtils.insert(ptrs, idx, inline == null ? pointer : 0L),
+                        vals == null ? null : ArrayUtils.insert(vals, idx, inline));
+                    incrDataLength(key, pointer);
+                    if (vals != null) {
+                        this.currentDataLen += inlineLength(inline);
+                    }
+
+                    // Check to see if we've exhausted the block
+                    if (needSplit()) {
+                        boolean appending = (next == -1L) && (idx == keys.length - 1);
+                        split(appending);
+                    } else {
+                        _appendLeaf = this;
+                        _appendLastKey = key;
+                    }
+                    return oldPtr;
+                }
+                default:
+                    throw new BTreeCorruptException("Invalid Page Type '" + ph.getStatus()
+                            + "' was detected for page#" + page.getPageNum());
+            }
+        }
+
+        /**
+         * Returns the leaf to which the given key is routed. The upper fence of the leaf is set to
+         * {@code _leafFence} unless the leaf is the rightmost one.
+         * 
+         * @param rightmost route keys as {@link #addValue(Value, long)} does if true, otherwise as
+         *        {@link #findValue(Value)} does
+         */
+        @Nonnull
+        private BTreeNode findLeafNode(@Nonnull final Value key, final boolean rightmost)
+                throws BTreeException {
+            switch (ph.getStatus()) {
+                case BRANCH: {
+                    int idx = rightmost ? searchRightmostKey(keys, key, keys.length)
+                            : searchLeftmostKey(keys, key, keys.length);
+                    idx = idx < 0 ? -(idx + 1) : idx + 1;
+                    if (idx < keys.length) {
+                        _leafFence = keys[idx];
+                    }
+                    return getChildNode(idx).findLeafNode(key, rightmost);
+                }
+                case LEAF:
+                    return this;
+                default:
+                    throw new BTreeCorruptException("Invalid Page Type '" + ph.getStatus()
+                            + "' was detected for page#" + page.getPageNum());
+            }
+        }
+
+        /**
+         * Estimates the number of leaves from the leaf of {@code low} to the leaf of {@code high}
+         * assuming that sibling subtrees are as wide as the leftmost one.
+         */
+        private double estimateLeafSpan(@Nonnull final Value low, @Nonnull final Value high)
+                throws BTreeException {
+            if (ph.getStatus() != BRANCH) {
+                return 1d;
+            }
+            int lowIdx = searchLeftmostKey(keys, low, keys.length);
+            lowIdx = lowIdx < 0 ? -(lowIdx + 1) : lowIdx + 1;
+            int highIdx = searchRightmostKey(keys, high, keys.length);
+            highIdx = highIdx < 0 ? -(highIdx + 1) : highIdx + 1;
+            final BTreeNode child = getChildNode(lowIdx);
+            if (lowIdx == highIdx) {
+                return child.estimateLeafSpan(low, high);
+            }
+            return (highIdx - lowIdx + 1) * child.estimateLeaves();
+        }
+
+        /** Estimates the number of leaves under this node from the fanouts of the leftmost path */
+        private double estimateLeaves() throws BTreeException {
+            double leaves = 1d;
+            BTreeNode node = this;
+            while (node.ph.getStatus() == BRANCH) {
+                leaves *= node.ptrs.length;
+                node = node.getChildNode(0);
+            }
+            return leaves;
+        }
+
+        /**
+         * Merges the sorted keys in {@code [from, to)}, all of which fall into this leaf, and then
+         * splits this leaf until every piece fits in a page.
+         */
+        private void addValues(@Nonnull final Value[] newKeys, @Nonnull final long[] newPtrs,
+                final int from, final int to) throws IOException, BTreeException {
+            final Value[] oldKeys = this.keys;
+            final long[] oldPtrs = this.ptrs;
+            final byte[][] oldValues = this.values;
+            final int oldLen = oldKeys.length;
+            final int len = oldLen + (to - from);
+            final Value[] mergedKeys = new Value[len];
+            final long[] mergedPtrs = new long[len];
+            final byte[][] mergedValues = (oldValues == null) ? null : new byte[len][];
+            final boolean appending = (next == -1L) && (oldLen == 0
+                    || _comparator.compare(oldKeys[oldLen - 1], newKeys[from]) <= 0);
+            final boolean dupAllowed = isDuplicateAllowed();
+            calculateDataLength();
+            for (int i = 0, j = from, k = 0; k < len; k++) {
+                // equal keys are inserted after the existing ones as addValue does
+                if (j < to && (i == oldLen || _comparator.compare(oldKeys[i], newKeys[j]) > 0)) {
+                    Value key = newKeys[j];
+                    if (k > 0 && _comparator.compare(mergedKeys[k - 1], key) == 0) {
+                        if (!dupAllowed) {
+                            this.currentDataLen = -1; // recalculate
+                            throw new BTreeCorruptException(
+                                "Attempt to add duplicate key to the unique index: " + key);
+                        }
+                        key = mergedKeys[k - 1]; // use the existing key object
+                    }
+                    final long ptr = newPtrs[j++];
+                    mergedKeys[k] = key;
+                    mergedPtrs[k] = ptr;
+                    incrDataLength(key, ptr);
+                    if (mergedValues != null) {
+                        this.currentDataLen += inlineLength(null);
+                    }
+                } else {
+                    mergedKeys[k] = oldKeys[i];
+                    if (mergedValues != null) {
+                        mergedValues[k] = oldValues[i];
+                    }
+                    mergedPtrs[k] = oldPtrs[i++];
+                }
+            }
+            set(mergedKeys, mergedPtrs, mergedValues);
+            _appendLeaf = null;
+            splitToFit(appending);
         }
 
-        private void setParent(@Nonnull final BTreeNode node) {
-            long parentPage = node.page.getPageNum();
-            if (parentPage != ph.parentPage) {
-                ph.parentPage = parentPage;
-                this.parentCache = node;
-                this.dirty = true; // no need to be setDirty(true);
+        /** Splits this node in two recursively until every piece fits in a page */
+        private void splitToFit(final boolean appending) throws IOException, BTreeException {
+            if (!needSplit()) {
+                return;
             }
+            final BTreeNode[] pieces = split(appending);
+            pieces[0].splitToFit(false);
+            pieces[1].splitToFit(appending);
         }
 
-        long addValue(@Nonnull Value key, final long pointer) throws IOException, BTreeException {
-            int idx = searchRightmostKey(keys, key, keys.length);
-            switch (ph.getStatus()) {
-                case BRANCH: {
-                    idx = idx < 0 ? -(idx + 1) : idx + 1;
-                    return getChildNode(idx).addValue(key, pointer);
+        /** @return the index of the first key not less than the given key */
+        private int lowerBound(@Nonnull final Value key) {
+            final int idx = searchLeftmostKey(keys, key, keys.length);
+            return idx < 0 ? -(idx + 1) : idx;
+        }
+
+        /** @return the index of the first key greater than the given key */
+        private int upperBound(@Nonnull final Value key) {
+            final int idx = searchRightmostKey(keys, key, keys.length);
+            return idx < 0 ? -(idx + 1) : idx + 1;
+        }
+
+        /** @return the key at the given index of this leaf or the first key of following leaves */
+        @Nullable
+        private Value keyAtOrAfter(int idx) throws BTreeException {
+            BTreeNode leaf = this;
+            while (idx >= leaf.keys.length) {
+                if (leaf.next == -1L) {
+                    return null;
                 }
-                case LEAF: {
-                    final boolean found = idx >= 0;
-                    final long oldPtr;
-                    if (found) {
-                        if (!isDuplicateAllowed()) {
-                            throw new BTreeCorruptException(
-                                "Attempt to add duplicate key to the unique index: " + key);
-                        }
-                        oldPtr = ptrs[idx];
-                        key = keys[idx]; // use the existing key object
-                        idx = idx + 1;
-                    } else {
-                        oldPtr = -1;
-                        idx = -(idx + 1);
-                    }
-                    set(ArrayUtils.<Value>insert(keys, idx, key),
-                        ArrayUtils.insert(ptrs, idx, pointer));
-                    incrDataLength(key, pointer);
+                leaf = getBTreeNode(root, leaf.next);
+                idx = 0;
+            }
+            return leaf.keys[idx];
+        }
 
-                    // Check to see if we've exhausted the block
-                    if (needSplit()) {
-                        split();
-                    }
-                    return oldPtr;
+        /** @return the key at the given index of this leaf or the last key of preceding leaves */
+        @Nullable
+        private Value keyAtOrBefore(int idx) throws BTreeException {
+            BTreeNode leaf = this;
+            while (idx < 0) {
+                if (leaf.prev == -1L) {
+                    return null;
+                }
+                leaf = getBTreeNode(root, leaf.prev);
+                idx = leaf.keys.length - 1;
+            }
+            return leaf.keys[idx];
+        }
+
+        /** Counts the keys in {@code [from, to)} of this leaf */
+        private int countKeys(@Nonnull final IndexQuery query, final boolean test, final int from,
+                final int to) {
+            if (!test) {
+                return Math.max(to - from, 0);
+            }
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (query.testValue(keys[i])) {
+                    count++;
                 }
-                default:
-                    throw new BTreeCorruptException("Invalid Page Type '" + ph.getStatus()
-                            + "' was detected for page#" + page.getPageNum());
             }
+            return count;
         }
 
         /** search the leftmost key for duplicate allowed index */
         private int searchLeftmostKey(final Value[] ary, final Value key, final int to) {
-            if (!_fileHeader._duplicateAllowed) {
-                return ArrayUtils.binarySearch(keys, 0, to, key);
-            }
-            int low = 0;
-            int high = to - 1;
-            while (low <= high) {
-                int mid = (low + high) >>> 1;
-                Value midVal = ary[mid];
-                int cmp = midVal.compareTo(key);
-                if (cmp < 0) {
-                    low = mid + 1;
-                } else if (cmp > 0) {
-                    high = mid - 1;
-                } else {
-                    for (int i = mid - 1; i >= 0; i--) {
-                        Value nxtVal = ary[i];
-                        cmp = midVal.compareTo(nxtVal);
-                        if (cmp != 0) {
-                            break;
-                        }
-                        mid = i;
-                    }
-                    return mid; // key found
+            int idx = searchKey(ary, key, to);
+            if (idx > 0 && _fileHeader._duplicateAllowed) {
+                final Value found = ary[idx];
+                while (idx > 0 && _comparator.compare(found, ary[idx - 1]) == 0) {
+                    idx--;
                 }
             }
-            return -(low + 1); // key not found.
+            return idx;
         }
 
         /** search the rightmost key for duplicate allowed index */
         private int searchRightmostKey(final Value[] ary, final Value key, final int to) {
-            if (!_fileHeader._duplicateAllowed) {
-                return ArrayUtils.binarySearch(keys, 0, to, key);
+            int idx = searchKey(ary, key, to);
+            if (idx >= 0 && _fileHeader._duplicateAllowed) {
+                final Value found = ary[idx];
+                while (idx < to - 1 && _comparator.compare(found, ary[idx + 1]) == 0) {
+                    idx++;
+                }
+            }
+            return idx;
+        }
+
+        /**
+         * @return index of a key that matches to the given key (not always the leftmost or the
+         *         rightmost one) if found, otherwise <tt>(-(insertion point) - 1)</tt>
+         */
+        private int searchKey(final Value[] ary, final Value key, final int to) {
+            if (_fileHeader._fixedKeyWidth > 0 && to >= INTERPOLATION_THRESHOLD
+                    && _comparator == KeyComparator.BYTES) {
+                return interpolationSearch(ary, key, to);
             }
+            return ArrayUtils.binarySearch(ary, 0, to, key, _comparator);
+        }
+
+        /**
+         * Interpolation search over the bytes following the common prefix of this node. It takes
+         * a few probes when keys are evenly distributed (e.g., sequential ids) and falls back to
+         * binary search for skewed distributions.
+         */
+        private int interpolationSearch(final Value[] ary, final Value key, final int to) {
+            // keys between two keys share the common prefix of them
+            final int offset = ph.getPrefixLength();
+            final double k = ordinal(key, offset);
             int low = 0;
             int high = to - 1;
-            while (low <= high) {
-                int mid = (low + high) >>> 1;
-                Value midVal = ary[mid];
-                int cmp = midVal.compareTo(key);
+            for (int probes = 0; low <= high; probes++) {
+                if (probes == MAX_INTERPOLATION_PROBES) {
+                    return ArrayUtils.binarySearch(ary, low, high + 1, key);
+                }
+                final Value lowVal = ary[low];
+                int cmp = lowVal.compareTo(key);
+                if (cmp >= 0) {
+                    return cmp == 0 ? low : -(low + 1);
+                }
+                final Value highVal = ary[high];
+                cmp = highVal.compareTo(key);
+                if (cmp <= 0) {
+                    return cmp == 0 ? high : -(high + 2);
+                }
+                // ary[low] < key < ary[high]
+                ++low;
+                --high;
+                if (low > high) {
+                    break;
+                }
+                final double lo = ordinal(lowVal, offset), hi = ordinal(highVal, offset);
+                int mid = (hi > lo) ? (low - 1) + (int) ((k - lo) / (hi - lo) * (high - low + 2))
+                        : (low + high) >>> 1;
+                if (mid < low) {
+                    mid = low;
+                } else if (mid > high) {
+                    mid = high;
+                }
+                cmp = ary[mid].compareTo(key);
                 if (cmp < 0) {
                     low = mid + 1;
                 } else if (cmp > 0) {
                     high = mid - 1;
                 } else {
-                    for (int i = mid + 1; i <= high; i++) {
-                        Value nxtVal = ary[i];
-                        cmp = midVal.compareTo(nxtVal);
-                        if (cmp != 0) {
-                            break;
-                        }
-                        mid = i;
-                    }
                     return mid; // key found
                 }
             }
@@ -667,8 +1970,8 @@ public class BTree extends Paged {
                     if (leftIdx < 0) {
                         return KEY_NOT_FOUND;
                     } else {
-                        long oldPtr = ptrs[leftIdx];
-                        set(ArrayUtils.remove(keys, leftIdx), ArrayUtils.remove(ptrs, leftIdx));
+                        long oldPtr = pointerAt(leftIdx);
+                        removeEntry(leftIdx);
                         decrDataLength(searchKey);
                         return oldPtr;
                     }
@@ -696,10 +1999,13 @@ public class BTree extends Paged {
                     } else {
                         int founds = 0;
                         for (int i = leftIdx; i <= rightIdx; i++) {
-                            long p = ptrs[i];
+                            long p = pointerAt(i);
                             if (p == pointer) {
-                                set(ArrayUtils.remove(keys, i), ArrayUtils.remove(ptrs, i));
+                                removeEntry(i);
                                 decrDataLength(searchKey);
+                                if (isInlinePointer(pointer)) {
+                                    break; // the following entries are shifted to the slot
+                                }
                                 i--;
                                 rightIdx--;
                             }
@@ -713,6 +2019,40 @@ public class BTree extends Paged {
             }
         }
 
+        /** Removes the entry at the given index of this leaf */
+        private void removeEntry(final int idx) {
+            final byte[][] vals = this.values;
+            if (vals != null && currentDataLen != -1) {
+                this.currentDataLen -= inlineLength(vals[idx]);
+            }
+            set(ArrayUtils.remove(keys, idx), ArrayUtils.remove(ptrs, idx),
+                (vals == null) ? null : ArrayUtils.remove(vals, idx));
+        }
+
+        /**
+         * Replaces the value of the entry at the given index of this leaf.
+         * 
+         * @param inline the value to store inline, or null to point the entry to the pointer
+         */
+        private void replaceValue(final int idx, @Nullable final byte[] inline, final long pointer)
+                throws IOException, BTreeException {
+            final byte[][] vals = this.values;
+            assert (vals != null);
+            final long ptr = (inline == null) ? pointer : 0L;
+            if (currentDataLen != -1) {
+                this.currentDataLen += inlineLength(inline) - inlineLength(vals[idx])
+                        + VariableByteCodec.requiredBytes(ptr)
+                        - VariableByteCodec.requiredBytes(ptrs[idx]);
+            }
+            vals[idx] = inline;
+            ptrs[idx] = ptr;
+            this.inlinePtrs = null;
+            setDirty(true);
+            if (needSplit()) {
+                split(false);
+            }
+        }
+
         /**
          * Internal (to the BTreeNode) method. Because this method is called only by BTreeNode
          * itself, no synchronization done inside of this method.
@@ -748,19 +2088,34 @@ public class BTree extends Paged {
 
         /**
          * Internal to the BTreeNode method
+         * 
+         * @param appending whether the last insert landed at the end of the rightmost node
+         * @return the left and the right nodes
          */
-        private void split() throws IOException, BTreeException {
+        @Nonnull
+        private BTreeNode[] split(final boolean appending) throws IOException, BTreeException {
+            _appendLeaf = null; // key ranges of leaves change
             final Value[] leftVals;
             final Value[] rightVals;
             final long[] leftPtrs;
             final long[] rightPtrs;
+            byte[][] leftInline = null;
+            byte[][] rightInline = null;
             final Value separator;
 
             final short vc = ph.getValueCount();
-            int pivot = vc / 2;
+            final byte pageType = ph.getStatus();
+            int pivot = _splitPolicy.getSplitPoint(vc, pageType == LEAF, appending);
+            // both nodes hold at least one key
+            final int maxPivot = (pageType == LEAF) ? vc - 1 : vc - 2;
+            if (pivot > maxPivot) {
+                pivot = maxPivot;
+            }
+            if (pivot < 1) {
+                pivot = 1;
+            }
 
             // Split the node into two nodes
-            final byte pageType = ph.getStatus();
             int leftLookup = 0;
             switch (pageType) {
                 case BRANCH: {
@@ -780,7 +2135,7 @@ public class BTree extends Paged {
                 case LEAF: {
                     Value pivotLeft = keys[pivot - 1];
                     Value pivotRight = keys[pivot];
-                    if (pivotLeft.equals(pivotRight)) {
+                    if (_comparator.compare(pivotLeft, pivotRight) == 0) {
                         int leftmost = searchLeftmostKey(keys, pivotLeft, pivot - 1);
                         int diff = pivot - leftmost;
                         if (diff < 0 || diff > Short.MAX_VALUE) {
@@ -799,6 +2154,10 @@ public class BTree extends Paged {
                     System.arraycopy(ptrs, 0, leftPtrs, 0, leftPtrs.length);
                     System.arraycopy(keys, leftVals.length, rightVals, 0, rightVals.length);
                     System.arraycopy(ptrs, leftPtrs.length, rightPtrs, 0, rightPtrs.length);
+                    if (values != null) {// inline values move along with the keys
+                        leftInline = Arrays.copyOfRange(values, 0, leftVals.length);
+                        rightInline = Arrays.copyOfRange(values, leftVals.length, vc);
+                    }
 
                     separator = getSeparator(leftVals[leftVals.length - 1], rightVals[0]);
                     break;
@@ -812,12 +2171,12 @@ public class BTree extends Paged {
             if (parent == null) {
                 // This can only happen if this is the root     
                 BTreeNode lNode = createBTreeNode(root, pageType, this);
-                lNode.set(leftVals, leftPtrs);
+                lNode.set(leftVals, leftPtrs, leftInline);
                 lNode.calculateDataLength();
                 lNode.setAsParent();
 
                 BTreeNode rNode = createBTreeNode(root, pageType, this);
-                rNode.set(rightVals, rightPtrs);
+                rNode.set(rightVals, rightPtrs, rightInline);
                 rNode.calculateDataLength();
                 rNode.setAsParent();
 
@@ -828,13 +2187,16 @@ public class BTree extends Paged {
                 ph.setStatus(BRANCH);
                 set(new Value[] {separator},
                     new long[] {lNode.page.getPageNum(), rNode.page.getPageNum()});
+                this.currentDataLen = -1; // recalculate
                 calculateDataLength();
+                return new BTreeNode[] {lNode, rNode};
             } else {
-                set(leftVals, leftPtrs);
+                set(leftVals, leftPtrs, leftInline);
+                this.currentDataLen = -1; // recalculate
                 calculateDataLength();
 
                 BTreeNode rNode = createBTreeNode(root, pageType, parent);
-                rNode.set(rightVals, rightPtrs);
+                rNode.set(rightVals, rightPtrs, rightInline);
                 rNode.calculateDataLength();
                 rNode.setAsParent();
 
@@ -847,7 +2209,8 @@ public class BTree extends Paged {
 
                 long leftPtr = page.getPageNum();
                 long rightPtr = rNode.page.getPageNum();
-                parent.promoteValue(separator, leftPtr, rightPtr);
+                parent.promoteValue(separator, leftPtr, rightPtr, appending);
+                return new BTreeNode[] {this, rNode};
             }
         }
 
@@ -879,8 +2242,8 @@ public class BTree extends Paged {
             right.setDirty(true);
         }
 
-        private void promoteValue(@Nonnull final Value key, final long leftPtr, final long rightPtr)
-                throws IOException, BTreeException {
+        private void promoteValue(@Nonnull final Value key, final long leftPtr, final long rightPtr,
+                final boolean appending) throws IOException, BTreeException {
             final int leftIdx = searchRightmostKey(keys, key, keys.length);
             int insertPoint = (leftIdx < 0) ? -(leftIdx + 1) : leftIdx + 1;
             boolean found = false;
@@ -905,17 +2268,20 @@ public class BTree extends Paged {
 
             // Check to see if we've exhausted the block
             if (needSplit()) {
-                split();
+                split(appending && insertPoint == keys.length - 1);
             }
         }
 
         /** Gets shortest-possible separator for the pivot */
         private Value getSeparator(@Nonnull final Value value1, @Nonnull final Value value2) {
-            int idx = value1.compareTo(value2);
-            if (idx == 0) {
+            if (_comparator.compare(value1, value2) == 0) {
                 return value1.clone();
             }
-            byte[] b = new byte[Math.abs(idx)];
+            if (_fileHeader._fixedKeyWidth > 0 || !_comparator.isPrefixConsistent()) {
+                return value2.clone(); // branch keys are fixed-width as well
+            }
+            // value2 up to the first byte differing from value1
+            byte[] b = new byte[Math.min(commonPrefixLength(value1, value2) + 1, value2._len)];
             value2.copyTo(b, 0, b.length);
             return new Value(b);
         }
@@ -924,12 +2290,23 @@ public class BTree extends Paged {
          * Sets values and pointers. Internal (to the BTreeNode) method, not synchronized.
          */
         private void set(@Nonnull final Value[] values, @Nonnull final long[] ptrs) {
+            set(values, ptrs, null);
+        }
+
+        /**
+         * @param inline values stored inline if this is a leaf of a tree having inline values,
+         *        otherwise null
+         */
+        private void set(@Nonnull final Value[] values, @Nonnull final long[] ptrs,
+                @Nullable final byte[][] inline) {
             final int vlen = values.length;
             if (vlen > Short.MAX_VALUE) {
                 throw new IllegalArgumentException("entries exceeds limit: " + vlen);
             }
             this.keys = values;
             this.ptrs = ptrs;
+            this.values = inline;
+            this.inlinePtrs = null;
             this.ph.setValueCount((short) vlen);
             if (vlen > 1) {
                 final int prevPrefixLen = ph.getPrefixLength();
@@ -937,8 +2314,10 @@ public class BTree extends Paged {
                 final int prefixLen = prefix.getLength();
                 assert (prefixLen <= Short.MAX_VALUE) : prefixLen;
                 if (prefixLen != prevPrefixLen) {
-                    int diff = prefixLen - prevPrefixLen;
-                    currentDataLen += diff;
+                    if (currentDataLen != -1) {
+                        int diff = prefixLen - prevPrefixLen;
+                        currentDataLen += diff;
+                    }
                     ph.setPrefixLength((short) prefixLen);
                 }
             } else {
@@ -957,10 +2336,12 @@ public class BTree extends Paged {
 
         @Nonnull
         private Value getPrefix(@Nonnull final Value v1, @Nonnull final Value v2) {
-            final int idx = Math.abs(v1.compareTo(v2)) - 1;
-            if (idx > 0) {
-                final byte[] d2 = v2.getData();
-                return new Value(d2, v2.getPosition(), idx);
+            if (!_comparator.isPrefixConsistent()) {
+                return EmptyValue;
+            }
+            final int idx = commonPrefixLength(v1, v2);
+            if (idx > 0 && (idx != v1._len || idx != v2._len)) {// not for equal keys
+                return new Value(v2._data, v2._pos, idx);
             } else {
                 return EmptyValue;
             }
@@ -985,25 +2366,12 @@ public class BTree extends Paged {
                     this.prefix = EmptyValue;
                 }
                 // Read in the Values
-                Value prevKey = null;
                 final int keyslen = ph.getValueCount();
-                keys = new Value[keyslen];
-                for (int i = 0; i < keyslen; i++) {
-                    final int valSize = in.readInt();
-                    if (valSize == -1) {
-                        prevKey.incrRefCount();
-                        keys[i] = prevKey;
-                    } else {
-                        byte[] b = new byte[pfxLen + valSize];
-                        if (pfxLen > 0) {
-                            System.arraycopy(pfxBytes, 0, b, 0, pfxLen);
-                        }
-                        if (valSize > 0) {
-                            in.read(b, pfxLen, valSize);
-                        }
-                        prevKey = new Value(b);
-                        keys[i] = prevKey;
-                    }
+                final int width = _fileHeader._fixedKeyWidth;
+                if (width > 0) {
+                    this.keys = readFixedWidthKeys(in, pfxBytes, keyslen, width);
+                } else {
+                    this.keys = readVariableLengthKeys(in, pfxBytes, keyslen);
                 }
                 // Read in the pointers
                 final int ptrslen = ph.getPointerCount();
@@ -1011,6 +2379,10 @@ public class BTree extends Paged {
                 for (int i = 0; i < ptrslen; i++) {
                     ptrs[i] = VariableByteCodec.decodeUnsignedLong(in);
                 }
+                // Read in the inline values if current node is a leaf holding values
+                if (ph.getStatus() == LEAF && _fileHeader._inlineThreshold > 0) {
+                    this.values = readInlineValues(in, ptrslen);
+                }
                 // Read in the links if current node is a leaf
                 if (ph.getStatus() == LEAF) {
                     this.prev = in.readLong();
@@ -1021,6 +2393,74 @@ public class BTree extends Paged {
             }
         }
 
+        @Nonnull
+        private Value[] readVariableLengthKeys(@Nonnull final DataInputStream in,
+                @Nonnull final byte[] pfxBytes, final int keyslen) throws IOException {
+            final int pfxLen = pfxBytes.length;
+            final Value[] keys = new Value[keyslen];
+            Value prevKey = null;
+            for (int i = 0; i < keyslen; i++) {
+                final int valSize = in.readInt();
+                if (valSize == -1) {
+                    prevKey.incrRefCount();
+                    keys[i] = prevKey;
+                } else {
+                    byte[] b = new byte[pfxLen + valSize];
+                    if (pfxLen > 0) {
+                        System.arraycopy(pfxBytes, 0, b, 0, pfxLen);
+                    }
+                    if (valSize > 0) {
+                        in.read(b, pfxLen, valSize);
+                    }
+                    prevKey = new Value(b);
+                    keys[i] = prevKey;
+                }
+            }
+            return keys;
+        }
+
+        /**
+         * Reads inline values stored as their lengths plus one, 0 for values in data pages,
+         * followed by their bytes.
+         */
+        @Nonnull
+        private byte[][] readInlineValues(@Nonnull final DataInputStream in, final int size)
+                throws IOException {
+            final byte[][] values = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                final int len = VariableByteCodec.decodeUnsignedInt(in);
+                if (len > 0) {
+                    final byte[] b = new byte[len - 1];
+                    in.readFully(b);
+                    values[i] = b;
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Reads keys stored as a dense array of fixed-width suffixes.
+         */
+        @Nonnull
+        private Value[] readFixedWidthKeys(@Nonnull final DataInputStream in,
+                @Nonnull final byte[] pfxBytes, final int keyslen, final int width)
+                throws IOException {
+            final int pfxLen = pfxBytes.length;
+            final int sfxLen = width - pfxLen;
+            final byte[] suffixes = new byte[keyslen * sfxLen];
+            in.readFully(suffixes);
+            final Value[] keys = new Value[keyslen];
+            for (int i = 0, pos = 0; i < keyslen; i++, pos += sfxLen) {
+                byte[] b = new byte[width];
+                if (pfxLen > 0) {
+                    System.arraycopy(pfxBytes, 0, b, 0, pfxLen);
+                }
+                System.arraycopy(suffixes, pos, b, pfxLen, sfxLen);
+                keys[i] = new Value(b);
+            }
+            return keys;
+        }
+
         private void write() throws IOException, BTreeException {
             if (!dirty) {
                 return;
@@ -1039,25 +2479,45 @@ public class BTree extends Paged {
                 prefix.writeTo(os);
             }
             // Write out the Values
-            Value prevKey = null;
-            for (int i = 0; i < keys.length; i++) {
-                final Value v = keys[i];
-                if (v == prevKey) {
-                    os.writeInt(-1);
-                } else {
-                    final int len = v.getLength();
-                    final int size = len - prefixlen;
-                    os.writeInt(size);
-                    if (size > 0) {
-                        v.writeTo(os, prefixlen, size);
+            final int width = _fileHeader._fixedKeyWidth;
+            if (width > 0) {
+                // dense array of fixed-width suffixes
+                final int size = width - prefixlen;
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i].writeTo(os, prefixlen, size);
+                }
+            } else {
+                Value prevKey = null;
+                for (int i = 0; i < keys.length; i++) {
+                    final Value v = keys[i];
+                    if (v == prevKey) {
+                        os.writeInt(-1);
+                    } else {
+                        final int len = v.getLength();
+                        final int size = len - prefixlen;
+                        os.writeInt(size);
+                        if (size > 0) {
+                            v.writeTo(os, prefixlen, size);
+                        }
                     }
+                    prevKey = v;
                 }
-                prevKey = v;
             }
             // Write out the pointers
             for (int i = 0; i < ptrs.length; i++) {
                 VariableByteCodec.encodeUnsignedLong(ptrs[i], os);
             }
+            // Write out the inline values if current node is a leaf holding values
+            if (values != null) {
+                for (final byte[] v : values) {
+                    if (v == null) {
+                        VariableByteCodec.encodeUnsignedInt(0, os);
+                    } else {
+                        VariableByteCodec.encodeUnsignedInt(v.length + 1, os);
+                        os.write(v);
+                    }
+                }
+            }
             // Write out link if current node is a leaf
             if (ph.getStatus() == LEAF) {
                 os.writeLong(prev);
@@ -1075,13 +2535,14 @@ public class BTree extends Paged {
             }
             final int vlen = keys.length;
             final short prefixlen = ph.getPrefixLength();
-            int datalen = prefixlen + (vlen >>> 2) /* key size */;
+            final boolean fixedWidth = _fileHeader._fixedKeyWidth > 0;
+            int datalen = prefixlen + (fixedWidth ? 0 : (vlen << 2)) /* key size */;
             Value prevValue = null;
             for (int i = 0; i < vlen; i++) {
                 final long ptr = ptrs[i];
                 datalen += VariableByteCodec.requiredBytes(ptr);
                 final Value v = keys[i];
-                if (v == prevValue) {
+                if (v == prevValue && !fixedWidth) {
                     continue;
                 }
                 final int keylen = v.getLength();
@@ -1092,21 +2553,66 @@ public class BTree extends Paged {
             if (ph.getStatus() == LEAF) {
                 datalen += 16;
             }
+            if (values != null) {
+                for (final byte[] v : values) {
+                    datalen += inlineLength(v);
+                }
+            }
             this.currentDataLen = datalen;
             return datalen;
         }
 
+        /** @return the bytes taken by the given inline value in a page */
+        private int inlineLength(@Nullable final byte[] v) {
+            return (v == null) ? 1 : VariableByteCodec.requiredBytes(v.length + 1) + v.length;
+        }
+
+        /** @return the pointer to the inline value at the given slot of this leaf */
+        private long inlinePointer(final int slot) {
+            return (page.getPageNum() << 16) | INLINE_FLAG | slot;
+        }
+
+        /** @return the pointer of the entry at the given index as reported to callbacks */
+        private long pointerAt(final int idx) {
+            final byte[][] vals = this.values;
+            return (vals != null && vals[idx] != null) ? inlinePointer(idx) : ptrs[idx];
+        }
+
+        /** @return the pointers of the entries as reported to callbacks */
+        @Nonnull
+        private long[] pointers() {
+            final byte[][] vals = this.values;
+            if (vals == null) {
+                return ptrs;
+            }
+            long[] translated = this.inlinePtrs;
+            if (translated == null) {
+                translated = ptrs.clone();
+                for (int i = 0; i < vals.length; i++) {
+                    if (vals[i] != null) {
+                        translated[i] = inlinePointer(i);
+                    }
+                }
+                this.inlinePtrs = translated;
+            }
+            return translated;
+        }
+
         private void incrDataLength(@Nonnull final Value key, final long ptr) {
             int datalen = currentDataLen;
             if (datalen == -1) {
                 datalen = calculateDataLength();
             }
             final int refcnt = key.incrRefCount();
-            if (refcnt == 1) {
-                datalen += key.getLength();
+            if (_fileHeader._fixedKeyWidth > 0) {
+                datalen += key.getLength(); // no key size and no sharing in a dense array
+            } else {
+                if (refcnt == 1) {
+                    datalen += key.getLength();
+                }
+                datalen += 4 /* key size */;
             }
             datalen += VariableByteCodec.requiredBytes(ptr);
-            datalen += 4 /* key size */;
             this.currentDataLen = datalen;
         }
 
@@ -1137,7 +2643,7 @@ public class BTree extends Paged {
                                 leftmostNode = getBTreeNode(root, leftmostNode.prev);
                                 final Value[] lmKeys = leftmostNode.keys;
                                 assert (lmKeys.length > 0);
-                                if (!lmKeys[0].equals(searchKey)) {
+                                if (_comparator.compare(lmKeys[0], searchKey) != 0) {
                                     break;
                                 }
                                 final int prevLookup = leftmostNode.ph.getLeftLookup();
@@ -1152,10 +2658,9 @@ public class BTree extends Paged {
                                 throw new BTreeCorruptException(
                                     "Duplicated key was not found: " + searchKey);
                             }
-                            final long[] leftmostPtrs = leftmostNode.ptrs;
-                            return leftmostPtrs[lmIdx];
+                            return leftmostNode.pointerAt(lmIdx);
                         } else {
-                            return ptrs[idx];
+                            return pointerAt(idx);
                         }
                     }
                 default:
@@ -1166,144 +2671,110 @@ public class BTree extends Paged {
 
         /**
          * Scan the leaf node. Note that keys might be shortest-possible value.
+         * 
+         * @return false if the callback canceled the scan
          */
-        void scanLeaf(@Nonnull final IndexQuery query, @Nonnull final BTreeCallback callback,
-                final boolean edge) {
+        boolean scanLeaf(@Nonnull final IndexQuery query,
+                @Nonnull final BTreeBatchCallback callback, final boolean edge) {
             assert (ph.getStatus() == LEAF) : ph.getStatus();
-            Value[] conds = query.getOperands();
+            final Value[] conds = query.getOperands();
+            final int size = keys.length;
             switch (query.getOperator()) {
                 case BasicIndexQuery.EQ: {
                     if (!edge) {
-                        for (int i = 0; i < keys.length; i++) {
-                            callback.indexInfo(keys[i], ptrs[i]);
-                        }
-                        return;
+                        return emit(callback, 0, size);
                     }
-                    final int leftIdx = searchLeftmostKey(keys, conds[0], keys.length);
-                    if (leftIdx >= 0) {
-                        assert (isDuplicateAllowed());
-                        final int rightIdx =
-                                searchRightmostKey(keys, conds[conds.length - 1], keys.length);
-                        for (int i = leftIdx; i <= rightIdx; i++) {
-                            callback.indexInfo(keys[i], ptrs[i]);
-                        }
+                    final int leftIdx = searchLeftmostKey(keys, conds[0], size);
+                    if (leftIdx < 0) {
+                        return true;
                     }
-                    break;
+                    assert (isDuplicateAllowed());
+                    final int rightIdx = searchRightmostKey(keys, conds[conds.length - 1], size);
+                    return emit(callback, leftIdx, rightIdx + 1);
                 }
                 case BasicIndexQuery.NE: {
-                    int leftIdx = searchLeftmostKey(keys, conds[0], keys.length);
-                    int rightIdx = isDuplicateAllowed()
-                            ? searchRightmostKey(keys, conds[conds.length - 1], keys.length)
-                            : leftIdx;
-                    for (int i = 0; i < ptrs.length; i++) {
-                        if (i < leftIdx || i > rightIdx) {
-                            callback.indexInfo(keys[i], ptrs[i]);
-                        }
+                    final int leftIdx = searchLeftmostKey(keys, conds[0], size);
+                    if (leftIdx < 0) {
+                        return emit(callback, 0, size);
                     }
-                    break;
+                    final int rightIdx = isDuplicateAllowed()
+                            ? searchRightmostKey(keys, conds[conds.length - 1], size)
+                            : leftIdx;
+                    return emit(callback, 0, leftIdx) && emit(callback, rightIdx + 1, size);
                 }
                 case BasicIndexQuery.BWX:
                 case BasicIndexQuery.BW:
                 case BasicIndexQuery.START_WITH:
                 case BasicIndexQuery.IN: {
                     if (!edge) {
-                        for (int i = 0; i < keys.length; i++) {
-                            if (query.testValue(keys[i])) {
-                                callback.indexInfo(keys[i], ptrs[i]);
-                            }
-                        }
-                        return;
-                    }
-                    int leftIdx = searchLeftmostKey(keys, conds[0], keys.length);
-                    if (leftIdx < 0) {
-                        leftIdx = -(leftIdx + 1);
+                        return emitMatching(query, callback, 0, size);
                     }
-                    int rightIdx = searchRightmostKey(keys, conds[conds.length - 1], keys.length);
+                    final int leftIdx = lowerBound(conds[0]);
+                    int rightIdx = searchRightmostKey(keys, conds[conds.length - 1], size);
                     if (rightIdx < 0) {
                         rightIdx = -(rightIdx + 1);
                     }
-                    for (int i = leftIdx; i < ptrs.length; i++) {
-                        if (i <= rightIdx && query.testValue(keys[i])) {
-                            callback.indexInfo(keys[i], ptrs[i]);
-                        }
-                    }
-                    break;
+                    return emitMatching(query, callback, leftIdx, Math.min(rightIdx + 1, size));
                 }
                 case BasicIndexQuery.NBWX:
                 case BasicIndexQuery.NBW:
                 case BasicIndexQuery.NOT_START_WITH: {
-                    int leftIdx = searchLeftmostKey(keys, conds[0], keys.length);
-                    if (leftIdx < 0) {
-                        leftIdx = -(leftIdx + 1);
-                    }
-                    int rightIdx = searchRightmostKey(keys, conds[conds.length - 1], keys.length);
-                    if (rightIdx < 0) {
-                        rightIdx = -(rightIdx + 1);
-                    }
-                    for (int i = 0; i < ptrs.length; i++) {
-                        if ((i <= leftIdx || i >= rightIdx) && query.testValue(keys[i])) {
-                            callback.indexInfo(keys[i], ptrs[i]);
-                        }
-                    }
-                    break;
-                }
-                case BasicIndexQuery.LT: {
-                    int leftIdx = searchLeftmostKey(keys, conds[0], keys.length);
-                    if (leftIdx < 0) {
-                        leftIdx = -(leftIdx + 1); // insertion point
-                    }
-                    for (int i = 0; i < leftIdx; i++) {
-                        callback.indexInfo(keys[i], ptrs[i]);
-                    }
-                    break;
-                }
-                case BasicIndexQuery.LE: {
-                    int leftIdx = searchRightmostKey(keys, conds[0], keys.length);
-                    if (leftIdx < 0) {
-                        leftIdx = -(leftIdx + 1); // insertion point
-                    }
-                    if (leftIdx >= ptrs.length) {
-                        leftIdx = ptrs.length - 1;
-                    }
-                    for (int i = 0; i <= leftIdx; i++) {
-                        callback.indexInfo(keys[i], ptrs[i]);
-                    }
-                    break;
-                }
-                case BasicIndexQuery.GT: {
-                    int rightIdx = searchRightmostKey(keys, conds[0], keys.length);
-                    if (rightIdx < 0) {
-                        rightIdx = -(rightIdx + 1);
-                    }
-                    for (int i = rightIdx + 1; i < ptrs.length; i++) {
-                        callback.indexInfo(keys[i], ptrs[i]);
-                    }
-                    break;
-                }
-                case BasicIndexQuery.GE: {
-                    int rightIdx = searchLeftmostKey(keys, conds[0], keys.length);
-                    if (rightIdx < 0) {
-                        rightIdx = -(rightIdx + 1);
-                    }
-                    for (int i = rightIdx; i < ptrs.length; i++) {
-                        callback.indexInfo(keys[i], ptrs[i]);
-                    }
-                    break;
+                    // keys equal to the operands are tested as NBW matches them
+                    final int leftEnd = upperBound(conds[0]);
+                    final int rightIdx = lowerBound(conds[conds.length - 1]);
+                    return emitMatching(query, callback, 0, leftEnd)
+                            && emitMatching(query, callback, Math.max(rightIdx, leftEnd), size);
                 }
+                case BasicIndexQuery.LT:
+                    return emit(callback, 0, lowerBound(conds[0]));
+                case BasicIndexQuery.LE:
+                    return emit(callback, 0, upperBound(conds[0]));
+                case BasicIndexQuery.GT:
+                    return emit(callback, upperBound(conds[0]), size);
+                case BasicIndexQuery.GE:
+                    return emit(callback, lowerBound(conds[0]), size);
                 case BasicIndexQuery.ANY:
-                    for (int i = 0; i < ptrs.length; i++) {
-                        callback.indexInfo(keys[i], ptrs[i]);
-                    }
-                    break;
+                    return emit(callback, 0, size);
                 case BasicIndexQuery.NOT_IN:
                 default:
-                    for (int i = 0; i < ptrs.length; i++) {
-                        if (query.testValue(keys[i])) {
-                            callback.indexInfo(keys[i], ptrs[i]);
-                        }
+                    return emitMatching(query, callback, 0, size);
+            }
+        }
+
+        /**
+         * Reports the entries in {@code [from, to)} of this leaf.
+         * 
+         * @return false if the callback canceled the scan
+         */
+        private boolean emit(@Nonnull final BTreeBatchCallback callback, final int from,
+                final int to) {
+            if (from >= to) {
+                return true;
+            }
+            return callback.indexInfo(keys, pointers(), from, to);
+        }
+
+        /**
+         * Reports each run of the entries matching the query in {@code [from, to)} of this leaf.
+         * 
+         * @return false if the callback canceled the scan
+         */
+        private boolean emitMatching(@Nonnull final IndexQuery query,
+                @Nonnull final BTreeBatchCallback callback, final int from, final int to) {
+            int run = -1;
+            for (int i = from; i < to; i++) {
+                if (query.testValue(keys[i])) {
+                    if (run < 0) {
+                        run = i;
                     }
-                    break;
+                } else if (run >= 0) {
+                    if (!callback.indexInfo(keys, pointers(), run, i)) {
+                        return false;
+                    }
+                    run = -1;
+                }
             }
+            return run < 0 || callback.indexInfo(keys, pointers(), run, to);
         }
 
         BTreeNode getLeafNode(@Nonnull final SearchType searchType, @Nonnull final Value key)
@@ -1338,7 +2809,7 @@ public class BTree extends Paged {
                                 break;
                             }
                             BTreeNode leftmostNode = this;
-                            if (keys[0].equals(key)) {
+                            if (_comparator.compare(keys[0], key) == 0) {
                                 int lookup = ph.getLeftLookup();
                                 while (lookup > 0) {
                                     leftmostNode = getBTreeNode(root, leftmostNode.prev);
@@ -1351,7 +2822,7 @@ public class BTree extends Paged {
                                         break;
                                     }
                                     Value firstKey = leftmostNode.keys[0];
-                                    if (!firstKey.equals(key)) {
+                                    if (_comparator.compare(firstKey, key) != 0) {
                                         break;
                                     }
                                 }
@@ -1415,8 +2886,18 @@ public class BTree extends Paged {
 
     protected class BTreeFileHeader extends FileHeader {
 
+        /** marks the fields appended after those of the subclass headers ("BTX1") */
+        private static final int TRAILER_MAGIC = 0x42545831;
+
         private long _rootPage = 0;
         private boolean _duplicateAllowed = true;
+        /** key width in bytes, 0 for variable-length keys */
+        private int _fixedKeyWidth = 0;
+        /** the name of the {@link KeyComparator} */
+        @Nonnull
+        private String _comparatorName = KeyComparator.BYTES.getName();
+        /** the maximum length of values stored inline in leaves, 0 for no inline values */
+        private int _inlineThreshold = 0;
 
         public BTreeFileHeader(int pageSize) {
             super(pageSize);
@@ -1436,6 +2917,30 @@ public class BTree extends Paged {
             raf.writeLong(_rootPage);
         }
 
+        /**
+         * Reads {@code [magic, fixedKeyWidth, comparatorName, inlineThreshold]}. Files written
+         * without these fields keep the defaults.
+         */
+        @Override
+        protected synchronized void readTrailer(RandomAccessFile raf) throws IOException {
+            super.readTrailer(raf);
+            if (raf.getFilePointer() + 4 > raf.length() || raf.readInt() != TRAILER_MAGIC) {
+                return;
+            }
+            this._fixedKeyWidth = raf.readInt();
+            this._comparatorName = raf.readUTF();
+            this._inlineThreshold = raf.readInt();
+        }
+
+        @Override
+        protected synchronized void writeTrailer(RandomAccessFile raf) throws IOException {
+            super.writeTrailer(raf);
+            raf.writeInt(TRAILER_MAGIC);
+            raf.writeInt(_fixedKeyWidth);
+            raf.writeUTF(_comparatorName);
+            raf.writeInt(_inlineThreshold);
+        }
+
         /** The root page of the storage tree */
         @Deprecated
         public final void setRootPage(long rootPage) {
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j;
+
+/**
+ * BTreeBatchCallback is a callback interface for index lookups that receives matching entries in
+ * slices, typically a contiguous run of a leaf, instead of one by one as {@link BTreeCallback}.
+ * 
+ * The given arrays are owned by the index. They must not be modified nor retained after the
+ * method returns.
+ */
+public interface BTreeBatchCallback {
+
+    /**
+     * @param keys the keys being reported in {@code [from, to)}
+     * @param pointers the data pointers being reported in {@code [from, to)}
+     * @return false to cancel the enumeration
+     */
+    boolean indexInfo(Value[] keys, long[] pointers, int from, int to);
+
+    /**
+     * @param keys the keys being reported in {@code [from, to)}
+     * @param values the values being reported in {@code [from, to)}
+     * @return false to cancel the enumeration
+     */
+    boolean indexInfo(Value[] keys, byte[][] values, int from, int to);
+
+}
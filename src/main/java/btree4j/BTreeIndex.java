@@ -21,14 +21,15 @@ import btree4j.utils.collections.LRUMap;
 import btree4j.utils.collections.longs.LongHash.BucketEntry;
 import btree4j.utils.collections.longs.LongHash.Cleaner;
 import btree4j.utils.collections.longs.PurgeOptObservableLongLRUMap;
+import btree4j.utils.lang.ArrayUtils;
 import btree4j.utils.lang.Primitives;
 
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -38,6 +39,9 @@ import javax.annotation.Nullable;
 public class BTreeIndex extends BTree {
 
     private static final byte DATA_RECORD = 10;
+    /** The length written for a removed tuple, whose tid is kept so that other tids stay */
+    private static final int REMOVED_LENGTH = -1;
+    private static final byte[] REMOVED_TUPLE = new byte[0];
 
     public static final int DATA_CACHE_SIZE;
     public static final int DATA_CACHE_PURGE_UNIT;
@@ -86,6 +90,25 @@ public class BTreeIndex extends BTree {
         }
     }
 
+    /**
+     * Makes this index clustered: values up to the given length are stored inline in the leaves
+     * next to their keys instead of data pages, so that a point lookup reads a single leaf and a
+     * range scan reads leaves sequentially. Larger values are stored in data pages as usual.
+     * 
+     * Inline values have no record pointers as their slots in the leaves shift on updates. They
+     * are read by their keys, and {@link #addValue(Value, Value)}, {@link #putValue(Value, Value)},
+     * {@link #findValue(Value)} and {@link #searchKeys(IndexQuery, BTreeCallback)} give
+     * {@link #INLINE_VALUE} as their pointers.
+     *
+     * @param length the maximum length of inline values in bytes, or 0 to store all values in
+     *        data pages (default)
+     * @see BTree#setInlineThreshold(int)
+     */
+    @Override
+    public void setInlineThreshold(int length) {
+        super.setInlineThreshold(length);
+    }
+
     @Override
     protected BFileHeader createFileHeader(int pageSize) {
         return new BFileHeader(pageSize);
@@ -108,20 +131,93 @@ public class BTreeIndex extends BTree {
 
     @Nullable
     public synchronized byte[] getValueBytes(@Nonnull Value key) throws BTreeException {
-        final long ptr = findValue(key);
+        final long ptr = findPointer(key);
         if (ptr == KEY_NOT_FOUND) {
             return null;
         }
         return retrieveTuple(ptr);
     }
 
+    /**
+     * Gets the values of the given keys in a batch. Keys are looked up in sorted order visiting
+     * each leaf at most once, and then tuples are read grouped by data pages in the order of page
+     * numbers.
+     * 
+     * @return the values in the order of the given keys. null for missing keys.
+     */
+    @Nonnull
+    public synchronized byte[][] getValues(@Nonnull Value[] keys) throws BTreeException {
+        final long[] ptrs = findPointers(keys);
+        final int size = ptrs.length;
+        final byte[][] tuples = new byte[size][];
+        final int[] order = ArrayUtils.sortedIndexes(ptrs);
+        DataPage dataPage = null;
+        for (int i = 0; i < size; i++) {
+            final int idx = order[i];
+            final long ptr = ptrs[idx];
+            if (ptr == KEY_NOT_FOUND) {
+                continue;
+            }
+            if (isInlinePointer(ptr)) {
+                tuples[idx] = getInlineValue(ptr);
+                continue;
+            }
+            final long pageNum = getPageNumFromPointer(ptr);
+            if (dataPage == null || dataPage.getPageNum() != pageNum) {
+                dataPage = getDataPage(pageNum);
+            }
+            tuples[idx] = dataPage.get(getTidFromPointer(ptr));
+        }
+        return tuples;
+    }
+
     protected synchronized final byte[] retrieveTuple(long ptr) throws BTreeException {
+        if (isInlinePointer(ptr)) {
+            return getInlineValue(ptr);
+        }
         long pageNum = getPageNumFromPointer(ptr);
         DataPage dataPage = getDataPage(pageNum);
         int tidx = getTidFromPointer(ptr);
         return dataPage.get(tidx);
     }
 
+    /**
+     * @return the tuple or null if the predicate rejects it
+     */
+    @Nullable
+    protected synchronized final byte[] retrieveTuple(long ptr, @Nonnull Value key,
+            @Nullable ValuePredicate predicate) throws BTreeException {
+        if (isInlinePointer(ptr)) {
+            final byte[] value = getInlineValue(ptr);
+            if (predicate != null && !predicate.test(key, value, 0, value.length)) {
+                return null;
+            }
+            return value;
+        }
+        DataPage dataPage = getDataPage(getPageNumFromPointer(ptr));
+        int tidx = getTidFromPointer(ptr);
+        if (predicate != null && !dataPage.test(tidx, key, predicate)) {
+            return null;
+        }
+        return dataPage.get(tidx);
+    }
+
+    /**
+     * Points the given view to the tuple without copying it.
+     * 
+     * @return false if the tuple is not found
+     */
+    protected synchronized final boolean viewTuple(long ptr, @Nonnull ValueView view)
+            throws BTreeException {
+        if (isInlinePointer(ptr)) {
+            final byte[] value = getInlineValue(ptr);
+            view.reset(value, 0, value.length);
+            return true;
+        }
+        DataPage dataPage = getDataPage(getPageNumFromPointer(ptr));
+        return dataPage.view(getTidFromPointer(ptr), view);
+    }
+
     @Nullable
     public Value getValue(@Nonnull Value key) throws BTreeException {
         final byte[] tuple = getValueBytes(key);
@@ -133,11 +229,143 @@ public class BTreeIndex extends BTree {
 
     @Override
     public final void search(IndexQuery query, BTreeCallback callback) throws BTreeException {
-        super.search(query, getHandler(callback));
+        super.search(query, getHandler(callback, null));
     }
 
-    protected BTreeCallback getHandler(BTreeCallback handler) {
-        return new BFileCallback(handler);
+    /**
+     * Reports the values of the matching entries of a leaf in bulk through
+     * {@link BTreeBatchCallback#indexInfo(Value[], byte[][], int, int)}. Every value of a key is
+     * reported in {@link BTreeIndexDup}, so a key may appear in a slice repeatedly.
+     */
+    @Override
+    public final void search(@Nonnull IndexQuery query, @Nonnull BTreeBatchCallback callback)
+            throws BTreeException {
+        super.search(query, new BFileBatchCallback(callback));
+    }
+
+    /**
+     * Scans values without allocation per entry. Keys are the instances held by leaves and values
+     * are reported through a single {@link ValueView} moved over data pages, so both are valid
+     * only during the callback.
+     */
+    public final void searchViews(@Nonnull IndexQuery query,
+            @Nonnull BTreeViewCallback callback) throws BTreeException {
+        super.search(query, new ViewBatchCallback(callback));
+    }
+
+    /**
+     * Scans values as {@link #search(IndexQuery, BTreeCallback)} does but reads them in windows of
+     * matched entries. Pointers in a window are sorted so that each data page is read once and
+     * pages are read in the order of the file, which keeps cold scans mostly sequential when
+     * values were not inserted in the key order.
+     * 
+     * @param windowSize the number of values buffered before they are read. A window may be
+     *        exceeded by the values of a single key in {@link BTreeIndexDup}.
+     * @param keyOrder whether values of a window are reported in the key order or in the order of
+     *        data pages
+     */
+    public final synchronized void search(@Nonnull IndexQuery query, int windowSize,
+            boolean keyOrder, @Nonnull BTreeCallback callback) throws BTreeException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Illegal window size: " + windowSize);
+        }
+        final PageOrderedCallback handler =
+                new PageOrderedCallback(callback, windowSize, keyOrder);
+        super.search(query, handler);
+        if (!handler.canceled) {
+            handler.flush();
+        }
+    }
+
+    /**
+     * Pages values as {@link BTree#search(IndexQuery, ContinuationToken, int, int, BTreeCallback)}
+     * does. The offset and the limit count keys, so every value of a key is reported in
+     * {@link BTreeIndexDup}.
+     */
+    @Override
+    public final ContinuationToken search(@Nonnull IndexQuery query,
+            @Nullable ContinuationToken continuation, int offset, int limit,
+            @Nonnull BTreeCallback callback) throws BTreeException {
+        return super.search(query, continuation, offset, limit, getHandler(callback, null));
+    }
+
+    /**
+     * Reports only the values accepted by the given predicate. The predicate is evaluated against
+     * data pages, so rejected values are never copied.
+     */
+    public final void search(@Nonnull IndexQuery query, @Nullable ValuePredicate predicate,
+            @Nonnull BTreeCallback callback) throws BTreeException {
+        super.search(query, getHandler(callback, predicate));
+    }
+
+    /**
+     * Reports the matching keys and their pointers through {@link BTreeCallback#indexInfo(Value,
+     * long)} without reading values. Only index pages are read, so the data page cache is kept for
+     * value reads. A pointer locates the value (the list of values in {@link BTreeIndexDup}) in
+     * data pages and is only meaningful to this index. {@link #INLINE_VALUE} is reported for
+     * values stored inline.
+     */
+    public final void searchKeys(@Nonnull IndexQuery query, @Nonnull final BTreeCallback callback)
+            throws BTreeException {
+        if (getInlineThreshold() == 0) {
+            super.search(query, callback);
+            return;
+        }
+        super.search(query, new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value key, long pointer) {
+                return callback.indexInfo(key, isInlinePointer(pointer) ? INLINE_VALUE : pointer);
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                return callback.indexInfo(key, value);
+            }
+        });
+    }
+
+    /**
+     * Reports the matching keys and their pointers in slices as
+     * {@link #searchKeys(IndexQuery, BTreeCallback)} does.
+     */
+    public final void searchKeys(@Nonnull IndexQuery query,
+            @Nonnull final BTreeBatchCallback callback) throws BTreeException {
+        if (getInlineThreshold() == 0) {
+            super.search(query, callback);
+            return;
+        }
+        super.search(query, new BTreeBatchCallback() {
+            @Override
+            public boolean indexInfo(Value[] keys, long[] pointers, int from, int to) {
+                long[] reported = pointers;
+                for (int i = from; i < to; i++) {
+                    if (isInlinePointer(pointers[i])) {
+                        if (reported == pointers) {
+                            reported = pointers.clone();
+                        }
+                        reported[i] = INLINE_VALUE;
+                    }
+                }
+                return callback.indexInfo(keys, reported, from, to);
+            }
+
+            @Override
+            public boolean indexInfo(Value[] keys, byte[][] values, int from, int to) {
+                return callback.indexInfo(keys, values, from, to);
+            }
+        });
+    }
+
+    /**
+     * @return whether the given key exists. Data pages are not read.
+     */
+    public final boolean containsKey(@Nonnull Value key) throws BTreeException {
+        return findPointer(key) != KEY_NOT_FOUND;
+    }
+
+    protected BTreeCallback getHandler(BTreeCallback handler,
+            @Nullable ValuePredicate predicate) {
+        return new BFileCallback(handler, predicate);
     }
 
     public final long addValue(long key, @Nonnull byte[] value) throws BTreeException {
@@ -149,19 +377,22 @@ public class BTreeIndex extends BTree {
     }
 
     /**
-     * @return pointer to the inserted record
+     * @return the pointer to the record, or {@link #INLINE_VALUE} if the value is stored inline
      */
     public synchronized long addValue(@Nonnull Value key, @Nonnull Value value)
             throws BTreeException {
-        long ptr = findValue(key);
+        long ptr = findPointer(key);
         if (ptr != KEY_NOT_FOUND) {// key found
             // update the page
             if (!isDuplicateAllowed()) {
-                updateValue(ptr, value);
-                return ptr;
+                return updateValue(ptr, value);
             }
         }
         // insert a new key
+        if (isInlinable(value)) {
+            addInlineValue(key, value.getData());
+            return INLINE_VALUE;
+        }
         ptr = storeValue(value);
         addValue(key, ptr);
         return ptr;
@@ -171,26 +402,157 @@ public class BTreeIndex extends BTree {
         return putValue(key, new Value(value));
     }
 
+    /**
+     * @return the pointer to the record, or {@link #INLINE_VALUE} if the value is stored inline
+     */
     public synchronized long putValue(@Nonnull Value key, @Nonnull Value value)
             throws BTreeException {
-        long ptr = findValue(key);
+        long ptr = findPointer(key);
         if (ptr != KEY_NOT_FOUND) {
             // update the page
-            updateValue(ptr, value);
-            return ptr;
+            return updateValue(ptr, value);
         } else {
             // insert a new key
+            if (isInlinable(value)) {
+                addInlineValue(key, value.getData());
+                return INLINE_VALUE;
+            }
             ptr = storeValue(value);
             addValue(key, ptr);
             return ptr;
         }
     }
 
-    protected final void updateValue(long ptr, @Nonnull Value value) throws BTreeException {
+    /**
+     * Adds the given key/value pairs in a batch as {@link #addValue(Value, Value)} does for each
+     * pair. Keys are sorted and found/inserted by descending the tree once per leaf, and new values
+     * are packed into data pages contiguously in the order of the keys.
+     * 
+     * @return pointers to the records in the order of the given keys. {@link #INLINE_VALUE} for
+     *         values stored inline.
+     */
+    @Nonnull
+    public synchronized long[] addValues(@Nonnull Value[] keys, @Nonnull Value[] values)
+            throws BTreeException {
+        return addValues(keys, values, !isDuplicateAllowed());
+    }
+
+    /**
+     * Puts the given key/value pairs in a batch as {@link #putValue(Value, Value)} does for each
+     * pair.
+     * 
+     * @return pointers to the records in the order of the given keys. {@link #INLINE_VALUE} for
+     *         values stored inline.
+     * @see #addValues(Value[], Value[])
+     */
+    @Nonnull
+    public synchronized long[] putAll(@Nonnull Value[] keys, @Nonnull Value[] values)
+            throws BTreeException {
+        return addValues(keys, values, true);
+    }
+
+    /**
+     * @param update update the record of an existing key instead of adding a new one. When a key
+     *        appears more than once in the batch, the last value wins.
+     */
+    @Nonnull
+    private long[] addValues(@Nonnull final Value[] keys, @Nonnull final Value[] values,
+            final boolean update) throws BTreeException {
+        final int size = keys.length;
+        if (values.length != size) {
+            throw new IllegalArgumentException(
+                "keys.length " + size + " != values.length " + values.length);
+        }
+        if (getInlineThreshold() > 0) {
+            // inline values are put into leaves one by one
+            final long[] ptrs = new long[size];
+            for (int i = 0; i < size; i++) {
+                ptrs[i] = update ? putValue(keys[i], values[i]) : addValue(keys[i], values[i]);
+            }
+            return ptrs;
+        }
+        final long[] ptrs = update ? findValues(keys) : new long[size];
+        final KeyComparator comparator = getKeyComparator();
+        final int[] order = ArrayUtils.sortedIndexes(keys, comparator);
+
+        // pick up the records to store in the order of the keys
+        final int[] stores = new int[size];
+        final int[] slots = new int[size]; // slot in stores for each key in the sorted order
+        int numStores = 0;
+        for (int i = 0; i < size;) {
+            int last = i;
+            int slot = -1;
+            if (update) {
+                final Value key = keys[order[i]];
+                while (last + 1 < size && comparator.compare(keys[order[last + 1]], key) == 0) {
+                    last++;
+                }
+                final long ptr = ptrs[order[i]];
+                if (ptr != KEY_NOT_FOUND) {
+                    updateValue(ptr, values[order[last]]);
+                    for (int j = i + 1; j <= last; j++) {
+                        ptrs[order[j]] = ptr;
+                    }
+                } else {
+                    slot = numStores;
+                    stores[numStores++] = order[last];
+                }
+            } else {
+                slot = numStores;
+                stores[numStores++] = order[i];
+            }
+            for (int j = i; j <= last; j++) {
+                slots[j] = slot;
+            }
+            i = last + 1;
+        }
+        if (numStores == 0) {
+            return ptrs;
+        }
+
+        final Value[] newKeys = new Value[numStores];
+        final long[] newPtrs = new long[numStores];
+        storeValues(values, stores, numStores, newPtrs);
+        for (int i = 0; i < numStores; i++) {
+            newKeys[i] = keys[stores[i]];
+        }
+        addValues(newKeys, newPtrs);
+
+        for (int i = 0; i < size; i++) {
+            final int slot = slots[i];
+            if (slot != -1) {
+                ptrs[order[i]] = newPtrs[slot];
+            }
+        }
+        return ptrs;
+    }
+
+    private boolean isInlinable(@Nonnull Value value) {
+        final int threshold = getInlineThreshold();
+        return threshold > 0 && value.getLength() <= threshold;
+    }
+
+    /**
+     * @param ptr the pointer to the record, or a transient pointer to an inline value
+     * @return the pointer to the record after the update, or {@link #INLINE_VALUE} if the value
+     *         is stored inline
+     */
+    protected final long updateValue(long ptr, @Nonnull Value value) throws BTreeException {
+        if (isInlinePointer(ptr)) {
+            if (isInlinable(value)) {
+                replaceInlineValue(ptr, value.getData(), 0L);
+                return INLINE_VALUE;
+            }
+            // grown beyond the threshold
+            final long newPtr = storeValue(value);
+            replaceInlineValue(ptr, null, newPtr);
+            return newPtr;
+        }
         long pageNum = getPageNumFromPointer(ptr);
         DataPage dataPage = getDataPage(pageNum);
         int tidx = getTidFromPointer(ptr);
         dataPage.set(tidx, value);
+        return ptr;
     }
 
     protected final long storeValue(@Nonnull Value value) throws BTreeException {
@@ -225,6 +587,41 @@ public class BTreeIndex extends BTree {
         return ptr;
     }
 
+    /**
+     * Stores {@code values[indexes[0..size)]} filling up a data page before moving to another one.
+     */
+    protected final void storeValues(@Nonnull final Value[] values, @Nonnull final int[] indexes,
+            final int size, @Nonnull final long[] dstPtrs) throws BTreeException {
+        final BFileHeader fh = getFileHeader();
+        final FreeList freeList = fh.getFreeList();
+        final int workSize = fh.getWorkSize();
+
+        DataPage dataPage = null;
+        FreeSpace free = null;
+        for (int i = 0; i < size; i++) {
+            final Value value = values[indexes[i]];
+            final int requiredSize = value.getLength() + 4;
+            if (dataPage == null || workSize - dataPage.getTotalDataLen() < requiredSize) {
+                if (dataPage != null) {
+                    saveFreeList(freeList, free, dataPage);
+                }
+                free = freeList.retrieve(requiredSize);
+                if (free == null) {
+                    dataPage = createDataPage();
+                    free = new FreeSpace(dataPage.getPageNum(), workSize);
+                    freeList.add(free);
+                } else {
+                    dataPage = getDataPage(free.getPage());
+                }
+            }
+            final int tid = dataPage.add(value);
+            dstPtrs[i] = createPointer(dataPage.getPageNum(), tid);
+        }
+        if (dataPage != null) {
+            saveFreeList(freeList, free, dataPage);
+        }
+    }
+
     private void saveFreeList(@Nonnull FreeList freeList, @Nullable FreeSpace free,
             @Nonnull DataPage dataPage) {
         final BFileHeader fh = getFileHeader();
@@ -245,7 +642,7 @@ public class BTreeIndex extends BTree {
     public synchronized byte[][] remove(Value key) throws BTreeException {
         final List<byte[]> list = new ArrayList<byte[]>(4);
         while (true) {
-            final long ptr = findValue(key);
+            final long ptr = findPointer(key);
             if (ptr == KEY_NOT_FOUND) {// key found
                 break;
             }
@@ -264,24 +661,18 @@ public class BTreeIndex extends BTree {
     }
 
     protected final byte[] removeValue(long ptr) throws BTreeException {
+        if (isInlinePointer(ptr)) {
+            return getInlineValue(ptr); // removed along with the key
+        }
         long pageNum = getPageNumFromPointer(ptr);
         DataPage dataPage = getDataPage(pageNum);
         int tidx = getTidFromPointer(ptr);
-        final byte[] b = dataPage.remove(tidx);
-
-        /*
-        // adjust the free-list
-        BFileHeader fh = getFileHeader();
-        FreeList freeList = fh.getFreeList();
-        FreeSpace free = freeList.find(pageNum);
-        saveFreeList(freeList, free, dataPage);
-         */
-
-        return b;
+        return dataPage.remove(tidx);
     }
 
     private DataPage createDataPage() throws BTreeException {
         Page p = getFreePage();
+        ((BFilePageHeader) p.getPageHeader()).clearTupleCount();
         DataPage dataPage = new DataPage(p);
         dataCache.put(p.getPageNum(), dataPage);
         return dataPage;
@@ -306,8 +697,16 @@ public class BTreeIndex extends BTree {
         private final Page page;
         private final BFilePageHeader ph;
 
+        // tuples read from the page are null until they are retrieved
         private final List<byte[]> tuples = new ArrayList<byte[]>(12);
         private int totalDataLen = 0;
+        /** the number of tuples not removed */
+        private int liveCount = 0;
+
+        // the bytes of the page and the locations of the tuples in it
+        private byte[] raw;
+        private int[] offsets;
+        private int[] lengths;
 
         private boolean loaded = false;
         private boolean dirty = false;
@@ -337,6 +736,7 @@ public class BTreeIndex extends BTree {
 
             // update controls
             ph.incrTupleCount();
+            liveCount++;
             totalDataLen += (tuple.length + 4);
             //ph.setDataLength(totalDataLen);
             setDirty();
@@ -349,26 +749,50 @@ public class BTreeIndex extends BTree {
                 throw new IllegalStateException(
                     "Illegal tid for DataPage#" + page.getPageNum() + ": " + tidx);
             }
+            if (tuples.get(tidx) == REMOVED_TUPLE) {
+                throw new IllegalStateException(
+                    "Removed tid for DataPage#" + page.getPageNum() + ": " + tidx);
+            }
             final byte[] tuple = value.getData();
             final byte[] oldTuple = tuples.set(tidx, tuple);
-            if (oldTuple != null) {
-                int diff = tuple.length - oldTuple.length;
-                totalDataLen += diff;
-                //ph.setDataLength(totalDataLen);
-            }
+            final int oldLen = (oldTuple == null) ? lengths[tidx] : oldTuple.length;
+            totalDataLen += (tuple.length - oldLen);
+            //ph.setDataLength(totalDataLen);
             setDirty();
         }
 
+        /**
+         * Removes the tuple, keeping its tid as a removed one so that the other tids stay. The
+         * space of the tuple is given back to the free list, and the page is unlinked when no
+         * tuple is left.
+         * 
+         * @return the removed tuple, or null if it is already removed
+         */
+        @Nullable
         public byte[] remove(int tidx) throws BTreeException {
             final int size = tuples.size();
             if (tidx >= size) {
                 throw new IllegalStateException("Index out of range: " + tidx);
             }
-            final byte[] tuple = tuples.get(tidx); // TODO REVIEWME storeCache. remove effects other tids.
-            this.dirty = true;
-            if (ph.decrTupleCount() == 0) {
-                dataCache.remove(page.getPageNum());
+            final byte[] tuple = get(tidx);
+            if (tuple == null) {
+                return null; // values shared through the store cache are removed once
+            }
+            tuples.set(tidx, REMOVED_TUPLE);
+            totalDataLen -= tuple.length;
+            final long pageNum = page.getPageNum();
+            final FreeList freeList = getFileHeader().getFreeList();
+            final FreeSpace free = freeList.find(pageNum);
+            if (--liveCount == 0) {
+                if (free != null) {
+                    freeList.remove(free);
+                }
+                ph.clearTupleCount();
+                dataCache.remove(pageNum);
                 unlinkPages(page);
+            } else {
+                setDirty();
+                saveFreeList(freeList, free, this);
             }
             return tuple;
         }
@@ -383,7 +807,46 @@ public class BTreeIndex extends BTree {
             if (tidx >= tuples.size()) {
                 return null; // REVIEWME
             }
-            return tuples.get(tidx);
+            byte[] tuple = tuples.get(tidx);
+            if (tuple == REMOVED_TUPLE) {
+                return null;
+            }
+            if (tuple == null) {
+                final int off = offsets[tidx];
+                tuple = Arrays.copyOfRange(raw, off, off + lengths[tidx]);
+                tuples.set(tidx, tuple);
+            }
+            return tuple;
+        }
+
+        public boolean view(int tidx, @Nonnull ValueView view) {
+            if (tidx >= tuples.size()) {
+                return false;
+            }
+            final byte[] tuple = tuples.get(tidx);
+            if (tuple == REMOVED_TUPLE) {
+                return false;
+            }
+            if (tuple == null) {
+                view.reset(raw, offsets[tidx], lengths[tidx]);
+            } else {
+                view.reset(tuple, 0, tuple.length);
+            }
+            return true;
+        }
+
+        public boolean test(int tidx, @Nonnull Value key, @Nonnull ValuePredicate predicate) {
+            if (tidx >= tuples.size()) {
+                return false;
+            }
+            final byte[] tuple = tuples.get(tidx);
+            if (tuple == REMOVED_TUPLE) {
+                return false;
+            }
+            if (tuple == null) {
+                return predicate.test(key, raw, offsets[tidx], lengths[tidx]);
+            }
+            return predicate.test(key, tuple, 0, tuple.length);
         }
 
         public void read() throws BTreeException, IOException {
@@ -394,17 +857,38 @@ public class BTreeIndex extends BTree {
             if (tupleCount == 0) {
                 return;
             }
-            Value v = readValue(page);
-            DataInputStream in = new DataInputStream(v.getInputStream());
+            // tuples are not copied until they are retrieved
+            final Value v = readValue(page);
+            final byte[] b = v.getBackingArray();
+            final int end = v.getPosition() + v.getLength();
+            final int[] offs = new int[tupleCount];
+            final int[] lens = new int[tupleCount];
+            int pos = v.getPosition();
             for (int i = 0; i < tupleCount; i++) {
-                int len = in.readInt();
-                byte[] tuple = new byte[len];
-                in.read(tuple);
-                tuples.add(tuple);
+                if (pos + 4 > end) {
+                    throw new IOException("Unexpected end of page#" + page.getPageNum());
+                }
+                final int len = Primitives.getInt(b, pos);
+                pos += 4;
+                if (len == REMOVED_LENGTH) {
+                    tuples.add(REMOVED_TUPLE);
+                    continue;
+                }
+                if (len < 0 || pos + len > end) {
+                    throw new IOException("Illegal tuple length: " + len);
+                }
+                offs[i] = pos;
+                lens[i] = len;
+                pos += len;
+                tuples.add(null);
+                liveCount++;
             }
-            if (in.available() > 0) {
-                throw new IllegalStateException(in.available() + " bytes left");
+            if (pos < end) {
+                throw new IllegalStateException((end - pos) + " bytes left");
             }
+            this.raw = b;
+            this.offsets = offs;
+            this.lengths = lens;
             this.totalDataLen = v.getLength();
             this.loaded = true;
         }
@@ -418,12 +902,21 @@ public class BTreeIndex extends BTree {
             }
             final byte[] dest = new byte[totalDataLen];
             int pos = 0;
-            for (byte[] tuple : tuples) {
-                assert (tuple != null);
-                final int len = tuple.length;
+            for (int i = 0, size = tuples.size(); i < size; i++) {
+                final byte[] tuple = tuples.get(i);
+                if (tuple == REMOVED_TUPLE) {
+                    Primitives.putInt(dest, pos, REMOVED_LENGTH);
+                    pos += 4;
+                    continue;
+                }
+                final int len = (tuple == null) ? lengths[i] : tuple.length;
                 Primitives.putInt(dest, pos, len);
                 pos += 4;
-                System.arraycopy(tuple, 0, dest, pos, len);
+                if (tuple == null) {
+                    System.arraycopy(raw, offsets[i], dest, pos, len);
+                } else {
+                    System.arraycopy(tuple, 0, dest, pos, len);
+                }
                 pos += len;
             }
             if (pos != totalDataLen) {
@@ -488,8 +981,8 @@ public class BTreeIndex extends BTree {
             return tupleCount++;
         }
 
-        public int decrTupleCount() {
-            return tupleCount--;
+        public void clearTupleCount() {
+            this.tupleCount = 0;
         }
 
         @Override
@@ -509,18 +1002,24 @@ public class BTreeIndex extends BTree {
     private final class BFileCallback implements BTreeCallback {
 
         final BTreeCallback handler;
+        @Nullable
+        final ValuePredicate predicate;
 
-        public BFileCallback(BTreeCallback handler) {
+        public BFileCallback(BTreeCallback handler, @Nullable ValuePredicate predicate) {
             this.handler = handler;
+            this.predicate = predicate;
         }
 
         public boolean indexInfo(Value key, long pointer) {
             final byte[] tuple;
             try {
-                tuple = retrieveTuple(pointer);
+                tuple = retrieveTuple(pointer, key, predicate);
             } catch (BTreeException e) {
                 throw new IllegalStateException(e);
             }
+            if (tuple == null && predicate != null) {
+                return true; // rejected
+            }
             return handler.indexInfo(key, tuple);
         }
 
@@ -529,6 +1028,218 @@ public class BTreeIndex extends BTree {
         }
     }
 
+    /**
+     * Adds the values pointed by the given pointer to the buffer.
+     */
+    protected void retrieveTuples(@Nonnull Value key, long ptr, @Nonnull TupleBuffer buf)
+            throws BTreeException {
+        buf.add(key, retrieveTuple(ptr));
+    }
+
+    /**
+     * Adds the pointers to the values pointed by the given pointer to the buffer.
+     */
+    protected void expandPointers(@Nonnull Value key, long ptr, @Nonnull PointerBuffer buf)
+            throws BTreeException {
+        buf.add(key, ptr);
+    }
+
+    /** Parallel arrays of keys and value pointers */
+    protected static final class PointerBuffer {
+
+        private Value[] keys = new Value[64];
+        private long[] pointers = new long[64];
+        private int size = 0;
+
+        PointerBuffer() {}
+
+        public void add(@Nonnull Value key, long ptr) {
+            if (size == keys.length) {
+                this.keys = Arrays.copyOf(keys, size * 2);
+                this.pointers = Arrays.copyOf(pointers, size * 2);
+            }
+            keys[size] = key;
+            pointers[size] = ptr;
+            size++;
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0, size, null);
+            this.size = 0;
+        }
+    }
+
+    private final class PageOrderedCallback implements BTreeBatchCallback {
+
+        final BTreeCallback handler;
+        final int windowSize;
+        final boolean keyOrder;
+        final PointerBuffer window = new PointerBuffer();
+
+        boolean canceled = false;
+
+        public PageOrderedCallback(BTreeCallback handler, int windowSize, boolean keyOrder) {
+            this.handler = handler;
+            this.windowSize = windowSize;
+            this.keyOrder = keyOrder;
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, long[] pointers, int from, int to) {
+            try {
+                for (int i = from; i < to; i++) {
+                    expandPointers(keys[i], pointers[i], window);
+                    if (window.size >= windowSize && !flush()) {
+                        this.canceled = true;
+                        return false;
+                    }
+                }
+            } catch (BTreeException e) {
+                throw new IllegalStateException(e);
+            }
+            return true;
+        }
+
+        /**
+         * Reads the values of the window in the order of pointers, i.e., data pages and tuples.
+         * 
+         * @return false if the handler canceled the scan
+         */
+        boolean flush() throws BTreeException {
+            final int size = window.size;
+            if (size == 0) {
+                return true;
+            }
+            final Value[] keys = window.keys;
+            final int[] order = ArrayUtils.sortedIndexes(Arrays.copyOf(window.pointers, size));
+            try {
+                if (keyOrder) {
+                    final byte[][] values = new byte[size][];
+                    for (int idx : order) {
+                        values[idx] = retrieveTuple(window.pointers[idx]);
+                    }
+                    for (int i = 0; i < size; i++) {
+                        if (!handler.indexInfo(keys[i], values[i])) {
+                            return false;
+                        }
+                    }
+                } else {
+                    for (int idx : order) {
+                        if (!handler.indexInfo(keys[idx], retrieveTuple(window.pointers[idx]))) {
+                            return false;
+                        }
+                    }
+                }
+            } finally {
+                window.clear();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, byte[][] values, int from, int to) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** Parallel arrays of keys and values reused across slices */
+    protected static final class TupleBuffer {
+
+        private Value[] keys = new Value[64];
+        private byte[][] values = new byte[64][];
+        private int size = 0;
+
+        TupleBuffer() {}
+
+        public void add(@Nonnull Value key, @Nullable byte[] value) {
+            if (size == keys.length) {
+                this.keys = Arrays.copyOf(keys, size * 2);
+                this.values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            values[size] = value;
+            size++;
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            this.size = 0;
+        }
+    }
+
+    private final class BFileBatchCallback implements BTreeBatchCallback {
+
+        final BTreeBatchCallback handler;
+        final TupleBuffer buf = new TupleBuffer();
+
+        public BFileBatchCallback(BTreeBatchCallback handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, long[] pointers, int from, int to) {
+            final TupleBuffer buf = this.buf;
+            try {
+                for (int i = from; i < to; i++) {
+                    retrieveTuples(keys[i], pointers[i], buf);
+                }
+                return handler.indexInfo(buf.keys, buf.values, 0, buf.size);
+            } catch (BTreeException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                buf.clear();
+            }
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, byte[][] values, int from, int to) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Reports the values pointed by the given pointer through the given view.
+     * 
+     * @return false if the callback canceled the scan
+     */
+    protected boolean reportViews(@Nonnull Value key, long ptr, @Nonnull ValueView view,
+            @Nonnull BTreeViewCallback callback) throws BTreeException {
+        if (!viewTuple(ptr, view)) {
+            return true;
+        }
+        return callback.indexInfo(key, view);
+    }
+
+    private final class ViewBatchCallback implements BTreeBatchCallback {
+
+        final BTreeViewCallback handler;
+        final ValueView view = new ValueView();
+
+        public ViewBatchCallback(BTreeViewCallback handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, long[] pointers, int from, int to) {
+            try {
+                for (int i = from; i < to; i++) {
+                    if (!reportViews(keys[i], pointers[i], view, handler)) {
+                        return false;
+                    }
+                }
+            } catch (BTreeException e) {
+                throw new IllegalStateException(e);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean indexInfo(Value[] keys, byte[][] values, int from, int to) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     private static long createPointer(long pageNum, int tid) {
         if (pageNum > 0x7fffffffffffL) {// over 6 bytes
             throw new IllegalArgumentException(
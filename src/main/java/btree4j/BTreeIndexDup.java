@@ -15,108 +15,784 @@
  */
 package btree4j;
 
-import btree4j.utils.collections.longs.LongArrayList;
-import btree4j.utils.collections.longs.LongHash.LongLRUMap;
+import btree4j.utils.codec.VariableByteCodec;
+import btree4j.utils.collections.longs.ConcurrentLongLRUMap;
+import btree4j.utils.collections.longs.LongBitmap;
+import btree4j.utils.lang.ArrayUtils;
 import btree4j.utils.lang.Primitives;
 import btree4j.utils.lang.PrintUtils;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * An optimized version of duplicate-allowed {@link BTreeIndex}.
+ * 
+ * Pointers to the values of a key are kept in a posting list split into chunks of at most
+ * {@value #CHUNK_SIZE} sorted pointers encoded as variable-byte deltas. The head of a list, which
+ * the B+-tree points to, is a small fixed-size tuple of the counts and the pointer to the skip
+ * entries holding the first pointer of each chunk. Adding a value rewrites a single chunk and the
+ * head, and the skip entries only when a chunk is added or its first pointer changes. Values of a
+ * key are reported in the order of their pointers.
+ * 
+ * {@link #intersect(Value...)} and {@link #union(Value...)} match values by their bytes. A value
+ * added to several keys by {@link #addValue(Value[], Value)} is stored once and matched by its
+ * pointer, whereas {@link #addValue(Value, Value)} stores a value for each key, which is matched
+ * by reading it.
+ * 
+ * Additions to different keys run concurrently: each key is guarded by one of striped locks
+ * while the pointer list is merged and encoded, and the index is locked only to read and write
+ * tuples and the B+-tree.
  */
 public final class BTreeIndexDup extends BTreeIndex {
     private static final Log LOG = LogFactory.getLog(BTreeIndexDup.class);
 
-    private final LongLRUMap<MultiPtrs> ptrsCache = new LongLRUMap<MultiPtrs>(512);
+    /** The maximum number of pointers in a chunk of a posting list */
+    static final int CHUNK_SIZE = 128;
+
+    private static final int[] SINGLE = new int[] {0};
+    /**
+     * Marks the entries of posting lists whose values may be in the lists of other keys, i.e.,
+     * values added to several keys at once and values of lists in the former format. Other values
+     * belong to a single list and are freed along with it. Pointers to data pages never set this
+     * bit as a data page holds up to {@link Short#MAX_VALUE} tuples.
+     */
+    private static final long SHARED_FLAG = 0x8000L;
+    private static final int NUM_STRIPES = 64;
+
+    /** posting lists being updated, populated by writers holding the lock of the key */
+    private final ConcurrentLongLRUMap<PostingList> ptrsCache =
+            new ConcurrentLongLRUMap<PostingList>(512);
+    private final ReentrantLock[] stripes = new ReentrantLock[NUM_STRIPES];
 
     public BTreeIndexDup(File file) {
         super(file, false);
         BFileHeader fh = getFileHeader();
         fh.setMultiValue(true);
+        initStripes();
     }
 
     public BTreeIndexDup(File file, int pageSize, int idxCaches, int dataCaches) {
         super(file, pageSize, idxCaches, dataCaches, false);
         BFileHeader fh = getFileHeader();
         fh.setMultiValue(true);
+        initStripes();
+    }
+
+    private void initStripes() {
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    private int stripeOf(@Nonnull final Value key) {
+        final KeyComparator comparator = getKeyComparator();
+        if (comparator != KeyComparator.BYTES && comparator != KeyComparator.UNSIGNED_BYTES) {
+            return 0; // hash codes may differ between equal keys
+        }
+        return (key.hashCode() & 0x7fffffff) % NUM_STRIPES;
+    }
+
+    /**
+     * Values are never stored inline as posting lists refer to them by pointers.
+     */
+    @Override
+    public void setInlineThreshold(int length) {
+        throw new UnsupportedOperationException("Inline values are not supported");
+    }
+
+    /**
+     * Not supported as it would overwrite the posting list of the key. Use
+     * {@link #addValue(Value, Value)} instead.
+     */
+    @Override
+    public long putValue(Value key, Value value) throws BTreeException {
+        throw new UnsupportedOperationException("putValue is not supported for duplicate keys");
+    }
+
+    /**
+     * Not supported as it would overwrite the posting lists of the keys. Use
+     * {@link #addValues(Value[], Value[])} instead.
+     */
+    @Override
+    public long[] putAll(Value[] keys, Value[] values) throws BTreeException {
+        throw new UnsupportedOperationException("putAll is not supported for duplicate keys");
+    }
+
+    /**
+     * Adds a value to the posting list of the key. The value is stored on its own even if an
+     * equal value is stored for another key, and it is matched with the equal value by its bytes
+     * in {@link #intersect(Value...)}. Use {@link #addValue(Value[], Value)} to store a value
+     * once for several keys.
+     */
+    @Override
+    public long addValue(final Value key, final Value value) throws BTreeException {
+        final ReentrantLock lock = stripes[stripeOf(key)];
+        lock.lock();
+        try {
+            final long valuePtr;
+            synchronized (this) {
+                valuePtr = storeUnshared(value);
+            }
+            return addPosting(key, valuePtr);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores a value once and adds it to the posting lists of the given keys, e.g., a document
+     * and its terms. Values shared in this way take no more space for further keys and are
+     * matched by their pointers in {@link #intersect(Value...)} without reading other values.
+     * 
+     * @return the pointer to the stored value
+     */
+    public long addValue(@Nonnull final Value[] keys, @Nonnull final Value value)
+            throws BTreeException {
+        // locks stripes in ascending order
+        final boolean[] locked = new boolean[NUM_STRIPES];
+        for (Value key : keys) {
+            locked[stripeOf(key)] = true;
+        }
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            if (locked[i]) {
+                stripes[i].lock();
+            }
+        }
+        try {
+            final long valuePtr;
+            synchronized (this) {
+                valuePtr = storeUnshared(value);
+            }
+            final long entry = (keys.length > 1) ? (valuePtr | SHARED_FLAG) : valuePtr;
+            for (Value key : keys) {
+                addPosting(key, entry);
+            }
+            return valuePtr;
+        } finally {
+            for (int i = NUM_STRIPES - 1; i >= 0; i--) {
+                if (locked[i]) {
+                    stripes[i].unlock();
+                }
+            }
+        }
     }
 
+    /**
+     * Removes the key along with its posting list under the lock of the key, so that concurrent
+     * additions to the key are not lost. The values added to the key alone are freed, whereas
+     * values added along with other keys by {@link #addValue(Value[], Value)} are left in data
+     * pages for the lists of the other keys.
+     * 
+     * @return the values of the key, or null if the key is not found
+     */
     @Override
-    public synchronized long addValue(final Value key, final Value value) throws BTreeException {
-        final long valuePtr = storeValue(value);
+    public byte[][] remove(final Value key) throws BTreeException {
+        final ReentrantLock lock = stripes[stripeOf(key)];
+        lock.lock();
+        try {
+            synchronized (this) {
+                return removePostings(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nullable
+    private byte[][] removePostings(@Nonnull final Value key) throws BTreeException {
+        final long ptr = findValue(key);
+        if (ptr == KEY_NOT_FOUND) {
+            return null;
+        }
+        final PostingList list = readPostingList(ptr);
+        final byte[][] values = new byte[(int) list.getCount()][];
+        final long[] buf = new long[CHUNK_SIZE];
+        final ValueView view = new ValueView();
+        int size = 0;
+        for (int c = 0, chunks = list.getChunks(); c < chunks; c++) {
+            for (int i = 0, n = readChunk(list, c, buf, view); i < n; i++) {
+                final long entry = buf[i];
+                values[size++] = ((entry & SHARED_FLAG) == 0L) ? removeValue(entry)
+                        : retrieveTuple(valuePointer(entry));
+            }
+        }
+        if (!list.isTransient()) {
+            for (int c = 0, chunks = list.getChunks(); c < chunks; c++) {
+                removeValue(list.getChunkPointer(c));
+            }
+            removeValue(list.getSkipPointer());
+        }
+        removeValue(ptr);
+        ptrsCache.remove(ptr);
+        super.removeValue(key, ptr);
+        return (size == values.length) ? values : Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Adds a value pointer to the posting list of the key. The caller must hold the lock of the
+     * key.
+     * 
+     * @param valuePtr the pointer to the value, along with {@link #SHARED_FLAG} if it is shared
+     * @return the pointer to the posting list
+     */
+    private long addPosting(@Nonnull final Value key, final long valuePtr)
+            throws BTreeException {
         final long ptr = findValue(key);
         if (ptr != KEY_NOT_FOUND) {// key found
-            // update the page
-            MultiPtrs ptrs;
-            synchronized (ptrsCache) {
-                ptrs = ptrsCache.get(ptr);
-                if (ptrs == null) {//TODO concurrent insertion is too slow..
-                    byte[] ptrTuple = retrieveTuple(ptr);
-                    ptrs = MultiPtrs.readFrom(ptrTuple);
-                    ptrsCache.put(ptr, ptrs);
+            addPointer(ptr, getPostingList(ptr), valuePtr);
+            return ptr;
+        }
+        // insert a new key
+        synchronized (this) {
+            final PostingList list = newPostingList(new long[] {valuePtr}, 0, 1);
+            final long newPtr = storeUnshared(list);
+            addValue(key, newPtr);
+            ptrsCache.put(newPtr, list);
+            return newPtr;
+        }
+    }
+
+    /**
+     * Returns the distinct values in the posting lists of all the given keys, in the order of data
+     * pages. Values are matched by their bytes, however they were added.
+     * 
+     * Lists are intersected from the smallest one. A value shared by the lists, i.e., added to
+     * several keys at once by {@link #addValue(Value[], Value)}, is matched by its pointer while
+     * galloping over the other lists with their skip data. The values of another list are read
+     * only when some candidates are not found in it by their pointers.
+     */
+    @Nonnull
+    public synchronized byte[][] intersect(@Nonnull final Value... keys) throws BTreeException {
+        if (keys.length == 0) {
+            return new byte[0][];
+        }
+        final long[] ptrs = findValues(keys);
+        final PostingList[] lists = new PostingList[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (ptrs[i] == KEY_NOT_FOUND) {
+                return new byte[0][];
+            }
+            lists[i] = readPostingList(ptrs[i]);
+        }
+        Arrays.sort(lists, new Comparator<PostingList>() {
+            @Override
+            public int compare(PostingList l1, PostingList l2) {
+                return Long.compare(l1.getCount(), l2.getCount());
+            }
+        });
+
+        // candidates from the smallest list
+        final LongBitmap smallest = new LongBitmap();
+        addPointers(lists[0], smallest);
+        long[] candidates = smallest.toArray();
+        int size = candidates.length;
+        final boolean[] matched = new boolean[size];
+        for (int l = 1; l < lists.length && size > 0; l++) {
+            final PostingCursor cursor = new PostingCursor(lists[l]);
+            boolean allMatched = true;
+            for (int i = 0; i < size; i++) {
+                matched[i] = cursor.seek(candidates[i]);
+                allMatched &= matched[i];
+            }
+            if (!allMatched) {
+                matchValues(lists[l], candidates, size, matched);
+            }
+            int survived = 0;
+            for (int i = 0; i < size; i++) {
+                if (matched[i]) {
+                    candidates[survived++] = candidates[i];
                 }
             }
-            ptrs.addPointer(valuePtr);
-            updateValue(ptr, ptrs);
-            return ptr;
+            size = survived;
+        }
+        return distinctTuples(candidates, size);
+    }
+
+    /**
+     * Marks the candidates not matched by their pointers but equal to a value of the list.
+     */
+    private void matchValues(@Nonnull final PostingList list, @Nonnull final long[] candidates,
+            final int size, @Nonnull final boolean[] matched) throws BTreeException {
+        final Value[] values = new Value[size];
+        final Set<Value> wanted = new HashSet<Value>();
+        for (int i = 0; i < size; i++) {
+            if (!matched[i]) {
+                values[i] = new Value(retrieveTuple(valuePointer(candidates[i])));
+                wanted.add(values[i]);
+            }
+        }
+        final Set<Value> found = new HashSet<Value>();
+        final long[] buf = new long[CHUNK_SIZE];
+        final ValueView view = new ValueView();
+        for (int c = 0, chunks = list.getChunks(); c < chunks && !wanted.isEmpty(); c++) {
+            for (int i = 0, n = readChunk(list, c, buf, view); i < n && !wanted.isEmpty(); i++) {
+                final Value v = new Value(retrieveTuple(valuePointer(buf[i])));
+                if (wanted.remove(v)) {
+                    found.add(v);
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (!matched[i]) {
+                matched[i] = found.contains(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the distinct values in the posting list of any of the given keys, in the order of
+     * data pages. Values are matched by their bytes as in {@link #intersect(Value...)}.
+     */
+    @Nonnull
+    public synchronized byte[][] union(@Nonnull final Value... keys) throws BTreeException {
+        final long[] ptrs = findValues(keys);
+        final LongBitmap merged = new LongBitmap();
+        for (long ptr : ptrs) {
+            if (ptr != KEY_NOT_FOUND) {
+                addPointers(readPostingList(ptr), merged);
+            }
+        }
+        final long[] valuePtrs = merged.toArray();
+        return distinctTuples(valuePtrs, valuePtrs.length);
+    }
+
+    private void addPointers(@Nonnull final PostingList list, @Nonnull final LongBitmap dst)
+            throws BTreeException {
+        final long[] buf = new long[CHUNK_SIZE];
+        final ValueView view = new ValueView();
+        for (int c = 0, chunks = list.getChunks(); c < chunks; c++) {
+            for (int i = 0, n = readChunk(list, c, buf, view); i < n; i++) {
+                dst.add(buf[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads the values of the given pointers, skipping values equal to ones read before.
+     */
+    @Nonnull
+    private byte[][] distinctTuples(@Nonnull final long[] sortedPtrs, final int size)
+            throws BTreeException {
+        final Set<Value> seen = new HashSet<Value>();
+        final List<byte[]> values = new ArrayList<byte[]>(size);
+        for (int i = 0; i < size; i++) {
+            final byte[] v = retrieveTuple(valuePointer(sortedPtrs[i]));
+            if (seen.add(new Value(v))) {
+                values.add(v);
+            }
+        }
+        return values.toArray(new byte[values.size()][]);
+    }
+
+
+    /**
+     * Seeks pointers of a posting list in ascending order.
+     */
+    private final class PostingCursor {
+
+        final PostingList list;
+        final long[] buf = new long[CHUNK_SIZE];
+        final ValueView view = new ValueView();
+
+        int chunk = -1;
+        int size = 0;
+        int pos = 0;
+
+        PostingCursor(@Nonnull PostingList list) {
+            this.list = list;
+        }
+
+        /**
+         * @param target a pointer not less than ones given before
+         * @return whether the list contains the target
+         */
+        boolean seek(final long target) throws BTreeException {
+            final int chunks = list.getChunks();
+            if (chunk == -1 || (chunk + 1 < chunks && list.getFirstPointer(chunk + 1) <= target)) {
+                // skips chunks by their first pointers
+                final int c = list.findChunk(target);
+                if (c != chunk) {
+                    this.size = readChunk(list, c, buf, view);
+                    this.chunk = c;
+                    this.pos = 0;
+                }
+            }
+            // gallops in the chunk
+            int lo = pos, hi = pos, step = 1;
+            while (hi < size && buf[hi] < target) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            hi = Math.min(hi, size);
+            int idx = Arrays.binarySearch(buf, lo, hi, target);
+            if (idx < 0) {
+                idx = -(idx + 1);
+            }
+            this.pos = idx;
+            return idx < size && buf[idx] == target;
+        }
+    }
+
+    /**
+     * Adds the given key/value pairs in a batch. Values are stored contiguously in the order of
+     * the keys and the posting list of each distinct key is updated once.
+     * 
+     * @return pointers to the posting lists in the order of the given keys
+     */
+    @Override
+    public long[] addValues(final Value[] keys, final Value[] values) throws BTreeException {
+        // locks all the stripes in order as keys of a batch span most of them
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i].lock();
+        }
+        try {
+            synchronized (this) {
+                return addValuesInternal(keys, values);
+            }
+        } finally {
+            for (int i = NUM_STRIPES - 1; i >= 0; i--) {
+                stripes[i].unlock();
+            }
+        }
+    }
+
+    private long[] addValuesInternal(final Value[] keys, final Value[] values)
+            throws BTreeException {
+        final int size = keys.length;
+        if (values.length != size) {
+            throw new IllegalArgumentException(
+                "keys.length " + size + " != values.length " + values.length);
+        }
+        final KeyComparator comparator = getKeyComparator();
+        final int[] order = ArrayUtils.sortedIndexes(keys, comparator);
+        final long[] valuePtrs = new long[size]; // in the sorted order
+        storeValues(values, order, size, valuePtrs);
+
+        final long[] ptrs = findValues(keys);
+        final List<Value> newKeys = new ArrayList<Value>();
+        final List<PostingList> newLists = new ArrayList<PostingList>();
+        for (int i = 0; i < size;) {
+            final Value key = keys[order[i]];
+            int last = i;
+            while (last + 1 < size && comparator.compare(keys[order[last + 1]], key) == 0) {
+                last++;
+            }
+            final long ptr = ptrs[order[i]];
+            if (ptr != KEY_NOT_FOUND) {// key found
+                final PostingList list = getPostingList(ptr);
+                for (int j = i; j <= last; j++) {
+                    addPointer(ptr, list, valuePtrs[j]);
+                }
+            } else {
+                final long[] sorted = Arrays.copyOfRange(valuePtrs, i, last + 1);
+                Arrays.sort(sorted);
+                newKeys.add(key);
+                newLists.add(newPostingList(sorted, 0, sorted.length));
+            }
+            i = last + 1;
+        }
+
+        final int numNewKeys = newKeys.size();
+        if (numNewKeys > 0) {
+            final Value[] lists = newLists.toArray(new Value[numNewKeys]);
+            final int[] indexes = new int[numNewKeys];
+            for (int i = 0; i < numNewKeys; i++) {
+                indexes[i] = i;
+            }
+            final long[] newPtrs = new long[numNewKeys];
+            storeValues(lists, indexes, numNewKeys, newPtrs);
+            addValues(newKeys.toArray(new Value[numNewKeys]), newPtrs);
+            for (int i = 0; i < numNewKeys; i++) {
+                ptrsCache.put(newPtrs[i], newLists.get(i));
+            }
+            for (int i = 0, k = 0; i < size; i++) {
+                final int idx = order[i];
+                if (ptrs[idx] == KEY_NOT_FOUND) {
+                    while (comparator.compare(keys[idx], newKeys.get(k)) != 0) {
+                        k++;
+                    }
+                    ptrs[idx] = newPtrs[k];
+                }
+            }
+        }
+        return ptrs;
+    }
+
+    /**
+     * Gets a posting list to update. The caller must hold the lock of the key.
+     */
+    @Nonnull
+    private PostingList getPostingList(final long ptr) throws BTreeException {
+        PostingList list = ptrsCache.get(ptr);
+        if (list == null) {
+            list = loadPostingList(ptr);
+            if (list.isTransient()) {
+                // converts a list of the former format on the first write
+                synchronized (this) {
+                    final long[] ptrs = list.getTransientPointers();
+                    list = newPostingList(ptrs, 0, ptrs.length);
+                    updateValue(ptr, list);
+                }
+            }
+            ptrsCache.put(ptr, list);
+        }
+        return list;
+    }
+
+    /**
+     * Gets a posting list to read. Lists loaded by readers are not cached since a writer may hold
+     * an evicted instance at the same time.
+     */
+    @Nonnull
+    private PostingList readPostingList(final long ptr) throws BTreeException {
+        final PostingList list = ptrsCache.get(ptr);
+        return (list == null) ? loadPostingList(ptr) : list;
+    }
+
+    /**
+     * Loads the head and the skip entries of a posting list. A list of the former format is read
+     * into a transient list, which is not stored until the next write to it.
+     */
+    @Nonnull
+    private synchronized PostingList loadPostingList(final long ptr) throws BTreeException {
+        final byte[] tuple = retrieveTuple(ptr);
+        if (PostingList.isLegacy(tuple)) {
+            final long[] ptrs = PostingList.readLegacy(tuple);
+            for (int i = 0; i < ptrs.length; i++) {
+                // values of the former format may be shared through the store cache
+                ptrs[i] |= SHARED_FLAG;
+            }
+            Arrays.sort(ptrs);
+            return PostingList.newTransient(ptrs);
+        }
+        final PostingList list = new PostingList(tuple);
+        list.setEntries(retrieveTuple(list.getSkipPointer()));
+        return list;
+    }
+
+    /**
+     * Stores chunks of the given pointers and their skip entries, and returns the head that is
+     * not stored yet.
+     */
+    @Nonnull
+    private PostingList newPostingList(@Nonnull final long[] sortedPtrs, final int from,
+            final int to) throws BTreeException {
+        final PostingList list = new PostingList((to - from + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        for (int i = from; i < to; i += CHUNK_SIZE) {
+            final int end = Math.min(i + CHUNK_SIZE, to);
+            final long chunkPtr =
+                    storeUnshared(new Value(PostingList.encodeChunk(sortedPtrs, i, end)));
+            list.insertChunk(list.getChunks(), sortedPtrs[i], chunkPtr);
+        }
+        list.setCount(to - from);
+        list.setSkipPointer(storeUnshared(list.getSkipEntries()));
+        return list;
+    }
+
+    /**
+     * Inserts a pointer by rewriting the chunk it falls in and stores the head. The skip entries
+     * are stored only when a chunk is added or the first pointer of a chunk changes. The caller
+     * must hold the lock of the key; the chunk is merged and encoded without locking the index.
+     */
+    private void addPointer(final long headPtr, @Nonnull final PostingList list,
+            final long valuePtr) throws BTreeException {
+        final int chunks, c;
+        final long chunkPtr;
+        final byte[] chunk;
+        final int chunkOffset;
+        synchronized (this) {
+            chunks = list.getChunks();
+            if (chunks == 0) {
+                final long[] single = new long[] {valuePtr};
+                list.insertChunk(0, valuePtr,
+                    storeUnshared(new Value(PostingList.encodeChunk(single, 0, 1))));
+                updateValue(list.getSkipPointer(), list.getSkipEntries());
+                list.setCount(1L);
+                updateValue(headPtr, list);
+                return;
+            }
+            c = list.findChunk(valuePtr);
+            chunkPtr = list.getChunkPointer(c);
+            // chunk tuples are replaced, not modified, on updates
+            final ValueView view = new ValueView();
+            if (viewTuple(chunkPtr, view)) {
+                chunk = view.array();
+                chunkOffset = view.offset();
+            } else {
+                chunk = null;
+                chunkOffset = 0;
+            }
+        }
+        final long[] buf = new long[CHUNK_SIZE + 1];
+        int n = (chunk == null) ? 0 : PostingList.decodeChunk(chunk, chunkOffset, buf);
+        // pointers mostly come in ascending order
+        int pos = n;
+        while (pos > 0 && buf[pos - 1] > valuePtr) {
+            pos--;
+        }
+        System.arraycopy(buf, pos, buf, pos + 1, n - pos);
+        buf[pos] = valuePtr;
+        n++;
+        if (n <= CHUNK_SIZE) {
+            final Value updated = new Value(PostingList.encodeChunk(buf, 0, n));
+            synchronized (this) {
+                updateValue(chunkPtr, updated);
+                if (pos == 0) {
+                    list.setFirstPointer(c, valuePtr);
+                    updateValue(list.getSkipPointer(), list.getSkipEntries());
+                }
+                list.setCount(list.getCount() + 1L);
+                updateValue(headPtr, list);
+            }
+        } else if (c == chunks - 1 && pos == n - 1) {
+            // appending to the full tail chunk starts a new one
+            final Value created = new Value(PostingList.encodeChunk(buf, pos, n));
+            synchronized (this) {
+                list.insertChunk(chunks, valuePtr, storeUnshared(created));
+                updateValue(list.getSkipPointer(), list.getSkipEntries());
+                list.setCount(list.getCount() + 1L);
+                updateValue(headPtr, list);
+            }
         } else {
-            // insert a new key           .
-            MultiPtrs ptrs = new MultiPtrs(valuePtr);
-            long newPtr = storeValue(ptrs);
-            addValue(key, newPtr);
-            synchronized (ptrsCache) {
-                ptrsCache.put(newPtr, ptrs);
+            final int half = n >>> 1;
+            final Value left = new Value(PostingList.encodeChunk(buf, 0, half));
+            final Value right = new Value(PostingList.encodeChunk(buf, half, n));
+            synchronized (this) {
+                updateValue(chunkPtr, left);
+                list.setFirstPointer(c, buf[0]);
+                list.insertChunk(c + 1, buf[half], storeUnshared(right));
+                updateValue(list.getSkipPointer(), list.getSkipEntries());
+                list.setCount(list.getCount() + 1L);
+                updateValue(headPtr, list);
+            }
+        }
+    }
+
+    /**
+     * Stores a value bypassing the store cache, so that it is not shared with an equal value
+     * stored before. Tuples of posting lists are updated in place and values of a single list are
+     * freed along with it.
+     */
+    private long storeUnshared(@Nonnull final Value value) throws BTreeException {
+        final long[] dst = new long[1];
+        storeValues(new Value[] {value}, SINGLE, 1, dst);
+        return dst[0];
+    }
+
+    /**
+     * @return the pointer to the value of an entry of a posting list
+     */
+    private static long valuePointer(final long entry) {
+        return entry & ~SHARED_FLAG;
+    }
+
+    /**
+     * @return the number of entries of the chunk read into {@code dst}
+     */
+    private int readChunk(@Nonnull final PostingList list, final int chunk,
+            @Nonnull final long[] dst, @Nonnull final ValueView view) throws BTreeException {
+        if (list.isTransient()) {
+            return list.readTransientChunk(chunk, dst);
+        }
+        if (!viewTuple(list.getChunkPointer(chunk), view)) {
+            return 0;
+        }
+        return PostingList.decodeChunk(view.array(), view.offset(), dst);
+    }
+
+    @Override
+    protected void retrieveTuples(@Nonnull Value key, long ptr, @Nonnull TupleBuffer buf)
+            throws BTreeException {
+        final PostingList list = readPostingList(ptr);
+        final long[] ptrs = new long[CHUNK_SIZE];
+        final ValueView view = new ValueView();
+        for (int c = 0, chunks = list.getChunks(); c < chunks; c++) {
+            for (int i = 0, n = readChunk(list, c, ptrs, view); i < n; i++) {
+                buf.add(key, retrieveTuple(valuePointer(ptrs[i])));
+            }
+        }
+    }
+
+    @Override
+    protected void expandPointers(@Nonnull Value key, long ptr, @Nonnull PointerBuffer buf)
+            throws BTreeException {
+        final PostingList list = readPostingList(ptr);
+        final long[] ptrs = new long[CHUNK_SIZE];
+        final ValueView view = new ValueView();
+        for (int c = 0, chunks = list.getChunks(); c < chunks; c++) {
+            for (int i = 0, n = readChunk(list, c, ptrs, view); i < n; i++) {
+                buf.add(key, valuePointer(ptrs[i]));
+            }
+        }
+    }
+
+    @Override
+    protected boolean reportViews(@Nonnull Value key, long ptr, @Nonnull ValueView view,
+            @Nonnull BTreeViewCallback callback) throws BTreeException {
+        final PostingList list = readPostingList(ptr);
+        final long[] ptrs = new long[CHUNK_SIZE];
+        for (int c = 0, chunks = list.getChunks(); c < chunks; c++) {
+            for (int i = 0, n = readChunk(list, c, ptrs, view); i < n; i++) {
+                if (viewTuple(valuePointer(ptrs[i]), view) && !callback.indexInfo(key, view)) {
+                    return false;
+                }
             }
-            return newPtr;
         }
+        return true;
     }
 
     @Override
-    protected BTreeCallback getHandler(BTreeCallback handler) {
-        return new MultiValuesCallback(handler);
+    protected BTreeCallback getHandler(BTreeCallback handler,
+            @Nullable ValuePredicate predicate) {
+        return new MultiValuesCallback(handler, predicate);
     }
 
     private final class MultiValuesCallback implements BTreeCallback {
 
         final BTreeCallback handler;
+        @Nullable
+        final ValuePredicate predicate;
 
-        public MultiValuesCallback(BTreeCallback handler) {
+        final long[] ptrs = new long[CHUNK_SIZE];
+        final ValueView view = new ValueView();
+
+        public MultiValuesCallback(BTreeCallback handler, @Nullable ValuePredicate predicate) {
             this.handler = handler;
+            this.predicate = predicate;
         }
 
         public boolean indexInfo(Value key, long pointer) {
-            MultiPtrs ptrs;
-            synchronized (ptrsCache) {
-                ptrs = ptrsCache.get(pointer);
-                if (ptrs == null) {
-                    final byte[] ptrTuple;
-                    try {
-                        ptrTuple = retrieveTuple(pointer);
-                    } catch (BTreeException e) {
-                        throw new IllegalStateException(e);
+            try {
+                final PostingList list = readPostingList(pointer);
+                for (int c = 0, chunks = list.getChunks(); c < chunks; c++) {
+                    for (int i = 0, n = readChunk(list, c, ptrs, view); i < n; i++) {
+                        final byte[] value =
+                                retrieveTuple(valuePointer(ptrs[i]), key, predicate);
+                        if (value == null && predicate != null) {
+                            continue; // rejected
+                        }
+                        if (!handler.indexInfo(key, value)) {
+                            return false;
+                        }
                     }
-                    ptrs = MultiPtrs.readFrom(ptrTuple);
-                }
-                ptrsCache.put(pointer, ptrs);
-            }
-            final LongArrayList lptrs = ptrs.getPointers();
-            final int size = lptrs.size();
-            for (int i = 0; i < size; i++) {
-                final long lptr = lptrs.get(i);
-                final byte[] value;
-                try {
-                    value = retrieveTuple(lptr);
-                } catch (BTreeException e) {
-                    LOG.error(PrintUtils.prettyPrintStackTrace(e));
-                    throw new IllegalStateException(e);
-                }
-                if (!handler.indexInfo(key, value)) {
-                    return false;
                 }
+            } catch (BTreeException e) {
+                LOG.error(PrintUtils.prettyPrintStackTrace(e));
+                throw new IllegalStateException(e);
             }
             return true;
         }
@@ -126,77 +802,216 @@ public final class BTreeIndexDup extends BTreeIndex {
         }
     }
 
-    static final class MultiPtrs extends Value {
-        static final int HEADER_LENGTH = 8;
+    /**
+     * The head of a posting list laid out as {@code [format:int, chunks:int, count:long, skip
+     * pointer:long]}. The skip entries are a separate tuple of {@code [first pointer:long, chunk
+     * pointer:long]} of each chunk followed by spare entries. A chunk is
+     * {@code [count, first pointer, deltas...]} in variable bytes.
+     */
+    static final class PostingList extends Value {
+        /** The former format begins with a non-negative number of pointers */
+        static final int FORMAT = -1;
+        static final int HEAD_LENGTH = 24;
+        static final int ENTRY_LENGTH = 16;
 
-        private LongArrayList _ptrs;
-        private int _used;
-        private int _free;
+        private int _chunks;
+        private long _count;
+        @Nonnull
+        private byte[] _entries;
+        // pointers of a list in the former format, which is not stored yet
+        @Nullable
+        private long[] _transient;
 
-        public MultiPtrs() {
-            super();
+        PostingList(int capacity) {
+            super(new byte[HEAD_LENGTH]);
+            Primitives.putInt(_data, 0, FORMAT);
+            this._chunks = 0;
+            this._count = 0L;
+            this._entries = new byte[Math.max(1, capacity) * ENTRY_LENGTH];
         }
 
-        public MultiPtrs(long ptr) {
-            super(initData(ptr));
-            this._ptrs = new LongArrayList(4);
-            _ptrs.add(ptr);
-            this._used = 1;
-            this._free = 3;
+        PostingList(@Nonnull byte[] head) {
+            super(head);
+            this._chunks = Primitives.getInt(head, 4);
+            this._count = Primitives.getLong(head, 8);
+            this._entries = new byte[ENTRY_LENGTH];
         }
 
-        private MultiPtrs(byte[] b, long[] ptrs, int used, int free) {
-            super(b);
-            this._ptrs = new LongArrayList(ptrs, used);
-            this._used = used;
-            this._free = free;
+        /**
+         * Creates a list in memory whose chunks are slices of the given pointers.
+         */
+        @Nonnull
+        static PostingList newTransient(@Nonnull final long[] sortedPtrs) {
+            final int size = sortedPtrs.length;
+            final PostingList list = new PostingList((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            for (int i = 0; i < size; i += CHUNK_SIZE) {
+                list.insertChunk(list.getChunks(), sortedPtrs[i], -1L);
+            }
+            list.setCount(size);
+            list._transient = sortedPtrs;
+            return list;
         }
 
-        public LongArrayList getPointers() {
-            return _ptrs;
+        boolean isTransient() {
+            return _transient != null;
         }
 
-        public void addPointer(final long ptr) {
-            final byte[] oldData = _data;
-            final int offset = HEADER_LENGTH + (_used << 3);
-            _ptrs.add(ptr);
-            _used++;
-            if ((_free--) > 0) {
-                Primitives.putInt(oldData, 0, _used);
-                Primitives.putInt(oldData, 4, _free);
-                Primitives.putLong(oldData, offset, ptr);
-            } else {
-                this._free = _used; // doubling spaces
-                int newLen = HEADER_LENGTH + (_used << 4); //8 + ((_used + _free) * 8);
-                final byte[] newData = new byte[newLen];
+        @Nonnull
+        long[] getTransientPointers() {
+            assert (_transient != null);
+            return _transient;
+        }
+
+        /**
+         * @return the number of pointers of the chunk copied into {@code dst}
+         */
+        int readTransientChunk(final int chunk, @Nonnull final long[] dst) {
+            assert (_transient != null);
+            final int from = chunk * CHUNK_SIZE;
+            final int n = Math.min(CHUNK_SIZE, _transient.length - from);
+            System.arraycopy(_transient, from, dst, 0, n);
+            return n;
+        }
+
+        int getChunks() {
+            return _chunks;
+        }
+
+        long getCount() {
+            return _count;
+        }
+
+        void setCount(long count) {
+            this._count = count;
+            Primitives.putLong(_data, 8, count);
+        }
+
+        long getSkipPointer() {
+            return Primitives.getLong(_data, 16);
+        }
+
+        void setSkipPointer(long ptr) {
+            Primitives.putLong(_data, 16, ptr);
+        }
+
+        /**
+         * @return the skip entries to be stored at {@link #getSkipPointer()}
+         */
+        @Nonnull
+        Value getSkipEntries() {
+            return new Value(_entries);
+        }
+
+        void setEntries(@Nonnull byte[] entries) {
+            this._entries = entries;
+        }
 
-                System.arraycopy(oldData, 0, newData, 0, oldData.length);
-                Primitives.putInt(newData, 0, _used);
-                Primitives.putInt(newData, 4, _free);
-                Primitives.putLong(newData, offset, ptr);
+        long getFirstPointer(int chunk) {
+            return Primitives.getLong(_entries, chunk * ENTRY_LENGTH);
+        }
+
+        void setFirstPointer(int chunk, long ptr) {
+            Primitives.putLong(_entries, chunk * ENTRY_LENGTH, ptr);
+        }
 
-                this._data = newData;
-                this._pos = 0;
-                this._len = newLen;
+        long getChunkPointer(int chunk) {
+            return Primitives.getLong(_entries, chunk * ENTRY_LENGTH + 8);
+        }
+
+        /**
+         * @return the last chunk whose first pointer is not greater than the given pointer, or the
+         *         first chunk
+         */
+        int findChunk(final long ptr) {
+            int low = 1, high = _chunks - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (getFirstPointer(mid) <= ptr) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
             }
+            return low - 1;
         }
 
-        private static byte[] initData(long ptr) {
-            final byte[] b = new byte[40]; // HEADER_LENGTH + 8 + (8 * 3)
-            Primitives.putInt(b, 0, 1); // used
-            Primitives.putInt(b, 4, 3); // free
-            Primitives.putLong(b, 8, ptr);
+        void insertChunk(final int chunk, final long first, final long chunkPtr) {
+            final int used = _chunks * ENTRY_LENGTH;
+            if (used + ENTRY_LENGTH > _entries.length) {
+                // doubling spaces
+                this._entries = Arrays.copyOf(_entries, Math.max(1, _chunks) * ENTRY_LENGTH * 2);
+            }
+            final int off = chunk * ENTRY_LENGTH;
+            System.arraycopy(_entries, off, _entries, off + ENTRY_LENGTH, used - off);
+            Primitives.putLong(_entries, off, first);
+            Primitives.putLong(_entries, off + 8, chunkPtr);
+            this._chunks++;
+            Primitives.putInt(_data, 4, _chunks);
+        }
+
+        @Nonnull
+        static byte[] encodeChunk(@Nonnull final long[] ptrs, final int from, final int to) {
+            int len = VariableByteCodec.requiredBytes((long) (to - from));
+            long prev = 0L;
+            for (int i = from; i < to; i++) {
+                len += VariableByteCodec.requiredBytes(ptrs[i] - prev);
+                prev = ptrs[i];
+            }
+            final byte[] b = new byte[len];
+            VariableByteCodec.encodeUnsignedLong(to - from, b, 0);
+            int pos = VariableByteCodec.requiredBytes((long) (to - from));
+            prev = 0L;
+            for (int i = from; i < to; i++) {
+                final long delta = ptrs[i] - prev;
+                VariableByteCodec.encodeUnsignedLong(delta, b, pos);
+                pos += VariableByteCodec.requiredBytes(delta);
+                prev = ptrs[i];
+            }
             return b;
         }
 
-        public static MultiPtrs readFrom(byte[] b) {
+        /**
+         * @return the number of pointers decoded into {@code dst}
+         */
+        static int decodeChunk(@Nonnull final byte[] b, int pos, @Nonnull final long[] dst) {
+            final int n = (int) readVLong(b, pos);
+            pos += VariableByteCodec.requiredBytes((long) n);
+            long ptr = 0L;
+            for (int i = 0; i < n; i++) {
+                final long delta = readVLong(b, pos);
+                pos += VariableByteCodec.requiredBytes(delta);
+                ptr += delta;
+                dst[i] = ptr;
+            }
+            return n;
+        }
+
+        static long readVLong(@Nonnull final byte[] b, int pos) {
+            long x = 0L;
+            for (int shift = 0;; shift += 7) {
+                final byte v = b[pos++];
+                x |= (v & 0x7FL) << shift;
+                if ((v & 0x80) == 0) {
+                    return x;
+                }
+            }
+        }
+
+        static boolean isLegacy(@Nonnull byte[] b) {
+            return Primitives.getInt(b, 0) != FORMAT;
+        }
+
+        /**
+         * Reads pointers from {@code [used:int, free:int, pointers...]}.
+         */
+        @Nonnull
+        static long[] readLegacy(@Nonnull byte[] b) {
             final int used = Primitives.getInt(b, 0);
-            final int free = Primitives.getInt(b, 4);
-            final long[] ptrs = new long[(used * 3) / 2];
+            final long[] ptrs = new long[used];
             for (int i = 0, idx = 8; i < used; i++, idx += 8) {
                 ptrs[i] = Primitives.getLong(b, idx);
             }
-            return new MultiPtrs(b, ptrs, used, free);
+            return ptrs;
         }
 
     }
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j;
+
+/**
+ * BTreeViewCallback is a callback interface for the zero-allocation scans of {@link BTreeIndex}.
+ */
+public interface BTreeViewCallback {
+
+    /**
+     * @param key the key being reported. Owned by the index and must not be modified.
+     * @param value the view of the value being reported, valid only during this call
+     * @return false to cancel the enumeration
+     */
+    boolean indexInfo(Value key, ValueView value);
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j;
+
+import btree4j.utils.lang.Primitives;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * ContinuationToken tells where a paged search of {@link BTree} stopped. It holds the last key
+ * reported and the number of reported entries with that key, which matters when duplicate keys
+ * are allowed. A search resumed from a token seeks the last key once and continues from there.
+ * 
+ * The serialized form is the 4 bytes big-endian number of entries followed by the key.
+ */
+public final class ContinuationToken {
+
+    @Nonnull
+    private final Value lastKey;
+    private final int duplicates;
+
+    public ContinuationToken(@Nonnull Value lastKey, @Nonnegative int duplicates) {
+        if (duplicates < 1) {
+            throw new IllegalArgumentException("Illegal duplicates: " + duplicates);
+        }
+        this.lastKey = lastKey;
+        this.duplicates = duplicates;
+    }
+
+    @Nonnull
+    public Value getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * @return the number of entries with the last key that have been reported
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    @Nonnull
+    public byte[] toBytes() {
+        final int len = lastKey.getLength();
+        final byte[] b = new byte[4 + len];
+        Primitives.putInt(b, 0, duplicates);
+        System.arraycopy(lastKey.getBackingArray(), lastKey.getPosition(), b, 4, len);
+        return b;
+    }
+
+    @Nonnull
+    public static ContinuationToken fromBytes(@Nonnull byte[] b) {
+        if (b.length < 4) {
+            throw new IllegalArgumentException("Illegal token length: " + b.length);
+        }
+        final int duplicates = Primitives.getInt(b, 0);
+        return new ContinuationToken(new Value(Arrays.copyOfRange(b, 4, b.length)), duplicates);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ContinuationToken)) {
+            return false;
+        }
+        ContinuationToken other = (ContinuationToken) obj;
+        return duplicates == other.duplicates && lastKey.equals(other.lastKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return lastKey.hashCode() * 31 + duplicates;
+    }
+
+    @Override
+    public String toString() {
+        return "ContinuationToken [lastKey=" + lastKey + ", duplicates=" + duplicates + "]";
+    }
+
+}
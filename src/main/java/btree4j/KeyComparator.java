@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j;
+
+import java.util.Comparator;
+
+import javax.annotation.Nonnull;
+
+/**
+ * KeyComparator defines the order of keys in {@link BTree}. The comparator of a tree is recorded
+ * in its file header by name, and comparators other than the built-in ones are looked up by
+ * {@link BTree#registerKeyComparator(KeyComparator)} when the file is opened.
+ */
+public interface KeyComparator extends Comparator<Value> {
+
+    /** Lexicographic order of signed bytes, that is, {@link Value#compareTo(Value)} (default) */
+    public static final KeyComparator BYTES = new BytesComparator();
+    /** Lexicographic order of unsigned bytes */
+    public static final KeyComparator UNSIGNED_BYTES = new UnsignedBytesComparator();
+    /** Numeric order of little-endian two's complement integers of 1 to 8 bytes */
+    public static final KeyComparator LITTLE_ENDIAN_INTEGER = new LittleEndianIntegerComparator();
+    /** Case-insensitive order of strings encoded as {@link Value#Value(String)} does */
+    public static final KeyComparator CASE_INSENSITIVE = new CaseInsensitiveComparator();
+
+    /**
+     * @return the name recorded in the file header
+     */
+    @Nonnull
+    public String getName();
+
+    /**
+     * Whether keys between two keys always start with the common bytes of the two keys, as in
+     * lexicographic orders. Nodes store the common bytes of their keys once (prefix compression)
+     * and branches store shortest separators only if the comparator is prefix consistent.
+     */
+    public boolean isPrefixConsistent();
+
+    public static final class BytesComparator implements KeyComparator {
+
+        BytesComparator() {}
+
+        @Override
+        public String getName() {
+            return "bytes";
+        }
+
+        @Override
+        public boolean isPrefixConsistent() {
+            return true;
+        }
+
+        @Override
+        public int compare(Value v1, Value v2) {
+            return v1.compareTo(v2);
+        }
+    }
+
+    public static final class UnsignedBytesComparator implements KeyComparator {
+
+        UnsignedBytesComparator() {}
+
+        @Override
+        public String getName() {
+            return "unsigned-bytes";
+        }
+
+        @Override
+        public boolean isPrefixConsistent() {
+            return true;
+        }
+
+        @Override
+        public int compare(Value v1, Value v2) {
+            final byte[] b1 = v1._data, b2 = v2._data;
+            final int p1 = v1._pos, p2 = v2._pos;
+            final int len = Math.min(v1._len, v2._len);
+            for (int i = 0; i < len; i++) {
+                final int c1 = b1[p1 + i] & 0xFF, c2 = b2[p2 + i] & 0xFF;
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+            return v1._len - v2._len;
+        }
+    }
+
+    /**
+     * Integers of different lengths are compared by value, and the shorter one comes first if
+     * their values are equal.
+     */
+    public static final class LittleEndianIntegerComparator implements KeyComparator {
+
+        LittleEndianIntegerComparator() {}
+
+        @Override
+        public String getName() {
+            return "little-endian-integer";
+        }
+
+        @Override
+        public boolean isPrefixConsistent() {
+            return false;
+        }
+
+        @Override
+        public int compare(Value v1, Value v2) {
+            final int cmp = Long.compare(toLong(v1), toLong(v2));
+            return cmp != 0 ? cmp : v1._len - v2._len;
+        }
+
+        private static long toLong(@Nonnull final Value v) {
+            final int len = v._len;
+            if (len < 1 || len > 8) {
+                throw new IllegalArgumentException(
+                    "Expected a key of 1 to 8 bytes but was " + len + " bytes");
+            }
+            final byte[] b = v._data;
+            final int pos = v._pos;
+            long l = b[pos + len - 1]; // sign extended
+            for (int i = len - 2; i >= 0; i--) {
+                l = (l << 8) | (b[pos + i] & 0xFF);
+            }
+            return l;
+        }
+    }
+
+    /**
+     * Chars are compared as {@link String#CASE_INSENSITIVE_ORDER} does. Keys differing only in
+     * case are equal, so a unique tree holds one of them.
+     */
+    public static final class CaseInsensitiveComparator implements KeyComparator {
+
+        CaseInsensitiveComparator() {}
+
+        @Override
+        public String getName() {
+            return "case-insensitive";
+        }
+
+        @Override
+        public boolean isPrefixConsistent() {
+            return false;
+        }
+
+        @Override
+        public int compare(Value v1, Value v2) {
+            final byte[] b1 = v1._data, b2 = v2._data;
+            final int p1 = v1._pos, p2 = v2._pos;
+            final int len = Math.min(v1._len, v2._len) & ~1;
+            for (int i = 0; i < len; i += 2) {
+                char c1 = (char) ((b1[p1 + i] << 8) | (b1[p1 + i + 1] & 0xFF));
+                char c2 = (char) ((b2[p2 + i] << 8) | (b2[p2 + i + 1] & 0xFF));
+                if (c1 != c2) {
+                    c1 = Character.toUpperCase(c1);
+                    c2 = Character.toUpperCase(c2);
+                    if (c1 != c2) {
+                        c1 = Character.toLowerCase(c1);
+                        c2 = Character.toLowerCase(c2);
+                        if (c1 != c2) {
+                            return c1 - c2;
+                        }
+                    }
+                }
+            }
+            if (v1._len != v2._len) {
+                return v1._len - v2._len;
+            }
+            // a trailing odd byte
+            return (len == v1._len) ? 0 : b1[p1 + len] - b2[p2 + len];
+        }
+    }
+
+}
@@ -462,6 +462,7 @@ public abstract class Paged {
             }
             _raf.seek(0);
             write(_raf);
+            writeTrailer(_raf);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("wrote file header");
             }
@@ -480,6 +481,7 @@ public abstract class Paged {
         public final void read() throws IOException {
             _raf.seek(0);
             read(_raf);
+            readTrailer(_raf);
             this._workSize = calculateWorkSize();
         }
 
@@ -492,6 +494,17 @@ public abstract class Paged {
             this._pageHeaderSize = raf.readByte();
         }
 
+        /**
+         * Writes the fields that follow those of every subclass. Lets a base header add fields
+         * without moving the fields of the headers derived from it.
+         */
+        protected void writeTrailer(RandomAccessFile raf) throws IOException {}
+
+        /**
+         * Reads the fields written by {@link #writeTrailer(RandomAccessFile)}.
+         */
+        protected void readTrailer(RandomAccessFile raf) throws IOException {}
+
         //--------------------------------------------
 
         public final void setFirstFreePage(long page) {
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j;
+
+/**
+ * SplitPolicy decides where an overflowed node of {@link BTree} is split.
+ */
+public interface SplitPolicy {
+
+    /** Always splits nodes in halves */
+    public static final SplitPolicy HALF = new HalfSplitPolicy();
+
+    /**
+     * @param keys the number of keys in the overflowed node
+     * @param leaf whether the overflowed node is a leaf or a branch
+     * @param appending whether the key causing the overflow was appended to the end of the
+     *        rightmost node of its level
+     * @return the number of keys kept in the left node. The result is clamped so that both nodes
+     *         hold at least one key.
+     */
+    public int getSplitPoint(int keys, boolean leaf, boolean appending);
+
+    public static final class HalfSplitPolicy implements SplitPolicy {
+
+        public HalfSplitPolicy() {}
+
+        @Override
+        public int getSplitPoint(int keys, boolean leaf, boolean appending) {
+            return keys / 2;
+        }
+    }
+
+    /**
+     * Splits nodes unevenly when keys are appended to the rightmost node so that monotonically
+     * increasing keys (e.g., timestamps or sequence numbers) leave the left nodes almost full
+     * instead of half full. Other splits are done in halves.
+     */
+    public static final class RightmostInsertSplitPolicy implements SplitPolicy {
+
+        private final float leftFillFactor;
+
+        public RightmostInsertSplitPolicy() {
+            this(0.9f);
+        }
+
+        /**
+         * @param leftFillFactor the ratio of keys kept in the left node on appends
+         */
+        public RightmostInsertSplitPolicy(float leftFillFactor) {
+            if (leftFillFactor < 0.5f || leftFillFactor > 1.f) {
+                throw new IllegalArgumentException("Illegal fill factor: " + leftFillFactor);
+            }
+            this.leftFillFactor = leftFillFactor;
+        }
+
+        @Override
+        public int getSplitPoint(int keys, boolean leaf, boolean appending) {
+            if (appending) {
+                return (int) (keys * leftFillFactor);
+            }
+            return keys / 2;
+        }
+    }
+
+}
@@ -61,6 +61,10 @@ public class Value implements Comparable<Value>, Cloneable, Externalizable {
         this._len = len;
     }
 
+    /**
+     * Note that the bytes do not sort in the order of values, e.g., 128 sorts before 127 because
+     * bytes are compared as signed. Use {@link btree4j.keys.KeyEncoder} for keys ordered by value.
+     */
     public Value(long data) {
         this(Primitives.toBytes(data));
     }
@@ -78,6 +82,14 @@ public class Value implements Comparable<Value>, Cloneable, Externalizable {
         }
     }
 
+    /**
+     * getBackingArray returns the array backing the Value without copying. The data of the Value
+     * are stored in the range of [getPosition(), getPosition() + getLength()) of the array.
+     */
+    public final byte[] getBackingArray() {
+        return _data;
+    }
+
     public int getPosition() {
         return _pos;
     }
@@ -176,8 +188,8 @@ public class Value implements Comparable<Value>, Cloneable, Externalizable {
         if (_len < vlen) {
             return false;
         }
-        byte[] ddata = value.getData();
-        int dpos = value.getPosition();
+        final byte[] ddata = value._data;
+        final int dpos = value._pos;
         for (int i = 0; i < vlen; i++) {
             if (_data[i + _pos] != ddata[i + dpos]) {
                 return false;
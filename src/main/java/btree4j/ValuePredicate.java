@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j;
+
+import javax.annotation.Nonnull;
+
+/**
+ * ValuePredicate filters the values reported by
+ * {@link BTreeIndex#search(btree4j.indexer.IndexQuery, ValuePredicate, BTreeCallback)}.
+ * 
+ * The predicate is evaluated against the bytes of a data page before the value is copied out of
+ * it, so the given array must not be modified nor retained.
+ */
+public interface ValuePredicate {
+
+    /**
+     * @param key the key of the value
+     * @param data the array holding the value
+     * @param offset the offset of the value in {@code data}
+     * @param length the length of the value
+     * @return true to report the value to the callback
+     */
+    boolean test(@Nonnull Value key, @Nonnull byte[] data, int offset, int length);
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j;
+
+import btree4j.utils.lang.HashUtils;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * ValueView is a mutable {@link Value} pointing to a range of a buffer owned by an index, e.g., a
+ * data page. A view is reused for every entry of a scan, so it is valid only during the callback
+ * receiving it. Use {@link #clone()} to retain the data.
+ */
+public final class ValueView extends Value {
+    private static final long serialVersionUID = 3817367426178045573L;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    public ValueView() {
+        super(EMPTY, 0, 0);
+    }
+
+    /**
+     * Points this view to {@code [offset, offset + length)} of the given array.
+     */
+    @Nonnull
+    public ValueView reset(@Nonnull final byte[] array, final int offset, final int length) {
+        this._data = array;
+        this._pos = offset;
+        this._len = length;
+        return this;
+    }
+
+    /**
+     * @return the array this view points to. Same as {@link #getBackingArray()}.
+     */
+    @Nonnull
+    public byte[] array() {
+        return _data;
+    }
+
+    /**
+     * @return the offset of the data in {@link #array()}. Same as {@link #getPosition()}.
+     */
+    public int offset() {
+        return _pos;
+    }
+
+    /**
+     * @return the length of the data. Same as {@link #getLength()}.
+     */
+    public int length() {
+        return _len;
+    }
+
+    @Override
+    public int hashCode() {
+        return HashUtils.hashCode(_data, _pos, _len); // never cached since the view moves
+    }
+
+    /**
+     * @return an immutable copy of the data this view currently points to
+     */
+    @Override
+    public Value clone() {
+        return new Value(Arrays.copyOfRange(_data, _pos, _pos + _len));
+    }
+
+}
@@ -19,6 +19,7 @@ import btree4j.BTree;
 import btree4j.BTreeCallback;
 import btree4j.BTreeException;
 import btree4j.Value;
+import btree4j.utils.collections.longs.LongBitmap;
 
 import java.io.File;
 
@@ -78,6 +79,24 @@ public class BTreeIndexer implements Indexer {
         return match;
     }
 
+    /**
+     * Collects matched pointers in a compressed bitmap.
+     */
+    public IndexMatch findBitmap(IndexQuery cond) throws BTreeException {
+        IndexMatch match = new IndexMatch(new LongBitmap());
+        Callback callback = new Callback(match);
+        btree.search(cond, callback);
+        return match;
+    }
+
+    public void search(IndexQuery cond, BTreeCallback callback) throws BTreeException {
+        btree.search(cond, callback);
+    }
+
+    public long count(IndexQuery cond) throws BTreeException {
+        return btree.countRange(cond);
+    }
+
     private static final class Callback implements BTreeCallback {
 
         private final IndexMatch match;
@@ -17,9 +17,12 @@ package btree4j.indexer;
 
 import java.util.Arrays;
 
+import javax.annotation.Nonnull;
+
+import btree4j.KeyComparator;
 import btree4j.Value;
 
-public class BasicIndexQuery implements IndexQuery {
+public class BasicIndexQuery implements IndexQuery, Cloneable {
 
     // no operand operators
 
@@ -61,7 +64,11 @@ public class BasicIndexQuery implements IndexQuery {
 
     // multi operands operators (Set)
 
-    /** IN is treated same as "Between (Inclusive)" internally */
+    /**
+     * IN is executed as a lookup of each operand, or as "Between (Inclusive)" when operands are
+     * dense. Operands may be given in any order as {@link #withComparator(KeyComparator)} sorts a
+     * copy of them.
+     */
     public static final int IN = 6;
 
     /** IN is treated same as "Not Between (Inclusive)" internally */
@@ -85,6 +92,8 @@ public class BasicIndexQuery implements IndexQuery {
 
     protected final int _operator;
     protected final Value[] _operands;
+    @Nonnull
+    protected KeyComparator _comparator = KeyComparator.BYTES;
 
     // ---------------------------------------
 
@@ -93,6 +102,13 @@ public class BasicIndexQuery implements IndexQuery {
         this._operands = operands;
     }
 
+    private BasicIndexQuery(@Nonnull final BasicIndexQuery src,
+            @Nonnull final KeyComparator comparator, @Nonnull final Value[] operands) {
+        this._operator = src._operator;
+        this._operands = operands;
+        this._comparator = comparator;
+    }
+
     public int getOperator() {
         return _operator;
     }
@@ -107,34 +123,76 @@ public class BasicIndexQuery implements IndexQuery {
         return _operands[index];
     }
 
+    /**
+     * Returns this query if it compares operands in the given order, or a shallow copy of it that
+     * does. Operands of IN and NOT_IN are sorted in the copy as they are looked up by binary
+     * search, and the copy is then a plain {@link BasicIndexQuery} of the operator. {@link btree4j.BTree#search} searches with a copy bound to the comparator of the
+     * tree so that the query of the caller is left as is.
+     */
+    @Nonnull
+    public BasicIndexQuery withComparator(@Nonnull KeyComparator comparator) {
+        final int op = getOperator();
+        final boolean sort = (op == IN || op == NOT_IN) && !isSorted(_operands, comparator);
+        if (comparator == _comparator && !sort) {
+            return this;
+        }
+        if (sort) {
+            final Value[] sorted = _operands.clone();
+            Arrays.sort(sorted, comparator);
+            return new BasicIndexQuery(this, comparator, sorted);
+        }
+        final BasicIndexQuery copy;
+        try {
+            copy = (BasicIndexQuery) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        copy._comparator = comparator;
+        return copy;
+    }
+
+    private static boolean isSorted(@Nonnull final Value[] values,
+            @Nonnull final KeyComparator comparator) {
+        for (int i = 1; i < values.length; i++) {
+            if (comparator.compare(values[i - 1], values[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected final int compare(@Nonnull final Value v1, @Nonnull final Value v2) {
+        return _comparator.compare(v1, v2);
+    }
+
     public boolean testValue(Value value) {
         switch (_operator) {
             case ANY:
                 return true;
             case EQ:
-                return value.equals(_operands[0]);
+                return compare(value, _operands[0]) == 0;
             case NE:
-                return !value.equals(_operands[0]);
+                return compare(value, _operands[0]) != 0;
             case GT:
-                return value.compareTo(_operands[0]) > 0;
+                return compare(value, _operands[0]) > 0;
             case LE:
-                return value.compareTo(_operands[0]) <= 0;
+                return compare(value, _operands[0]) <= 0;
             case LT:
-                return value.compareTo(_operands[0]) < 0;
+                return compare(value, _operands[0]) < 0;
             case GE:
-                return value.compareTo(_operands[0]) >= 0;
+                return compare(value, _operands[0]) >= 0;
             case BW:
-                return value.compareTo(_operands[0]) >= 0 && value.compareTo(_operands[1]) <= 0;
+                return compare(value, _operands[0]) >= 0 && compare(value, _operands[1]) <= 0;
             case NBW:
-                return value.compareTo(_operands[0]) <= 0 || value.compareTo(_operands[1]) >= 0;
+                return compare(value, _operands[0]) <= 0 || compare(value, _operands[1]) >= 0;
             case BWX:
-                return value.compareTo(_operands[0]) > 0 && value.compareTo(_operands[1]) < 0;
+                return compare(value, _operands[0]) > 0 && compare(value, _operands[1]) < 0;
             case NBWX:
-                return value.compareTo(_operands[0]) < 0 || value.compareTo(_operands[1]) > 0;
+                return compare(value, _operands[0]) < 0 || compare(value, _operands[1]) > 0;
             case IN:
-                return Arrays.binarySearch(_operands, value) >= 0;
+                return Arrays.binarySearch(_operands, value, _comparator) >= 0;
             case NOT_IN:
-                return Arrays.binarySearch(_operands, value) < 0;
+                return Arrays.binarySearch(_operands, value, _comparator) < 0;
             case START_WITH:
                 return value.startsWith(_operands[0]);
             case NOT_START_WITH:
@@ -174,7 +232,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return value.equals(_operands[0]);
+            return compare(value, _operands[0]) == 0;
         }
     }
 
@@ -191,7 +249,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return !value.equals(_operands[0]);
+            return compare(value, _operands[0]) != 0;
         }
     }
 
@@ -208,7 +266,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return value.compareTo(_operands[0]) > 0;
+            return compare(value, _operands[0]) > 0;
         }
     }
 
@@ -225,7 +283,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return value.compareTo(_operands[0]) <= 0;
+            return compare(value, _operands[0]) <= 0;
         }
     }
 
@@ -242,7 +300,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return value.compareTo(_operands[0]) < 0;
+            return compare(value, _operands[0]) < 0;
         }
     }
 
@@ -259,7 +317,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return value.compareTo(_operands[0]) >= 0;
+            return compare(value, _operands[0]) >= 0;
         }
     }
 
@@ -276,7 +334,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return value.compareTo(_operands[0]) >= 0 && value.compareTo(_operands[1]) <= 0;
+            return compare(value, _operands[0]) >= 0 && compare(value, _operands[1]) <= 0;
         }
     }
 
@@ -293,7 +351,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return value.compareTo(_operands[0]) <= 0 || value.compareTo(_operands[1]) >= 0;
+            return compare(value, _operands[0]) <= 0 || compare(value, _operands[1]) >= 0;
         }
     }
 
@@ -310,7 +368,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return value.compareTo(_operands[0]) > 0 && value.compareTo(_operands[1]) < 0;
+            return compare(value, _operands[0]) > 0 && compare(value, _operands[1]) < 0;
         }
     }
 
@@ -327,7 +385,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return value.compareTo(_operands[0]) < 0 || value.compareTo(_operands[1]) > 0;
+            return compare(value, _operands[0]) < 0 || compare(value, _operands[1]) > 0;
         }
     }
 
@@ -344,7 +402,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return Arrays.binarySearch(_operands, value) >= 0;
+            return Arrays.binarySearch(_operands, value, _comparator) >= 0;
         }
     }
 
@@ -361,7 +419,7 @@ public class BasicIndexQuery implements IndexQuery {
 
         @Override
         public boolean testValue(Value value) {
-            return Arrays.binarySearch(_operands, value) < 0;
+            return Arrays.binarySearch(_operands, value, _comparator) < 0;
         }
     }
 
@@ -17,6 +17,9 @@ package btree4j.indexer;
 
 import btree4j.Value;
 import btree4j.indexer.BasicIndexQuery.IndexConditionSW;
+import btree4j.indexer.automaton.ByteAutomaton;
+import btree4j.indexer.automaton.ByteNFA;
+import btree4j.indexer.automaton.WildcardMatcher;
 import btree4j.utils.collections.IntStack;
 import btree4j.utils.io.FastMultiByteArrayOutputStream;
 import btree4j.utils.lang.StringUtils;
@@ -25,14 +28,23 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
-public final class ByteLikeIndexQuery extends IndexConditionSW {
+import javax.annotation.Nullable;
+
+public final class ByteLikeIndexQuery extends IndexConditionSW implements SkipScanIndexQuery {
 
     private static final int MATCH = 0, ANY = 1;
+    private static final int MAX_DFA_STATES = 1024;
 
     private final byte anyPattern;
 
     private byte[][] _patterns;
     private int[] _types;
+    // null if the pattern is too complex to be compiled into a DFA
+    @Nullable
+    private ByteAutomaton _automaton;
+    // used instead of the automaton when it is null
+    @Nullable
+    private WildcardMatcher _matcher;
 
     public ByteLikeIndexQuery(Value prefix, byte[] suffix, byte any) {
         super(prefix);
@@ -41,6 +53,7 @@ public final class ByteLikeIndexQuery extends IndexConditionSW {
         }
         this.anyPattern = any;
         initPattern(suffix);
+        initAutomaton(prefix);
     }
 
     private void initPattern(byte[] p) {
@@ -79,63 +92,80 @@ public final class ByteLikeIndexQuery extends IndexConditionSW {
         this._types = typeStack.toArray();
     }
 
-    @Override
-    public boolean testValue(Value value) {
-        boolean sw = value.startsWith(_operands[0]);
-        if (!sw) {
-            return false;
+    private void initAutomaton(final Value prefix) {
+        final ByteNFA nfa = new ByteNFA();
+        int state = 0;
+        final byte[] b = prefix.getBackingArray();
+        for (int i = prefix.getPosition(), end = i + prefix.getLength(); i < end; i++) {
+            int next = nfa.newState();
+            nfa.addByte(state, b[i], next);
+            state = next;
         }
-        if (_types.length == 0) {
-            return true;
+        if (_types.length == 0) {// prefix match
+            nfa.addAnyByte(state, state);
+            nfa.setAccept(state);
+            this._automaton = ByteAutomaton.compile(nfa);
+            return;
         }
-        byte[] data = value.getData();
-        int offset = _operands[0].getLength();
-        int length = data.length - offset;
-        final byte[] target;
-        if (offset == 0 && length == data.length) {
-            target = data;
-        } else {
-            target = Arrays.copyOfRange(data, offset, offset + length);
-        }
-        return match(target, _patterns, _types, 0, 0);
-    }
-
-    private static boolean match(byte[] target, byte[][] verifyPatterns, int[] verifyType, int ti,
-            int pi) {
-        final int round = verifyType.length;
-        final int tlimit = target.length;
-        for (; pi < round; pi++) {
-            final int type = verifyType[pi];
-            switch (type) {
+        for (int i = 0; i < _types.length; i++) {
+            switch (_types[i]) {
                 case MATCH:
-                    final byte[] ptn = verifyPatterns[pi];
-                    final int ptnlen = ptn.length;
-                    if ((ti + ptnlen) > tlimit) {
-                        return false;
-                    }
-                    for (int j = 0; j < ptnlen; j++) {
-                        if (target[ti++] != ptn[j]) {
-                            return false;
-                        }
+                    for (byte c : _patterns[i]) {
+                        int next = nfa.newState();
+                        nfa.addByte(state, c, next);
+                        state = next;
                     }
                     break;
                 case ANY:
-                    if (++pi >= round) {
-                        return true;
-                    }
-                    // there are more rounds
-                    for (; ti < tlimit; ti++) {// recursive trick
-                        if (match(target, verifyPatterns, verifyType, ti, pi)) {
-                            return true;
-                        }
-                        // TRICK: backtrack to ANY
-                    }
-                    return false;
+                    nfa.addAnyByte(state, state);
+                    break;
                 default:
-                    throw new IllegalStateException("Illegal type: " + type);
+                    throw new IllegalStateException("Illegal type: " + _types[i]);
             }
         }
-        return ti == tlimit;
+        nfa.setAccept(state);
+        this._automaton = ByteAutomaton.compile(nfa, MAX_DFA_STATES);
+        if (_automaton == null) {
+            final ArrayList<byte[]> segments = new ArrayList<byte[]>();
+            for (int i = 0; i < _types.length; i++) {
+                if (_types[i] == MATCH) {
+                    segments.add(_patterns[i]);
+                }
+            }
+            this._matcher = new WildcardMatcher(1, segments.toArray(new byte[segments.size()][]),
+                new boolean[segments.size()][], _types[0] != ANY,
+                _types[_types.length - 1] != ANY);
+        }
+    }
+
+    @Override
+    public Value nextCandidate(Value key) {
+        final byte[] b = key.getBackingArray();
+        final int pos = key.getPosition(), len = key.getLength();
+        if (_automaton == null) {// the least key greater than the given key
+            byte[] next = Arrays.copyOfRange(b, pos, pos + len + 1);
+            next[len] = Byte.MIN_VALUE;
+            return new Value(next);
+        }
+        byte[] next = _automaton.nextCandidate(b, pos, len);
+        return next == null ? null : new Value(next);
+    }
+
+    /**
+     * Tests the value without allocation, in time linear to its length.
+     */
+    @Override
+    public boolean testValue(Value value) {
+        final byte[] b = value.getBackingArray();
+        final int pos = value.getPosition(), len = value.getLength();
+        if (_automaton != null) {
+            return _automaton.run(b, pos, len);
+        }
+        if (!value.startsWith(_operands[0])) {
+            return false;
+        }
+        final int offset = _operands[0].getLength();
+        return _matcher.match(b, pos + offset, len - offset);
     }
 
     @Override
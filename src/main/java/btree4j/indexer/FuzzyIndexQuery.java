@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.indexer;
+
+import btree4j.Value;
+import btree4j.indexer.BasicIndexQuery.IndexConditionSW;
+import btree4j.indexer.automaton.ByteAutomaton;
+import btree4j.indexer.automaton.ByteNFA;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * A query matching keys, as strings, within a Levenshtein distance of a term. Insertions,
+ * deletions and substitutions of chars count as one edit each.
+ *
+ * The distance is compiled into a Levenshtein automaton. The query is executed as Starts With
+ * the prefix shared by all matching keys, which includes the first {@code prefixLength} chars of
+ * the term, and keys that cannot match are skipped by seeking to the next key the automaton can
+ * accept.
+ */
+public final class FuzzyIndexQuery extends IndexConditionSW implements SkipScanIndexQuery {
+
+    private final Value term;
+    private final int maxEdits;
+    private final int prefixLength;
+    private final ByteAutomaton automaton;
+
+    /**
+     * @param term the term to match
+     * @param maxEdits the maximum number of edits
+     * @param prefixLength the number of leading chars of the term that must match exactly
+     * @throws IllegalArgumentException if the automaton would be too large
+     */
+    public FuzzyIndexQuery(@Nonnull Value term, @Nonnegative int maxEdits,
+            @Nonnegative int prefixLength) {
+        this(term, maxEdits, prefixLength, compile(term.toString(), maxEdits, prefixLength));
+    }
+
+    private FuzzyIndexQuery(@Nonnull Value term, int maxEdits, int prefixLength,
+            @Nonnull ByteAutomaton automaton) {
+        super(new Value(automaton.getCommonPrefix()));
+        this.term = term;
+        this.maxEdits = maxEdits;
+        this.prefixLength = prefixLength;
+        this.automaton = automaton;
+    }
+
+    @Nonnull
+    private static ByteAutomaton compile(@Nonnull final String term, final int maxEdits,
+            final int prefixLength) {
+        if (maxEdits < 0) {
+            throw new IllegalArgumentException("Illegal maxEdits: " + maxEdits);
+        }
+        if (prefixLength < 0) {
+            throw new IllegalArgumentException("Illegal prefixLength: " + prefixLength);
+        }
+        final ByteNFA nfa = new ByteNFA();
+        int state = 0;
+        final int prefixLen = Math.min(prefixLength, term.length());
+        for (int i = 0; i < prefixLen; i++) {
+            int next = nfa.newState();
+            nfa.addChar(state, term.charAt(i), next);
+            state = next;
+        }
+        // states[i][e]: i chars of the rest of the term are consumed with e edits
+        final String rest = term.substring(prefixLen);
+        final int n = rest.length();
+        final int[][] states = new int[n + 1][maxEdits + 1];
+        for (int i = 0; i <= n; i++) {
+            for (int e = 0; e <= maxEdits; e++) {
+                states[i][e] = (i == 0 && e == 0) ? state : nfa.newState();
+            }
+        }
+        for (int i = 0; i <= n; i++) {
+            for (int e = 0; e <= maxEdits; e++) {
+                final int s = states[i][e];
+                if (i < n) {
+                    nfa.addChar(s, rest.charAt(i), states[i + 1][e]);
+                }
+                if (e < maxEdits) {
+                    nfa.addAnyChar(s, states[i][e + 1]); // insertion
+                    if (i < n) {
+                        nfa.addAnyChar(s, states[i + 1][e + 1]); // substitution
+                        nfa.addEpsilon(s, states[i + 1][e + 1]); // deletion
+                    }
+                }
+                if (i == n) {
+                    nfa.setAccept(s);
+                }
+            }
+        }
+        return ByteAutomaton.compile(nfa);
+    }
+
+    @Override
+    public Value nextCandidate(Value key) {
+        byte[] next = automaton.nextCandidate(key.getBackingArray(), key.getPosition(),
+            key.getLength());
+        return next == null ? null : new Value(next);
+    }
+
+    @Override
+    public boolean testValue(Value value) {
+        return automaton.run(value.getBackingArray(), value.getPosition(), value.getLength());
+    }
+
+    @Override
+    public String toString() {
+        return "fuzzy: " + term + "~" + maxEdits + ", prefix length: " + prefixLength;
+    }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.indexer;
+
+import btree4j.BTreeCallback;
+import btree4j.BTreeException;
+import btree4j.Value;
+import btree4j.utils.collections.longs.LongBitmap;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A boolean combination of queries over several {@link Indexer}s that share the pointer space,
+ * e.g., indexes on different attributes of the same rows.
+ *
+ * Operands of AND are evaluated from the most selective one, estimated by
+ * {@link Indexer#count(IndexQuery)}, and the pointers matched so far restrict what the following
+ * operands collect, so intermediate results never grow beyond the smallest operand. Results are
+ * held in compressed {@link LongBitmap}s.
+ */
+public abstract class IndexExpression {
+
+    IndexExpression() {}
+
+    @Nonnull
+    public static IndexExpression leaf(@Nonnull Indexer indexer, @Nonnull IndexQuery query) {
+        return new Leaf(indexer, query);
+    }
+
+    @Nonnull
+    public static IndexExpression and(@Nonnull IndexExpression... operands) {
+        return new And(operands);
+    }
+
+    @Nonnull
+    public static IndexExpression or(@Nonnull IndexExpression... operands) {
+        return new Or(operands);
+    }
+
+    /**
+     * Negation is only allowed as an operand of {@link #and(IndexExpression...)} having a positive
+     * operand, since pointers not matched by any index are not known.
+     */
+    @Nonnull
+    public static IndexExpression not(@Nonnull IndexExpression operand) {
+        return new Not(operand);
+    }
+
+    @Nonnull
+    public final IndexMatch execute() throws BTreeException {
+        return new IndexMatch(evaluate(null));
+    }
+
+    /**
+     * @return the estimated upper bound of matched pointers
+     */
+    public abstract long estimate() throws BTreeException;
+
+    /**
+     * @param candidates pointers the result is restricted to, or null for no restriction
+     */
+    @Nonnull
+    abstract LongBitmap evaluate(@Nullable LongBitmap candidates) throws BTreeException;
+
+    static final class Leaf extends IndexExpression {
+
+        private final Indexer indexer;
+        private final IndexQuery query;
+
+        private long estimate = -1L;
+
+        Leaf(@Nonnull Indexer indexer, @Nonnull IndexQuery query) {
+            this.indexer = indexer;
+            this.query = query;
+        }
+
+        @Override
+        public long estimate() throws BTreeException {
+            if (estimate == -1L) {
+                // counting a pattern costs as much as evaluating it
+                this.estimate = (query instanceof SkipScanIndexQuery) ? Long.MAX_VALUE
+                        : indexer.count(query);
+            }
+            return estimate;
+        }
+
+        @Override
+        LongBitmap evaluate(@Nullable final LongBitmap candidates) throws BTreeException {
+            final LongBitmap matched = new LongBitmap();
+            if (candidates == null) {
+                indexer.search(query, new BTreeCallback() {
+                    @Override
+                    public boolean indexInfo(Value key, long pointer) {
+                        matched.add(pointer);
+                        return true;
+                    }
+
+                    @Override
+                    public boolean indexInfo(Value key, byte[] value) {
+                        throw new UnsupportedOperationException();
+                    }
+                });
+                return matched;
+            }
+            final long limit = candidates.getCardinality();
+            if (limit == 0L) {
+                return matched;
+            }
+            indexer.search(query, new BTreeCallback() {
+                long count = 0L;
+
+                @Override
+                public boolean indexInfo(Value key, long pointer) {
+                    if (candidates.contains(pointer) && !matched.contains(pointer)) {
+                        matched.add(pointer);
+                        // stops once all the candidates are matched
+                        return ++count < limit;
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean indexInfo(Value key, byte[] value) {
+                    throw new UnsupportedOperationException();
+                }
+            });
+            return matched;
+        }
+    }
+
+    static final class And extends IndexExpression {
+
+        private final IndexExpression[] operands;
+
+        And(@Nonnull IndexExpression[] operands) {
+            if (operands.length == 0) {
+                throw new IllegalArgumentException("No operand is given");
+            }
+            this.operands = operands;
+        }
+
+        @Override
+        public long estimate() throws BTreeException {
+            long min = Long.MAX_VALUE;
+            for (IndexExpression e : operands) {
+                min = Math.min(min, e.estimate());
+            }
+            return min;
+        }
+
+        @Override
+        LongBitmap evaluate(@Nullable LongBitmap candidates) throws BTreeException {
+            final IndexExpression[] ordered = operands.clone();
+            final long[] estimates = new long[ordered.length];
+            for (int i = 0; i < ordered.length; i++) {
+                estimates[i] = ordered[i].estimate();
+            }
+            sortByEstimate(ordered, estimates);
+            LongBitmap result = candidates;
+            for (IndexExpression e : ordered) {
+                result = e.evaluate(result);
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        private static void sortByEstimate(final IndexExpression[] operands,
+                final long[] estimates) {
+            final Integer[] idx = new Integer[operands.length];
+            for (int i = 0; i < idx.length; i++) {
+                idx[i] = i;
+            }
+            Arrays.sort(idx, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i, Integer j) {
+                    // negations go last since they need candidates
+                    boolean ni = operands[i] instanceof Not, nj = operands[j] instanceof Not;
+                    if (ni != nj) {
+                        return ni ? 1 : -1;
+                    }
+                    return Long.compare(estimates[i], estimates[j]);
+                }
+            });
+            final IndexExpression[] sorted = new IndexExpression[operands.length];
+            for (int i = 0; i < idx.length; i++) {
+                sorted[i] = operands[idx[i]];
+            }
+            System.arraycopy(sorted, 0, operands, 0, sorted.length);
+        }
+    }
+
+    static final class Or extends IndexExpression {
+
+        private final IndexExpression[] operands;
+
+        Or(@Nonnull IndexExpression[] operands) {
+            if (operands.length == 0) {
+                throw new IllegalArgumentException("No operand is given");
+            }
+            this.operands = operands;
+        }
+
+        @Override
+        public long estimate() throws BTreeException {
+            long sum = 0L;
+            for (IndexExpression e : operands) {
+                final long est = e.estimate();
+                if (est == Long.MAX_VALUE) {
+                    return Long.MAX_VALUE;
+                }
+                sum += est;
+            }
+            return sum;
+        }
+
+        @Override
+        LongBitmap evaluate(@Nullable LongBitmap candidates) throws BTreeException {
+            LongBitmap result = operands[0].evaluate(candidates);
+            for (int i = 1; i < operands.length; i++) {
+                result = result.or(operands[i].evaluate(candidates));
+            }
+            return result;
+        }
+    }
+
+    static final class Not extends IndexExpression {
+
+        private final IndexExpression operand;
+
+        Not(@Nonnull IndexExpression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public long estimate() throws BTreeException {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        LongBitmap evaluate(@Nullable LongBitmap candidates) throws BTreeException {
+            if (candidates == null) {
+                throw new IllegalArgumentException(
+                    "NOT must be an operand of AND having a positive operand");
+            }
+            return candidates.andNot(operand.evaluate(candidates));
+        }
+    }
+
+}
@@ -16,28 +16,101 @@
 package btree4j.indexer;
 
 import btree4j.Value;
+import btree4j.utils.collections.longs.LongBitmap;
 
 import java.util.Arrays;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Pointers matched by a query. Matches are collected in an array by default, or in a compressed
+ * {@link LongBitmap} that holds large results compactly and supports set operations between
+ * matches without sorting.
+ */
 public final class IndexMatch {
 
     private long[] entries;
     private int last;
 
+    @Nullable
+    private final LongBitmap bitmap;
+
     private transient long[] matchedCache = null;
 
     public IndexMatch(int expected) {
         this.entries = new long[expected];
         this.last = 0;
+        this.bitmap = null;
+    }
+
+    /**
+     * Creates a match backed by the given bitmap. Duplicate pointers are collapsed.
+     */
+    public IndexMatch(@Nonnull LongBitmap bitmap) {
+        this.entries = null;
+        this.last = 0;
+        this.bitmap = bitmap;
     }
 
     public void add(Value key, long entry) {
+        if (bitmap != null) {
+            bitmap.add(entry);
+            this.matchedCache = null;
+            return;
+        }
         ensureCapacity(last + 1);
         entries[last] = entry;
         ++last;
     }
 
+    public boolean isBitmap() {
+        return bitmap != null;
+    }
+
+    /**
+     * @return the bitmap backing this match or a bitmap built from the matched pointers
+     */
+    @Nonnull
+    public LongBitmap toBitmap() {
+        if (bitmap != null) {
+            return bitmap;
+        }
+        final LongBitmap bm = new LongBitmap();
+        for (long ptr : getMatchedSorted()) {
+            bm.add(ptr);
+        }
+        return bm;
+    }
+
+    /**
+     * @return pointers matched by both
+     */
+    @Nonnull
+    public IndexMatch and(@Nonnull IndexMatch other) {
+        return new IndexMatch(toBitmap().and(other.toBitmap()));
+    }
+
+    /**
+     * @return pointers matched by either
+     */
+    @Nonnull
+    public IndexMatch or(@Nonnull IndexMatch other) {
+        return new IndexMatch(toBitmap().or(other.toBitmap()));
+    }
+
+    /**
+     * @return pointers matched by this but not by the other
+     */
+    @Nonnull
+    public IndexMatch andNot(@Nonnull IndexMatch other) {
+        return new IndexMatch(toBitmap().andNot(other.toBitmap()));
+    }
+
     public int countMatched() {
+        if (bitmap != null) {
+            return (int) bitmap.getCardinality();
+        }
         return last;
     }
 
@@ -45,6 +118,10 @@ public final class IndexMatch {
         if (matchedCache != null) {
             return matchedCache;
         }
+        if (bitmap != null) {
+            this.matchedCache = bitmap.toArray();
+            return matchedCache;
+        }
         Arrays.sort(entries, 0, last);
         long[] newArray = new long[last];
         System.arraycopy(entries, 0, newArray, 0, last);
@@ -56,6 +133,9 @@ public final class IndexMatch {
         if (matchedCache != null) {
             return matchedCache;
         }
+        if (bitmap != null) {
+            return getMatchedSorted();
+        }
         if (entries.length == last) {
             this.matchedCache = entries;
             return entries;
@@ -81,13 +161,15 @@ public final class IndexMatch {
 
     @Override
     public String toString() {
-        StringBuilder buf = new StringBuilder(last * 2 + 2);
+        final long[] matched = (bitmap != null) ? getMatchedSorted() : entries;
+        final int size = (bitmap != null) ? matched.length : last;
+        StringBuilder buf = new StringBuilder(size * 2 + 2);
         buf.append('{');
-        for (int i = 0; i < last; i++) {
+        for (int i = 0; i < size; i++) {
             if (i != 0) {
                 buf.append(',');
             }
-            buf.append(entries[i]);
+            buf.append(matched[i]);
         }
         buf.append('}');
         return buf.toString();
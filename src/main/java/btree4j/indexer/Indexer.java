@@ -15,6 +15,7 @@
  */
 package btree4j.indexer;
 
+import btree4j.BTreeCallback;
 import btree4j.BTreeException;
 
 public interface Indexer {
@@ -33,4 +34,11 @@ public interface Indexer {
 
     public IndexMatch find(IndexQuery cond) throws BTreeException;
 
+    public void search(IndexQuery cond, BTreeCallback callback) throws BTreeException;
+
+    /**
+     * @return the number of entries matched by the given condition
+     */
+    public long count(IndexQuery cond) throws BTreeException;
+
 }
@@ -17,21 +17,33 @@ package btree4j.indexer;
 
 import btree4j.Value;
 import btree4j.indexer.BasicIndexQuery.IndexConditionSW;
+import btree4j.indexer.automaton.ByteAutomaton;
+import btree4j.indexer.automaton.ByteNFA;
+import btree4j.indexer.automaton.WildcardMatcher;
 import btree4j.utils.collections.IntStack;
-import btree4j.utils.lang.Primitives;
 import btree4j.utils.lang.StringUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
-public final class LikeIndexQuery extends IndexConditionSW {
+import javax.annotation.Nullable;
+
+public final class LikeIndexQuery extends IndexConditionSW implements SkipScanIndexQuery {
 
     private static final char DEFAULT_ESCAPE = '\\';
     private static final int MATCH = 0, ONE = 1, ANY = 2;
+    private static final int MAX_DFA_STATES = 1024;
 
     private final int escapeChar;
 
     private char[][] _patterns;
     private int[] _types;
+    // null if the pattern is too complex to be compiled into a DFA
+    @Nullable
+    private ByteAutomaton _automaton;
+    // used instead of the automaton when it is null
+    @Nullable
+    private WildcardMatcher _matcher;
 
     public LikeIndexQuery(Value prefix, String suffix) {
         this(prefix, suffix, DEFAULT_ESCAPE);
@@ -44,6 +56,7 @@ public final class LikeIndexQuery extends IndexConditionSW {
         }
         this.escapeChar = escape;
         initPattern(suffix);
+        initAutomaton(prefix);
     }
 
     private void initPattern(String p) {
@@ -99,63 +112,133 @@ public final class LikeIndexQuery extends IndexConditionSW {
         this._types = typeStack.toArray();
     }
 
-    @Override
-    public boolean testValue(Value value) {
-        boolean sw = value.startsWith(_operands[0]);
-        if (!sw) {
-            return false;
+    /**
+     * Compiles the prefix and the pattern into an automaton over bytes where a char is 2 bytes.
+     * Falls back to a {@link WildcardMatcher} when the DFA would be too large.
+     */
+    private void initAutomaton(final Value prefix) {
+        final ByteNFA nfa = new ByteNFA();
+        int state = 0;
+        final byte[] b = prefix.getBackingArray();
+        for (int i = prefix.getPosition(), end = i + prefix.getLength(); i < end; i++) {
+            int next = nfa.newState();
+            nfa.addByte(state, b[i], next);
+            state = next;
         }
-        if (_types.length == 0) {
-            return true;
+        if (_types.length == 0) {// prefix match
+            nfa.addAnyByte(state, state);
+            nfa.setAccept(state);
+            this._automaton = ByteAutomaton.compile(nfa);
+            return;
         }
-        byte[] data = value.getData();
-        int offset = _operands[0].getLength();
-        int length = data.length - offset;
-        char[] target = Primitives.toChars(data, offset, length);
-        return match(target, _patterns, _types, 0, 0);
-    }
-
-    private static boolean match(char[] target, char[][] verifyPatterns, int[] verifyType, int ti,
-            int pi) {
-        final int round = verifyType.length;
-        final int tlimit = target.length;
-        for (; pi < round; pi++) {
-            final int type = verifyType[pi];
-            final char[] ptn = verifyPatterns[pi];
-            switch (type) {
+        for (int i = 0; i < _types.length; i++) {
+            switch (_types[i]) {
                 case MATCH:
-                    final int ptnlen = ptn.length;
-                    if ((ti + ptnlen) > tlimit) {
-                        return false;
-                    }
-                    for (int j = 0; j < ptnlen; j++) {
-                        if (target[ti++] != ptn[j]) {
-                            return false;
-                        }
+                    for (char c : _patterns[i]) {
+                        int next = nfa.newState();
+                        nfa.addChar(state, c, next);
+                        state = next;
                     }
                     break;
-                case ONE:
-                    if (ti++ >= tlimit) {
-                        return false;
-                    }
+                case ONE: {
+                    int next = nfa.newState();
+                    nfa.addAnyChar(state, next);
+                    state = next;
                     break;
+                }
                 case ANY:
-                    if (++pi >= round) {
-                        return true;
-                    }
-                    // there are more rounds
-                    for (; ti < tlimit; ti++) {// recursive trick
-                        if (match(target, verifyPatterns, verifyType, ti, pi)) {
-                            return true;
-                        }
-                        // backtrack to ANY
-                    }
-                    return false;
+                    nfa.addAnyChar(state, state);
+                    break;
                 default:
-                    throw new IllegalStateException("Illegal type: " + type);
+                    throw new IllegalStateException("Illegal type: " + _types[i]);
             }
         }
-        return ti == tlimit;
+        nfa.setAccept(state);
+        // a trailing odd byte is ignored
+        final int odd = nfa.newState();
+        nfa.addAnyByte(state, odd);
+        nfa.setAccept(odd);
+        this._automaton = ByteAutomaton.compile(nfa, MAX_DFA_STATES);
+        if (_automaton == null) {
+            this._matcher = compileMatcher(_patterns, _types);
+        }
+    }
+
+    private static WildcardMatcher compileMatcher(final char[][] patterns, final int[] types) {
+        final ArrayList<byte[]> segments = new ArrayList<byte[]>();
+        final ArrayList<boolean[]> masks = new ArrayList<boolean[]>();
+        byte[] seg = new byte[0];
+        boolean[] mask = null;
+        for (int i = 0; i <= types.length; i++) {
+            final int type = (i == types.length) ? ANY : types[i];
+            if (type == ANY) {
+                if (seg.length > 0 || i == types.length) {
+                    segments.add(seg);
+                    masks.add(mask);
+                }
+                seg = new byte[0];
+                mask = null;
+                continue;
+            }
+            final int from = seg.length;
+            if (type == MATCH) {
+                final char[] ptn = patterns[i];
+                seg = Arrays.copyOf(seg, from + ptn.length * 2);
+                for (int j = 0; j < ptn.length; j++) {
+                    seg[from + j * 2] = (byte) (ptn[j] >>> 8);
+                    seg[from + j * 2 + 1] = (byte) ptn[j];
+                }
+                if (mask != null) {
+                    mask = Arrays.copyOf(mask, seg.length);
+                }
+            } else if (type == ONE) {
+                seg = Arrays.copyOf(seg, from + 2);
+                mask = (mask == null) ? new boolean[seg.length] : Arrays.copyOf(mask, seg.length);
+                mask[from] = mask[from + 1] = true;
+            } else {
+                throw new IllegalStateException("Illegal type: " + type);
+            }
+        }
+        final boolean anchorStart = types[0] != ANY;
+        final boolean anchorEnd = types[types.length - 1] != ANY;
+        if (!anchorEnd) {// drop the empty segment after the last ANY
+            segments.remove(segments.size() - 1);
+            masks.remove(masks.size() - 1);
+        }
+        return new WildcardMatcher(2, segments.toArray(new byte[segments.size()][]),
+            masks.toArray(new boolean[masks.size()][]), anchorStart, anchorEnd);
+    }
+
+    @Override
+    public Value nextCandidate(Value key) {
+        final byte[] b = key.getBackingArray();
+        final int pos = key.getPosition(), len = key.getLength();
+        if (_automaton == null) {// the least key greater than the given key
+            byte[] next = Arrays.copyOfRange(b, pos, pos + len + 1);
+            next[len] = Byte.MIN_VALUE;
+            return new Value(next);
+        }
+        byte[] next = _automaton.nextCandidate(b, pos, len);
+        return next == null ? null : new Value(next);
+    }
+
+    /**
+     * Tests the value without allocation, in time linear to its length unless the pattern is
+     * matched by the {@link WildcardMatcher} and has '_' between two '%', which costs O(n * m)
+     * for a value of n chars and a pattern of m chars in the worst case.
+     */
+    @Override
+    public boolean testValue(Value value) {
+        final byte[] b = value.getBackingArray();
+        final int pos = value.getPosition(), len = value.getLength();
+        if (_automaton != null) {
+            return _automaton.run(b, pos, len);
+        }
+        if (!value.startsWith(_operands[0])) {
+            return false;
+        }
+        final int offset = _operands[0].getLength();
+        return _matcher.match(b, pos + offset, len - offset);
     }
 
     @Override
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.indexer;
+
+import btree4j.Value;
+import btree4j.indexer.BasicIndexQuery.IndexConditionSW;
+import btree4j.indexer.automaton.ByteAutomaton;
+import btree4j.indexer.automaton.RegexCompiler;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A query matching keys, as strings, against a regular expression. See {@link RegexCompiler} for
+ * the supported syntax.
+ *
+ * The query is executed as Starts With the literal prefix shared by all matching keys. Within the
+ * range, keys that cannot match are skipped using the compiled automaton, so alternatives such
+ * as {@code (foo|bar)\d+} seek to each of their prefixes.
+ */
+public final class RegexIndexQuery extends IndexConditionSW implements SkipScanIndexQuery {
+
+    private final String regex;
+    private final ByteAutomaton automaton;
+
+    /**
+     * @throws IllegalArgumentException if the regex is malformed, not supported or too complex
+     */
+    public RegexIndexQuery(@Nonnull String regex) {
+        this(regex, ByteAutomaton.compile(RegexCompiler.compile(regex)));
+    }
+
+    private RegexIndexQuery(@Nonnull String regex, @Nonnull ByteAutomaton automaton) {
+        super(new Value(automaton.getCommonPrefix()));
+        this.regex = regex;
+        this.automaton = automaton;
+    }
+
+    @Override
+    public Value nextCandidate(Value key) {
+        byte[] next = automaton.nextCandidate(key.getBackingArray(), key.getPosition(),
+            key.getLength());
+        return next == null ? null : new Value(next);
+    }
+
+    @Override
+    public boolean testValue(Value value) {
+        return automaton.run(value.getBackingArray(), value.getPosition(), value.getLength());
+    }
+
+    @Override
+    public String toString() {
+        return "regex: " + regex;
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.indexer;
+
+import btree4j.Value;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An IndexQuery that tells where the next matching key can be, so that a scan can seek past keys
+ * that never match instead of testing each of them.
+ */
+public interface SkipScanIndexQuery extends IndexQuery {
+
+    /**
+     * Returns a key greater than the given key such that no key between them matches.
+     *
+     * @param key a key that did not match
+     * @return the next candidate, or null if no key greater than the given key matches
+     */
+    @Nullable
+    public Value nextCandidate(@Nonnull Value key);
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.indexer.automaton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A deterministic finite automaton over bytes built from a {@link ByteNFA}. States that cannot
+ * reach an accepting state are removed, so any transition leads to a state from which some string
+ * is accepted.
+ *
+ * Strings are ordered as {@link btree4j.Value#compareTo(btree4j.Value)} does, that is, by signed
+ * bytes.
+ */
+public final class ByteAutomaton {
+
+    /** The maximum number of states of a DFA */
+    public static final int MAX_STATES = 10000;
+
+    private static final int DEAD = -1;
+    private static final int DEAD_BYTE = Integer.MIN_VALUE;
+
+    // transitions[state * 256 + (unsigned byte)]
+    private final int[] transitions;
+    private final boolean[] accepts;
+    private final boolean empty; // accepts nothing
+
+    private ByteAutomaton(@Nonnull int[] transitions, @Nonnull boolean[] accepts, boolean empty) {
+        this.transitions = transitions;
+        this.accepts = accepts;
+        this.empty = empty;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the DFA has more than {@link #MAX_STATES} states
+     */
+    @Nonnull
+    public static ByteAutomaton compile(@Nonnull ByteNFA nfa) {
+        final ByteAutomaton dfa = compile(nfa, MAX_STATES);
+        if (dfa == null) {
+            throw new IllegalArgumentException(
+                "Pattern is too complex: more than " + MAX_STATES + " states");
+        }
+        return dfa;
+    }
+
+    /**
+     * @return the DFA or null if it has more than {@code maxStates} states
+     */
+    @Nullable
+    public static ByteAutomaton compile(@Nonnull ByteNFA nfa, int maxStates) {
+        // subset construction
+        final List<BitSet> dstates = new ArrayList<BitSet>();
+        final Map<BitSet, Integer> ids = new HashMap<BitSet, Integer>();
+        final BitSet start = new BitSet();
+        start.set(0);
+        nfa.closure(start);
+        dstates.add(start);
+        ids.put(start, 0);
+
+        int[] table = new int[256 * 16];
+        final int[] bounds = new int[257];
+        for (int d = 0; d < dstates.size(); d++) {
+            final BitSet members = dstates.get(d);
+            // byte classes: ranges where the same NFA transitions apply
+            Arrays.fill(bounds, 0);
+            for (int s = members.nextSetBit(0); s >= 0; s = members.nextSetBit(s + 1)) {
+                final int[] t = nfa.getTransitions(s);
+                for (int i = 0; i < t.length; i += 3) {
+                    bounds[t[i]] = 1;
+                    bounds[t[i + 1] + 1] = 1;
+                }
+            }
+            if (table.length < (d + 1) * 256) {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            int lo = 0;
+            while (lo < 256) {
+                int hi = lo + 1;
+                while (hi < 256 && bounds[hi] == 0) {
+                    hi++;
+                }
+                // [lo, hi) is a byte class
+                final BitSet target = new BitSet();
+                for (int s = members.nextSetBit(0); s >= 0; s = members.nextSetBit(s + 1)) {
+                    final int[] t = nfa.getTransitions(s);
+                    for (int i = 0; i < t.length; i += 3) {
+                        if (t[i] <= lo && lo <= t[i + 1]) {
+                            target.set(t[i + 2]);
+                        }
+                    }
+                }
+                int to = DEAD;
+                if (!target.isEmpty()) {
+                    nfa.closure(target);
+                    Integer id = ids.get(target);
+                    if (id == null) {
+                        if (dstates.size() >= maxStates) {
+                            return null;
+                        }
+                        id = dstates.size();
+                        dstates.add(target);
+                        ids.put(target, id);
+                    }
+                    to = id.intValue();
+                }
+                Arrays.fill(table, d * 256 + lo, d * 256 + hi, to);
+                lo = hi;
+            }
+        }
+        final int numStates = dstates.size();
+        final boolean[] accept = new boolean[numStates];
+        for (int d = 0; d < numStates; d++) {
+            final BitSet members = dstates.get(d);
+            for (int s = members.nextSetBit(0); s >= 0; s = members.nextSetBit(s + 1)) {
+                if (nfa.isAccept(s)) {
+                    accept[d] = true;
+                    break;
+                }
+            }
+        }
+
+        // remove states that cannot reach an accepting state
+        final boolean[] live = new boolean[numStates];
+        boolean changed = true;
+        for (int d = 0; d < numStates; d++) {
+            live[d] = accept[d];
+        }
+        while (changed) {
+            changed = false;
+            for (int d = 0; d < numStates; d++) {
+                if (live[d]) {
+                    continue;
+                }
+                for (int b = 0; b < 256; b++) {
+                    final int to = table[d * 256 + b];
+                    if (to != DEAD && live[to]) {
+                        live[d] = true;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        final int[] renumber = new int[numStates];
+        int numLive = 0;
+        for (int d = 0; d < numStates; d++) {
+            renumber[d] = live[d] ? numLive++ : DEAD;
+        }
+        final int[] transitions = new int[Math.max(numLive, 1) * 256];
+        final boolean[] accepts = new boolean[Math.max(numLive, 1)];
+        Arrays.fill(transitions, DEAD);
+        for (int d = 0; d < numStates; d++) {
+            final int nd = renumber[d];
+            if (nd == DEAD) {
+                continue;
+            }
+            accepts[nd] = accept[d];
+            for (int b = 0; b < 256; b++) {
+                final int to = table[d * 256 + b];
+                transitions[nd * 256 + b] = (to == DEAD) ? DEAD : renumber[to];
+            }
+        }
+        return new ByteAutomaton(transitions, accepts, !live[0]);
+    }
+
+    public int getNumStates() {
+        return accepts.length;
+    }
+
+    /**
+     * @return whether this automaton accepts no string
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @return the longest byte string that every accepted string starts with
+     */
+    @Nonnull
+    public byte[] getCommonPrefix() {
+        if (empty) {
+            return new byte[0];
+        }
+        byte[] prefix = new byte[16];
+        int len = 0, state = 0;
+        // a chain of single transitions cannot loop since every state reaches an accepting state
+        while (!accepts[state]) {
+            final int c = nextByte(state, Byte.MIN_VALUE);
+            if (nextByte(state, c + 1) != DEAD_BYTE) {
+                break; // more than one byte follows
+            }
+            if (len == prefix.length) {
+                prefix = Arrays.copyOf(prefix, len * 2);
+            }
+            prefix[len++] = (byte) c;
+            state = step(state, (byte) c);
+        }
+        return Arrays.copyOf(prefix, len);
+    }
+
+    /**
+     * @return the next state, or -1 if no string starting with the bytes read so far is accepted
+     */
+    public int step(final int state, final byte b) {
+        return transitions[(state << 8) | (b & 0xFF)];
+    }
+
+    public boolean isAccept(final int state) {
+        return accepts[state];
+    }
+
+    /**
+     * Tests whether the given bytes are accepted in time linear to the length without allocation.
+     */
+    public boolean run(@Nonnull final byte[] b, final int off, final int len) {
+        if (empty) {
+            return false;
+        }
+        final int[] table = transitions;
+        int state = 0;
+        for (int i = off, end = off + len; i < end; i++) {
+            state = table[(state << 8) | (b[i] & 0xFF)];
+            if (state == DEAD) {
+                return false;
+            }
+        }
+        return accepts[state];
+    }
+
+    /**
+     * Returns the smallest string greater than the given string that is a prefix of some accepted
+     * string. No accepted string lies between the given string and the returned one.
+     *
+     * @return the next candidate or null if no accepted string is greater than the given string
+     */
+    @Nullable
+    public byte[] nextCandidate(@Nonnull final byte[] b, final int off, final int len) {
+        if (empty) {
+            return null;
+        }
+        final int[] table = transitions;
+        final int[] states = new int[len + 1];
+        int state = 0, pos = 0;
+        for (; pos < len; pos++) {
+            final int next = table[(state << 8) | (b[off + pos] & 0xFF)];
+            if (next == DEAD) {
+                break;
+            }
+            states[pos] = state;
+            state = next;
+        }
+        if (pos == len) {
+            // the whole string is alive: append the smallest byte leading to a live state
+            final int c = nextByte(state, Byte.MIN_VALUE);
+            if (c != DEAD_BYTE) {
+                final byte[] dst = Arrays.copyOfRange(b, off, off + len + 1);
+                dst[len] = (byte) c;
+                return dst;
+            }
+            pos = len - 1;
+            if (pos < 0) {
+                return null;
+            }
+            state = states[pos];
+        }
+        // replace b[pos] with a greater byte, backtracking to shorter prefixes as needed
+        for (; pos >= 0; pos--) {
+            final int c = nextByte(state, b[off + pos] + 1);
+            if (c != DEAD_BYTE) {
+                final byte[] dst = Arrays.copyOfRange(b, off, off + pos + 1);
+                dst[pos] = (byte) c;
+                return dst;
+            }
+            if (pos > 0) {
+                state = states[pos - 1];
+            }
+        }
+        return null;
+    }
+
+    /** @return the smallest signed byte not less than {@code from} leading to a live state */
+    private int nextByte(final int state, final int from) {
+        final int base = state << 8;
+        for (int c = from; c <= Byte.MAX_VALUE; c++) {
+            if (transitions[base | (c & 0xFF)] != DEAD) {
+                return c;
+            }
+        }
+        return DEAD_BYTE;
+    }
+
+}
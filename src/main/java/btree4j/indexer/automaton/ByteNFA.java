@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.indexer.automaton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * A builder of nondeterministic finite automata over bytes. State 0 is the initial state.
+ * Transitions are labeled with ranges of unsigned byte values.
+ *
+ * Strings of {@link btree4j.Value} are sequences of 2 bytes big-endian chars. Helpers for chars
+ * add two byte transitions through an intermediate state.
+ */
+public final class ByteNFA {
+
+    // transitions of each state as (min, max, to) triples
+    private final List<int[]> transitions = new ArrayList<int[]>();
+    private final List<int[]> epsilons = new ArrayList<int[]>();
+    private final BitSet accepts = new BitSet();
+
+    public ByteNFA() {
+        newState(); // initial state
+    }
+
+    public int newState() {
+        transitions.add(new int[0]);
+        epsilons.add(new int[0]);
+        return transitions.size() - 1;
+    }
+
+    public int getNumStates() {
+        return transitions.size();
+    }
+
+    public void setAccept(@Nonnegative int state) {
+        accepts.set(state);
+    }
+
+    public boolean isAccept(@Nonnegative int state) {
+        return accepts.get(state);
+    }
+
+    public void addByte(int from, byte b, int to) {
+        addRange(from, b & 0xFF, b & 0xFF, to);
+    }
+
+    public void addAnyByte(int from, int to) {
+        addRange(from, 0, 0xFF, to);
+    }
+
+    /**
+     * @param min the minimum unsigned byte value (inclusive)
+     * @param max the maximum unsigned byte value (inclusive)
+     */
+    public void addRange(int from, int min, int max, int to) {
+        if (min < 0 || max > 0xFF || min > max) {
+            throw new IllegalArgumentException("Illegal byte range: [" + min + ", " + max + "]");
+        }
+        final int[] t = transitions.get(from);
+        final int[] nt = Arrays.copyOf(t, t.length + 3);
+        nt[t.length] = min;
+        nt[t.length + 1] = max;
+        nt[t.length + 2] = to;
+        transitions.set(from, nt);
+    }
+
+    public void addEpsilon(int from, int to) {
+        final int[] e = epsilons.get(from);
+        final int[] ne = Arrays.copyOf(e, e.length + 1);
+        ne[e.length] = to;
+        epsilons.set(from, ne);
+    }
+
+    public void addChar(int from, char c, int to) {
+        final int mid = newState();
+        addRange(from, c >>> 8, c >>> 8, mid);
+        addRange(mid, c & 0xFF, c & 0xFF, to);
+    }
+
+    public void addAnyChar(int from, int to) {
+        final int mid = newState();
+        addAnyByte(from, mid);
+        addAnyByte(mid, to);
+    }
+
+    /**
+     * Adds transitions for chars in {@code [min, max]}.
+     */
+    public void addCharRange(int from, char min, char max, int to) {
+        if (min > max) {
+            throw new IllegalArgumentException("Illegal char range: [" + min + ", " + max + "]");
+        }
+        final int minHi = min >>> 8, maxHi = max >>> 8;
+        if (minHi == maxHi) {
+            final int mid = newState();
+            addRange(from, minHi, minHi, mid);
+            addRange(mid, min & 0xFF, max & 0xFF, to);
+            return;
+        }
+        final int first = newState();
+        addRange(from, minHi, minHi, first);
+        addRange(first, min & 0xFF, 0xFF, to);
+        if (minHi + 1 <= maxHi - 1) {
+            final int mid = newState();
+            addRange(from, minHi + 1, maxHi - 1, mid);
+            addAnyByte(mid, to);
+        }
+        final int last = newState();
+        addRange(from, maxHi, maxHi, last);
+        addRange(last, 0, max & 0xFF, to);
+    }
+
+    @Nonnull
+    int[] getTransitions(int state) {
+        return transitions.get(state);
+    }
+
+    /** Adds the epsilon closure of the given states to the given states */
+    void closure(@Nonnull final BitSet states) {
+        final int[] stack = new int[getNumStates()];
+        int sp = 0;
+        for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+            stack[sp++] = s;
+        }
+        while (sp > 0) {
+            final int s = stack[--sp];
+            for (int to : epsilons.get(s)) {
+                if (!states.get(to)) {
+                    states.set(to);
+                    stack[sp++] = to;
+                }
+            }
+        }
+    }
+
+}
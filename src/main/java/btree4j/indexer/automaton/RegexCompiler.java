@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.indexer.automaton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Compiles a regular expression into a {@link ByteNFA} over the 2 bytes chars of
+ * {@link btree4j.Value} strings. The expression matches whole strings.
+ *
+ * Supported are literals, '.', character classes ([a-z], [^...], \d, \w, \s and their
+ * negations), groups ((...) and (?:...)), alternation '|' and the quantifiers *, +, ?, {n},
+ * {n,} and {n,m}. '^' at the beginning and '$' at the end are accepted. Backreferences and
+ * lookarounds are not supported.
+ */
+public final class RegexCompiler {
+
+    private static final int MAX_REPEAT = 1000;
+
+    private final String regex;
+    private int pos;
+
+    private RegexCompiler(@Nonnull String regex) {
+        this.regex = regex;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the regex is malformed or not supported
+     */
+    @Nonnull
+    public static ByteNFA compile(@Nonnull String regex) {
+        final RegexCompiler compiler = new RegexCompiler(regex);
+        if (regex.startsWith("^")) {
+            compiler.pos++;
+        }
+        final Node node = compiler.parseAlternation();
+        if (compiler.pos < regex.length()) {
+            throw compiler.error("Unmatched ')'");
+        }
+        final ByteNFA nfa = new ByteNFA();
+        final int[] frag = node.build(nfa);
+        nfa.addEpsilon(0, frag[0]);
+        nfa.setAccept(frag[1]);
+        return nfa;
+    }
+
+    private Node parseAlternation() {
+        final List<Node> alternatives = new ArrayList<Node>(2);
+        alternatives.add(parseConcatenation());
+        while (pos < regex.length() && regex.charAt(pos) == '|') {
+            pos++;
+            alternatives.add(parseConcatenation());
+        }
+        return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+    }
+
+    private Node parseConcatenation() {
+        final List<Node> nodes = new ArrayList<Node>();
+        while (pos < regex.length()) {
+            final char c = regex.charAt(pos);
+            if (c == '|' || c == ')') {
+                break;
+            }
+            if (c == '$' && pos == regex.length() - 1) {
+                pos++;
+                break;
+            }
+            nodes.add(parseRepetition());
+        }
+        return nodes.size() == 1 ? nodes.get(0) : new Concatenation(nodes);
+    }
+
+    private Node parseRepetition() {
+        Node node = parseAtom();
+        while (pos < regex.length()) {
+            final char c = regex.charAt(pos);
+            final int min, max;
+            if (c == '*') {
+                pos++;
+                min = 0;
+                max = -1;
+            } else if (c == '+') {
+                pos++;
+                min = 1;
+                max = -1;
+            } else if (c == '?') {
+                pos++;
+                min = 0;
+                max = 1;
+            } else if (c == '{') {
+                pos++;
+                min = parseInt();
+                if (pos < regex.length() && regex.charAt(pos) == ',') {
+                    pos++;
+                    max = (pos < regex.length() && regex.charAt(pos) == '}') ? -1 : parseInt();
+                } else {
+                    max = min;
+                }
+                expect('}');
+                if (max != -1 && max < min) {
+                    throw error("Illegal repetition range");
+                }
+                if (Math.max(min, max) > MAX_REPEAT) {
+                    throw error("Too many repetitions");
+                }
+            } else {
+                break;
+            }
+            // lazy and possessive quantifiers accept the same strings
+            if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) {
+                pos++;
+            }
+            node = new Repetition(node, min, max);
+        }
+        return node;
+    }
+
+    private Node parseAtom() {
+        final char c = regex.charAt(pos++);
+        switch (c) {
+            case '(': {
+                if (regex.startsWith("?:", pos)) {
+                    pos += 2;
+                } else if (pos < regex.length() && regex.charAt(pos) == '?') {
+                    throw error("Unsupported group construct");
+                }
+                final Node node = parseAlternation();
+                expect(')');
+                return node;
+            }
+            case '[':
+                return parseClass();
+            case '.':
+                return new CharClass(new char[] {Character.MIN_VALUE, Character.MAX_VALUE});
+            case '\\':
+                return new CharClass(parseEscape());
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw error("Dangling meta character '" + c + "'");
+            case '^':
+            case '$':
+                throw error("Anchors are only supported at the beginning and the end");
+            default:
+                return new CharClass(new char[] {c, c});
+        }
+    }
+
+    private Node parseClass() {
+        boolean negate = false;
+        if (pos < regex.length() && regex.charAt(pos) == '^') {
+            negate = true;
+            pos++;
+        }
+        char[] ranges = new char[0];
+        boolean first = true;
+        while (true) {
+            if (pos >= regex.length()) {
+                throw error("Unclosed character class");
+            }
+            char c = regex.charAt(pos++);
+            if (c == ']' && !first) {
+                break;
+            }
+            first = false;
+            final char min;
+            if (c == '\\') {
+                final char[] escaped = parseEscape();
+                if (escaped.length != 2 || escaped[0] != escaped[1]) {// \d, \w, ...
+                    ranges = union(ranges, escaped);
+                    continue;
+                }
+                min = escaped[0];
+            } else {
+                min = c;
+            }
+            char max = min;
+            if (pos + 1 < regex.length() && regex.charAt(pos) == '-'
+                    && regex.charAt(pos + 1) != ']') {
+                pos++;
+                c = regex.charAt(pos++);
+                if (c == '\\') {
+                    final char[] escaped = parseEscape();
+                    if (escaped.length != 2 || escaped[0] != escaped[1]) {
+                        throw error("Illegal character range");
+                    }
+                    max = escaped[0];
+                } else {
+                    max = c;
+                }
+                if (max < min) {
+                    throw error("Illegal character range");
+                }
+            }
+            ranges = union(ranges, new char[] {min, max});
+        }
+        return new CharClass(negate ? complement(ranges) : ranges);
+    }
+
+    /** @return the char ranges of the escape sequence after '\' */
+    private char[] parseEscape() {
+        if (pos >= regex.length()) {
+            throw error("Trailing '\\'");
+        }
+        final char c = regex.charAt(pos++);
+        switch (c) {
+            case 'd':
+                return new char[] {'0', '9'};
+            case 'D':
+                return complement(new char[] {'0', '9'});
+            case 'w':
+                return new char[] {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+            case 'W':
+                return complement(new char[] {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'});
+            case 's':
+                return new char[] {'\t', '\r', ' ', ' '};
+            case 'S':
+                return complement(new char[] {'\t', '\r', ' ', ' '});
+            case 't':
+                return new char[] {'\t', '\t'};
+            case 'n':
+                return new char[] {'\n', '\n'};
+            case 'r':
+                return new char[] {'\r', '\r'};
+            case 'f':
+                return new char[] {'\f', '\f'};
+            case 'u': {
+                if (pos + 4 > regex.length()) {
+                    throw error("Illegal unicode escape");
+                }
+                final char u;
+                try {
+                    u = (char) Integer.parseInt(regex.substring(pos, pos + 4), 16);
+                } catch (NumberFormatException e) {
+                    throw error("Illegal unicode escape");
+                }
+                pos += 4;
+                return new char[] {u, u};
+            }
+            default:
+                if (Character.isLetterOrDigit(c)) {
+                    throw error("Unsupported escape sequence '\\" + c + "'");
+                }
+                return new char[] {c, c};
+        }
+    }
+
+    private int parseInt() {
+        final int start = pos;
+        while (pos < regex.length() && Character.isDigit(regex.charAt(pos))) {
+            pos++;
+        }
+        if (start == pos || pos - start > 6) {
+            throw error("Illegal repetition");
+        }
+        return Integer.parseInt(regex.substring(start, pos));
+    }
+
+    private void expect(char c) {
+        if (pos >= regex.length() || regex.charAt(pos) != c) {
+            throw error("'" + c + "' is expected");
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " near index " + pos + ": " + regex);
+    }
+
+    /** @return the union of the sorted disjoint ranges given as (min, max) pairs */
+    private static char[] union(@Nonnull char[] a, @Nonnull char[] b) {
+        final int n = (a.length + b.length) / 2;
+        final long[] pairs = new long[n];
+        for (int i = 0; i < a.length; i += 2) {
+            pairs[i / 2] = ((long) a[i] << 16) | a[i + 1];
+        }
+        for (int i = 0; i < b.length; i += 2) {
+            pairs[(a.length + i) / 2] = ((long) b[i] << 16) | b[i + 1];
+        }
+        Arrays.sort(pairs);
+        final char[] merged = new char[n * 2];
+        int size = 0;
+        for (long pair : pairs) {
+            final char min = (char) (pair >>> 16), max = (char) pair;
+            if (size > 0 && min <= merged[size - 1] + 1) {
+                if (max > merged[size - 1]) {
+                    merged[size - 1] = max;
+                }
+            } else {
+                merged[size++] = min;
+                merged[size++] = max;
+            }
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    /** @return the complement of the sorted disjoint ranges */
+    private static char[] complement(@Nonnull char[] ranges) {
+        final char[] dst = new char[ranges.length + 2];
+        int size = 0;
+        int next = Character.MIN_VALUE;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                dst[size++] = (char) next;
+                dst[size++] = (char) (ranges[i] - 1);
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_VALUE) {
+            dst[size++] = (char) next;
+            dst[size++] = Character.MAX_VALUE;
+        }
+        return Arrays.copyOf(dst, size);
+    }
+
+    private static abstract class Node {
+
+        /** @return the start and the end states of the fragment */
+        abstract int[] build(@Nonnull ByteNFA nfa);
+    }
+
+    private static final class CharClass extends Node {
+
+        // sorted disjoint (min, max) pairs
+        private final char[] ranges;
+
+        CharClass(@Nonnull char[] ranges) {
+            this.ranges = ranges;
+        }
+
+        @Override
+        int[] build(ByteNFA nfa) {
+            final int start = nfa.newState(), end = nfa.newState();
+            for (int i = 0; i < ranges.length; i += 2) {
+                nfa.addCharRange(start, ranges[i], ranges[i + 1], end);
+            }
+            return new int[] {start, end};
+        }
+    }
+
+    private static final class Concatenation extends Node {
+
+        private final List<Node> nodes;
+
+        Concatenation(@Nonnull List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        int[] build(ByteNFA nfa) {
+            final int start = nfa.newState();
+            int end = start;
+            for (Node node : nodes) {
+                final int[] frag = node.build(nfa);
+                nfa.addEpsilon(end, frag[0]);
+                end = frag[1];
+            }
+            return new int[] {start, end};
+        }
+    }
+
+    private static final class Alternation extends Node {
+
+        private final List<Node> alternatives;
+
+        Alternation(@Nonnull List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        int[] build(ByteNFA nfa) {
+            final int start = nfa.newState(), end = nfa.newState();
+            for (Node node : alternatives) {
+                final int[] frag = node.build(nfa);
+                nfa.addEpsilon(start, frag[0]);
+                nfa.addEpsilon(frag[1], end);
+            }
+            return new int[] {start, end};
+        }
+    }
+
+    private static final class Repetition extends Node {
+
+        private final Node node;
+        private final int min, max; // max is -1 if unbounded
+
+        Repetition(@Nonnull Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        int[] build(ByteNFA nfa) {
+            final int start = nfa.newState();
+            int cur = start;
+            for (int i = 0; i < min; i++) {
+                final int[] frag = node.build(nfa);
+                nfa.addEpsilon(cur, frag[0]);
+                cur = frag[1];
+            }
+            if (max == -1) {
+                final int loop = nfa.newState();
+                final int[] frag = node.build(nfa);
+                nfa.addEpsilon(cur, loop);
+                nfa.addEpsilon(loop, frag[0]);
+                nfa.addEpsilon(frag[1], loop);
+                return new int[] {start, loop};
+            }
+            final int end = nfa.newState();
+            for (int i = min; i < max; i++) {
+                nfa.addEpsilon(cur, end);
+                final int[] frag = node.build(nfa);
+                nfa.addEpsilon(cur, frag[0]);
+                cur = frag[1];
+            }
+            nfa.addEpsilon(cur, end);
+            return new int[] {start, end};
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.indexer.automaton;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A matcher for patterns of segments separated by "any sequence" wildcards, e.g., LIKE patterns
+ * split at '%'. Each segment is matched at its leftmost occurrence, so a string is tested without
+ * backtracking over the wildcards and without allocation.
+ *
+ * Strings are sequences of units of one or more bytes (2 bytes for chars). Segments are found at
+ * unit boundaries only and a trailing partial unit is ignored.
+ *
+ * Segments without masked positions are searched by Knuth-Morris-Pratt over units, so a string of
+ * n bytes is matched in O(n + m) time for segments of m bytes in total. A segment with masked
+ * positions is tried at each unit and costs O(n * m) in the worst case.
+ */
+public final class WildcardMatcher {
+
+    private final int unit;
+    private final byte[][] segments;
+    // masks[i][j] is true if segments[i][j] matches any byte. null if no such byte.
+    private final boolean[][] masks;
+    // failures[i][k] is the length in units of the longest proper border of the first k + 1 units
+    // of segments[i]. null for segments with masked positions.
+    private final int[][] failures;
+    private final boolean anchorStart, anchorEnd;
+
+    /**
+     * @param unit the number of bytes of a unit
+     * @param segments the segments in order
+     * @param masks the positions of segments that match any byte. null elements for segments
+     *        without such positions.
+     * @param anchorStart whether the first segment must match at the beginning
+     * @param anchorEnd whether the last segment must match at the end
+     */
+    public WildcardMatcher(int unit, @Nonnull byte[][] segments, @Nonnull boolean[][] masks,
+            boolean anchorStart, boolean anchorEnd) {
+        if (unit < 1) {
+            throw new IllegalArgumentException("Illegal unit: " + unit);
+        }
+        if (segments.length != masks.length) {
+            throw new IllegalArgumentException(
+                "#segments " + segments.length + " != #masks " + masks.length);
+        }
+        for (byte[] seg : segments) {
+            if (seg.length % unit != 0) {
+                throw new IllegalArgumentException(
+                    "Segment length " + seg.length + " is not a multiple of " + unit);
+            }
+        }
+        this.unit = unit;
+        this.segments = segments;
+        this.masks = masks;
+        this.failures = new int[segments.length][];
+        for (int i = 0; i < segments.length; i++) {
+            if (masks[i] == null) {
+                failures[i] = failureOf(segments[i]);
+            }
+        }
+        this.anchorStart = anchorStart;
+        this.anchorEnd = anchorEnd;
+    }
+
+    @Nonnull
+    private int[] failureOf(@Nonnull final byte[] seg) {
+        final int m = seg.length / unit;
+        final int[] fail = new int[m];
+        for (int q = 1, k = 0; q < m; q++) {
+            while (k > 0 && !unitEquals(seg, q * unit, seg, k * unit)) {
+                k = fail[k - 1];
+            }
+            if (unitEquals(seg, q * unit, seg, k * unit)) {
+                k++;
+            }
+            fail[q] = k;
+        }
+        return fail;
+    }
+
+    public boolean match(@Nonnull final byte[] b, final int off, final int len) {
+        int pos = off;
+        int end = off + (len - len % unit);
+        final int n = segments.length;
+        if (n == 0) {
+            return !(anchorStart || anchorEnd) || pos == end;
+        }
+        int first = 0, last = n;
+        if (anchorStart) {
+            final int seglen = segments[0].length;
+            if (pos + seglen > end || !matchAt(0, b, pos)) {
+                return false;
+            }
+            pos += seglen;
+            first = 1;
+            if (n == 1 && anchorEnd) {
+                return pos == end;
+            }
+        }
+        if (anchorEnd && last > first) {
+            final int at = end - segments[n - 1].length;
+            if (at < pos || !matchAt(n - 1, b, at)) {
+                return false;
+            }
+            end = at;
+            last = n - 1;
+        }
+        for (int i = first; i < last; i++) {
+            final int found = indexOf(i, b, pos, end);
+            if (found == -1) {
+                return false;
+            }
+            pos = found + segments[i].length;
+        }
+        return true;
+    }
+
+    /** @return the leftmost position of the i-th segment in [from, to), or -1 if not found */
+    private int indexOf(final int i, @Nonnull final byte[] b, final int from, final int to) {
+        final byte[] seg = segments[i];
+        final int[] fail = failures[i];
+        if (fail == null) {
+            final int limit = to - seg.length;
+            for (int pos = from; pos <= limit; pos += unit) {
+                if (matchAt(i, b, pos)) {
+                    return pos;
+                }
+            }
+            return -1;
+        }
+        final int m = fail.length;
+        if (m == 0) {
+            return from;
+        }
+        for (int pos = from, k = 0; pos < to; pos += unit) {
+            while (k > 0 && !unitEquals(b, pos, seg, k * unit)) {
+                k = fail[k - 1];
+            }
+            if (unitEquals(b, pos, seg, k * unit)) {
+                if (++k == m) {
+                    return pos + unit - seg.length;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean unitEquals(@Nonnull final byte[] a, final int aPos, @Nonnull final byte[] b,
+            final int bPos) {
+        for (int j = 0; j < unit; j++) {
+            if (a[aPos + j] != b[bPos + j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchAt(final int i, @Nonnull final byte[] b, final int pos) {
+        final byte[] seg = segments[i];
+        final boolean[] mask = masks[i];
+        if (mask == null) {
+            for (int j = 0; j < seg.length; j++) {
+                if (b[pos + j] != seg[j]) {
+                    return false;
+                }
+            }
+        } else {
+            for (int j = 0; j < seg.length; j++) {
+                if (!mask[j] && b[pos + j] != seg[j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+}
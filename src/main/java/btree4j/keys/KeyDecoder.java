@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.keys;
+
+import static btree4j.keys.KeyEncoder.ESCAPE;
+import static btree4j.keys.KeyEncoder.ESCAPED_ZERO;
+import static btree4j.keys.KeyEncoder.TERMINATOR;
+
+import btree4j.Value;
+import btree4j.utils.io.FastByteArrayOutputStream;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decodes the columns of a key encoded by {@link KeyEncoder}. Columns must be read in the order,
+ * with the types and the {@link Order}s they were written with. A decoder can be reset to read
+ * another key without allocation.
+ */
+public final class KeyDecoder {
+
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    public KeyDecoder() {
+        this.buf = new byte[0];
+    }
+
+    public KeyDecoder(@Nonnull Value key) {
+        reset(key);
+    }
+
+    @Nonnull
+    public KeyDecoder reset(@Nonnull Value key) {
+        return reset(key.getBackingArray(), key.getPosition(), key.getLength());
+    }
+
+    @Nonnull
+    public KeyDecoder reset(@Nonnull byte[] b, int off, int len) {
+        this.buf = b;
+        this.pos = off;
+        this.limit = off + len;
+        return this;
+    }
+
+    /**
+     * @return whether more columns remain
+     */
+    public boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    public int readInt() {
+        return readInt(Order.ASC);
+    }
+
+    public int readInt(@Nonnull Order order) {
+        return readBits32(order.mask) ^ Integer.MIN_VALUE;
+    }
+
+    public long readLong() {
+        return readLong(Order.ASC);
+    }
+
+    public long readLong(@Nonnull Order order) {
+        return readBits64(order.mask) ^ Long.MIN_VALUE;
+    }
+
+    public float readFloat() {
+        return readFloat(Order.ASC);
+    }
+
+    public float readFloat(@Nonnull Order order) {
+        final int u = readBits32(order.mask);
+        return Float.intBitsToFloat(u < 0 ? u ^ Integer.MIN_VALUE : ~u);
+    }
+
+    public double readDouble() {
+        return readDouble(Order.ASC);
+    }
+
+    public double readDouble(@Nonnull Order order) {
+        final long u = readBits64(order.mask);
+        return Double.longBitsToDouble(u < 0L ? u ^ Long.MIN_VALUE : ~u);
+    }
+
+    @Nonnull
+    public String readString() {
+        return readString(Order.ASC);
+    }
+
+    @Nonnull
+    public String readString(@Nonnull Order order) {
+        final StringBuilder buf = new StringBuilder();
+        readString(buf, order);
+        return buf.toString();
+    }
+
+    /**
+     * Appends the string column to the given builder.
+     */
+    public void readString(@Nonnull StringBuilder dst, @Nonnull Order order) {
+        final int mask = order.mask;
+        int b;
+        while ((b = readEscaped(mask)) != -1) {
+            if (b < 0x80) {
+                dst.append((char) b);
+            } else if (b < 0xE0) {
+                dst.append((char) (((b & 0x1F) << 6) | readContinuation(mask)));
+            } else if (b < 0xF0) {
+                final int c1 = readContinuation(mask);
+                dst.append((char) (((b & 0x0F) << 12) | (c1 << 6) | readContinuation(mask)));
+            } else {
+                final int c1 = readContinuation(mask), c2 = readContinuation(mask);
+                final int cp = ((b & 0x07) << 18) | (c1 << 12) | (c2 << 6)
+                        | readContinuation(mask);
+                dst.append(Character.highSurrogate(cp));
+                dst.append(Character.lowSurrogate(cp));
+            }
+        }
+    }
+
+    @Nonnull
+    public byte[] readBytes() {
+        return readBytes(Order.ASC);
+    }
+
+    @Nonnull
+    public byte[] readBytes(@Nonnull Order order) {
+        final FastByteArrayOutputStream out = new FastByteArrayOutputStream(16);
+        final int mask = order.mask;
+        int b;
+        while ((b = readEscaped(mask)) != -1) {
+            out.write(b);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the next byte of a string or byte array column, or -1 at its end
+     */
+    private int readEscaped(final int mask) {
+        final int b = next(mask);
+        if (b != ESCAPE) {
+            return b;
+        }
+        final int escaped = next(mask);
+        if (escaped == ESCAPED_ZERO) {
+            return 0;
+        }
+        if (escaped == TERMINATOR) {
+            return -1;
+        }
+        throw new IllegalStateException("Illegal escape sequence at " + (pos - 1));
+    }
+
+    private int readContinuation(final int mask) {
+        final int b = next(mask);
+        if ((b & 0xC0) != 0x80) {
+            throw new IllegalStateException("Illegal UTF-8 sequence at " + (pos - 1));
+        }
+        return b & 0x3F;
+    }
+
+    private int next(final int mask) {
+        if (pos >= limit) {
+            throw new IllegalStateException("No more bytes to read");
+        }
+        return (buf[pos++] ^ mask) & 0xFF;
+    }
+
+    private int readBits32(final int mask) {
+        if (pos + 4 > limit) {
+            throw new IllegalStateException("No more bytes to read");
+        }
+        final byte[] b = buf;
+        final int p = pos;
+        this.pos = p + 4;
+        return (((b[p] ^ mask) & 0xFF) << 24) | (((b[p + 1] ^ mask) & 0xFF) << 16)
+                | (((b[p + 2] ^ mask) & 0xFF) << 8) | ((b[p + 3] ^ mask) & 0xFF);
+    }
+
+    private long readBits64(final int mask) {
+        final long hi = readBits32(mask) & 0xFFFFFFFFL;
+        return (hi << 32) | (readBits32(mask) & 0xFFFFFFFFL);
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.keys;
+
+import btree4j.Value;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Encodes columns into a key whose byte order, as compared by {@link Value#compareTo(Value)},
+ * is the order of the columns from the first one. The buffer is reused across keys, so encoding
+ * allocates nothing once it has grown large enough.
+ *
+ * <ul>
+ * <li>ints and longs are big-endian with the sign bit flipped</li>
+ * <li>floats and doubles are ordered as {@link Double#compare(double, double)}</li>
+ * <li>strings are UTF-8 ordered by code points, and byte arrays are ordered lexicographically.
+ * Both are terminated so that a column sorts before its extensions.</li>
+ * <li>a column with {@link Order#DESC} sorts in the reverse order</li>
+ * </ul>
+ *
+ * Use {@link KeyDecoder} to read the columns back in the same order and with the same types.
+ */
+public final class KeyEncoder {
+
+    // escape of 0x00 in strings and byte arrays, and the terminator (in unsigned order)
+    static final int ESCAPE = 0x00, ESCAPED_ZERO = 0xFF, TERMINATOR = 0x01;
+
+    @Nonnull
+    private byte[] buf;
+    private int len;
+
+    public KeyEncoder() {
+        this(32);
+    }
+
+    public KeyEncoder(@Nonnegative int initialCapacity) {
+        this.buf = new byte[Math.max(initialCapacity, 8)];
+    }
+
+    @Nonnull
+    public KeyEncoder reset() {
+        this.len = 0;
+        return this;
+    }
+
+    /**
+     * @return the internal buffer holding {@link #getLength()} bytes of the key
+     */
+    @Nonnull
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    public int getLength() {
+        return len;
+    }
+
+    @Nonnull
+    public Value toValue() {
+        return new Value(Arrays.copyOf(buf, len));
+    }
+
+    @Nonnull
+    public KeyEncoder writeInt(int v) {
+        return writeInt(v, Order.ASC);
+    }
+
+    @Nonnull
+    public KeyEncoder writeInt(int v, @Nonnull Order order) {
+        ensureCapacity(4);
+        writeBits32(v ^ Integer.MIN_VALUE, order.mask);
+        return this;
+    }
+
+    @Nonnull
+    public KeyEncoder writeLong(long v) {
+        return writeLong(v, Order.ASC);
+    }
+
+    @Nonnull
+    public KeyEncoder writeLong(long v, @Nonnull Order order) {
+        ensureCapacity(8);
+        writeBits64(v ^ Long.MIN_VALUE, order.mask);
+        return this;
+    }
+
+    @Nonnull
+    public KeyEncoder writeFloat(float v) {
+        return writeFloat(v, Order.ASC);
+    }
+
+    @Nonnull
+    public KeyEncoder writeFloat(float v, @Nonnull Order order) {
+        final int bits = Float.floatToIntBits(v);
+        ensureCapacity(4);
+        writeBits32(bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE, order.mask);
+        return this;
+    }
+
+    @Nonnull
+    public KeyEncoder writeDouble(double v) {
+        return writeDouble(v, Order.ASC);
+    }
+
+    @Nonnull
+    public KeyEncoder writeDouble(double v, @Nonnull Order order) {
+        final long bits = Double.doubleToLongBits(v);
+        ensureCapacity(8);
+        writeBits64(bits < 0L ? ~bits : bits ^ Long.MIN_VALUE, order.mask);
+        return this;
+    }
+
+    @Nonnull
+    public KeyEncoder writeString(@Nonnull CharSequence v) {
+        return writeString(v, Order.ASC);
+    }
+
+    @Nonnull
+    public KeyEncoder writeString(@Nonnull CharSequence v, @Nonnull Order order) {
+        final int mask = order.mask;
+        final int size = v.length();
+        ensureCapacity(size * 3 + 2);
+        for (int i = 0; i < size; i++) {
+            final char c = v.charAt(i);
+            if (c == 0) {
+                writeEscapedZero(mask);
+            } else if (c < 0x80) {
+                buf[len++] = (byte) (c ^ mask);
+            } else if (c < 0x800) {
+                buf[len++] = (byte) ((0xC0 | (c >> 6)) ^ mask);
+                buf[len++] = (byte) ((0x80 | (c & 0x3F)) ^ mask);
+            } else if (Character.isHighSurrogate(c) && i + 1 < size
+                    && Character.isLowSurrogate(v.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, v.charAt(++i));
+                buf[len++] = (byte) ((0xF0 | (cp >> 18)) ^ mask);
+                buf[len++] = (byte) ((0x80 | ((cp >> 12) & 0x3F)) ^ mask);
+                buf[len++] = (byte) ((0x80 | ((cp >> 6) & 0x3F)) ^ mask);
+                buf[len++] = (byte) ((0x80 | (cp & 0x3F)) ^ mask);
+            } else {// including unpaired surrogates
+                buf[len++] = (byte) ((0xE0 | (c >> 12)) ^ mask);
+                buf[len++] = (byte) ((0x80 | ((c >> 6) & 0x3F)) ^ mask);
+                buf[len++] = (byte) ((0x80 | (c & 0x3F)) ^ mask);
+            }
+        }
+        buf[len++] = (byte) (ESCAPE ^ mask);
+        buf[len++] = (byte) (TERMINATOR ^ mask);
+        return this;
+    }
+
+    @Nonnull
+    public KeyEncoder writeBytes(@Nonnull byte[] v) {
+        return writeBytes(v, 0, v.length, Order.ASC);
+    }
+
+    @Nonnull
+    public KeyEncoder writeBytes(@Nonnull byte[] v, int off, int size, @Nonnull Order order) {
+        final int mask = order.mask;
+        ensureCapacity(size * 2 + 2);
+        for (int i = off, end = off + size; i < end; i++) {
+            final byte b = v[i];
+            if (b == 0) {
+                writeEscapedZero(mask);
+            } else {
+                buf[len++] = (byte) (b ^ mask);
+            }
+        }
+        buf[len++] = (byte) (ESCAPE ^ mask);
+        buf[len++] = (byte) (TERMINATOR ^ mask);
+        return this;
+    }
+
+    private void writeEscapedZero(final int mask) {
+        buf[len++] = (byte) (ESCAPE ^ mask);
+        buf[len++] = (byte) (ESCAPED_ZERO ^ mask);
+    }
+
+    private void writeBits32(final int u, final int mask) {
+        final byte[] b = buf;
+        int i = len;
+        b[i++] = (byte) ((u >>> 24) ^ mask);
+        b[i++] = (byte) ((u >>> 16) ^ mask);
+        b[i++] = (byte) ((u >>> 8) ^ mask);
+        b[i++] = (byte) (u ^ mask);
+        this.len = i;
+    }
+
+    private void writeBits64(final long u, final int mask) {
+        writeBits32((int) (u >>> 32), mask);
+        writeBits32((int) u, mask);
+    }
+
+    private void ensureCapacity(final int required) {
+        if (len + required > buf.length) {
+            this.buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + required));
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.keys;
+
+import btree4j.Value;
+import btree4j.indexer.BasicIndexQuery;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A half-open range of keys, from a lower bound (inclusive) up to all keys starting with an upper
+ * prefix (inclusive). Ranges over the leading columns of keys encoded by {@link KeyEncoder} are
+ * scanned as a single contiguous range of leaves. Keys are assumed to be ordered by
+ * {@link btree4j.KeyComparator#BYTES}.
+ */
+public final class KeyRangeQuery extends BasicIndexQuery {
+
+    // keys in [from, to), or [from, +inf) if to is null
+    @Nullable
+    private final Value to;
+
+    private KeyRangeQuery(@Nonnull Value from, @Nullable Value to) {
+        super(to == null ? GE : BW, to == null ? new Value[] {from} : new Value[] {from, to});
+        this.to = to;
+    }
+
+    /**
+     * @return the keys starting with the given prefix
+     */
+    @Nonnull
+    public static KeyRangeQuery prefix(@Nonnull Value prefix) {
+        return new KeyRangeQuery(prefix, successor(prefix));
+    }
+
+    /**
+     * @return the keys starting with the encoded columns
+     */
+    @Nonnull
+    public static KeyRangeQuery prefix(@Nonnull KeyEncoder prefix) {
+        return prefix(prefix.toValue());
+    }
+
+    /**
+     * @return the keys not less than {@code from} and not greater than the keys starting with
+     *         {@code toPrefix}
+     */
+    @Nonnull
+    public static KeyRangeQuery between(@Nonnull Value from, @Nonnull Value toPrefix) {
+        return new KeyRangeQuery(from, successor(toPrefix));
+    }
+
+    @Nonnull
+    public static KeyRangeQuery between(@Nonnull KeyEncoder from, @Nonnull KeyEncoder toPrefix) {
+        return between(from.toValue(), toPrefix.toValue());
+    }
+
+    /**
+     * @return the least key greater than all keys starting with the prefix, or null if there is
+     *         no such key
+     */
+    @Nullable
+    static Value successor(@Nonnull Value prefix) {
+        final byte[] b = prefix.getBackingArray();
+        final int pos = prefix.getPosition();
+        for (int i = prefix.getLength() - 1; i >= 0; i--) {
+            if (b[pos + i] != Byte.MAX_VALUE) {
+                final byte[] succ = Arrays.copyOfRange(b, pos, pos + i + 1);
+                succ[i]++;
+                return new Value(succ);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean testValue(Value value) {
+        return compare(value, _operands[0]) >= 0 && (to == null || compare(value, to) < 0);
+    }
+
+}
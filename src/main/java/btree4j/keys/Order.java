@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.keys;
+
+/**
+ * The sort order of a column encoded by {@link KeyEncoder}.
+ */
+public enum Order {
+
+    ASC(0x80), DESC(0x7F);
+
+    /**
+     * Encoded bytes are XORed with the mask. 0x80 maps unsigned byte order to the signed byte
+     * order of {@link btree4j.Value#compareTo(btree4j.Value)}, and 0x7F also inverts it.
+     */
+    final int mask;
+
+    private Order(int mask) {
+        this.mask = mask;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.utils.collections.longs;
+
+import btree4j.utils.collections.longs.LongHash.LongLRUMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A thread-safe LRU map of long keys split into segments, each of which is an independently
+ * locked {@link LongLRUMap}. Entries are evicted in the LRU order of their segment.
+ */
+public final class ConcurrentLongLRUMap<V> {
+
+    private final LongLRUMap<V>[] segments;
+    private final int mask;
+
+    public ConcurrentLongLRUMap(int limit) {
+        this(limit, 16);
+    }
+
+    /**
+     * @param concurrencyLevel the number of segments, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongLRUMap(int limit, int concurrencyLevel) {
+        int n = 1;
+        while (n < concurrencyLevel) {
+            n <<= 1;
+        }
+        final int segmentLimit = Math.max(1, (limit + n - 1) / n);
+        this.segments = new LongLRUMap[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new LongLRUMap<V>(segmentLimit);
+        }
+        this.mask = n - 1;
+    }
+
+    private LongLRUMap<V> segmentFor(final long key) {
+        // spreads page numbers in the higher bits of pointers
+        long h = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h >>> 32) & mask];
+    }
+
+    @Nullable
+    public V get(final long key) {
+        final LongLRUMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    @Nullable
+    public V put(final long key, final V value) {
+        final LongLRUMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    @Nullable
+    public V remove(final long key) {
+        final LongLRUMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongLRUMap<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+}
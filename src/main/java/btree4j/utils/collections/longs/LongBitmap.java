@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.utils.collections.longs;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Compressed bitmap of longs in the manner of Roaring bitmaps. Values are partitioned by their
+ * high 48 bits and the low 16 bits of each partition are held by a container, either a sorted
+ * array while the partition is sparse or a 8k bitmap once it has more than {@value #ARRAY_MAX}
+ * values.
+ *
+ * Values are ordered as unsigned longs.
+ */
+public final class LongBitmap {
+
+    /** the maximum cardinality of an array container */
+    static final int ARRAY_MAX = 4096;
+
+    // sorted high 48 bits of the partitions and their containers
+    private long[] highs;
+    private Container[] containers;
+    private int size;
+
+    public LongBitmap() {
+        this(4);
+    }
+
+    private LongBitmap(int capacity) {
+        this.highs = new long[capacity];
+        this.containers = new Container[capacity];
+        this.size = 0;
+    }
+
+    public void add(final long v) {
+        final long high = v >>> 16;
+        final char low = (char) v;
+        // appending in order is the common case
+        if (size > 0 && highs[size - 1] == high) {
+            containers[size - 1] = containers[size - 1].add(low);
+            return;
+        }
+        int i = indexOf(high);
+        if (i >= 0) {
+            containers[i] = containers[i].add(low);
+        } else {
+            i = -(i + 1);
+            insert(i, high, new ArrayContainer().add(low));
+        }
+    }
+
+    public boolean contains(final long v) {
+        final int i = indexOf(v >>> 16);
+        return i >= 0 && containers[i].contains((char) v);
+    }
+
+    public long getCardinality() {
+        long card = 0L;
+        for (int i = 0; i < size; i++) {
+            card += containers[i].cardinality();
+        }
+        return card;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the values in ascending order
+     * @throws IllegalStateException if there are more than {@link Integer#MAX_VALUE} values
+     */
+    @Nonnull
+    public long[] toArray() {
+        final long card = getCardinality();
+        if (card > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many values to hold in an array: " + card);
+        }
+        final long[] dst = new long[(int) card];
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            pos = containers[i].copyTo(highs[i] << 16, dst, pos);
+        }
+        return dst;
+    }
+
+    @Nonnull
+    public LongBitmap and(@Nonnull final LongBitmap other) {
+        final LongBitmap dst = new LongBitmap(Math.max(1, Math.min(size, other.size)));
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            final int cmp = compareUnsigned(highs[i], other.highs[j]);
+            if (cmp < 0) {
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else {
+                final Container c = containers[i].and(other.containers[j]);
+                if (c.cardinality() > 0) {
+                    dst.append(highs[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return dst;
+    }
+
+    @Nonnull
+    public LongBitmap or(@Nonnull final LongBitmap other) {
+        final LongBitmap dst = new LongBitmap(Math.max(1, size + other.size));
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            final int cmp = compareUnsigned(highs[i], other.highs[j]);
+            if (cmp < 0) {
+                dst.append(highs[i], containers[i].copy());
+                i++;
+            } else if (cmp > 0) {
+                dst.append(other.highs[j], other.containers[j].copy());
+                j++;
+            } else {
+                dst.append(highs[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        for (; i < size; i++) {
+            dst.append(highs[i], containers[i].copy());
+        }
+        for (; j < other.size; j++) {
+            dst.append(other.highs[j], other.containers[j].copy());
+        }
+        return dst;
+    }
+
+    /**
+     * @return values in this bitmap but not in the other
+     */
+    @Nonnull
+    public LongBitmap andNot(@Nonnull final LongBitmap other) {
+        final LongBitmap dst = new LongBitmap(Math.max(1, size));
+        int i = 0, j = 0;
+        while (i < size) {
+            final int cmp = (j < other.size) ? compareUnsigned(highs[i], other.highs[j]) : -1;
+            if (cmp < 0) {
+                dst.append(highs[i], containers[i].copy());
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else {
+                final Container c = containers[i].andNot(other.containers[j]);
+                if (c.cardinality() > 0) {
+                    dst.append(highs[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return dst;
+    }
+
+    private int indexOf(final long high) {
+        int low = 0, hi = size - 1;
+        while (low <= hi) {
+            final int mid = (low + hi) >>> 1;
+            final int cmp = compareUnsigned(highs[mid], high);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insert(final int i, final long high, final Container c) {
+        if (size == highs.length) {
+            final int newCapacity = Math.max(4, size * 2);
+            this.highs = Arrays.copyOf(highs, newCapacity);
+            this.containers = Arrays.copyOf(containers, newCapacity);
+        }
+        System.arraycopy(highs, i, highs, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        highs[i] = high;
+        containers[i] = c;
+        size++;
+    }
+
+    private void append(final long high, final Container c) {
+        insert(size, high, c);
+    }
+
+    private static int compareUnsigned(final long x, final long y) {
+        return Long.compare(x + Long.MIN_VALUE, y + Long.MIN_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return "LongBitmap [partitions=" + size + ", cardinality=" + getCardinality() + "]";
+    }
+
+    private static abstract class Container {
+
+        /** @return this or a converted container holding the given value */
+        abstract Container add(char v);
+
+        abstract boolean contains(char v);
+
+        abstract int cardinality();
+
+        abstract int copyTo(long base, long[] dst, int pos);
+
+        abstract Container copy();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+    }
+
+    private static final class ArrayContainer extends Container {
+
+        char[] content;
+        int card;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] content, int card) {
+            this.content = content;
+            this.card = card;
+        }
+
+        @Override
+        Container add(final char v) {
+            if (card > 0 && content[card - 1] < v) {
+                if (card == ARRAY_MAX) {
+                    return toBitmap().add(v);
+                }
+                ensureCapacity(card + 1);
+                content[card++] = v;
+                return this;
+            }
+            int i = Arrays.binarySearch(content, 0, card, v);
+            if (i >= 0) {
+                return this;
+            }
+            if (card == ARRAY_MAX) {
+                return toBitmap().add(v);
+            }
+            i = -(i + 1);
+            ensureCapacity(card + 1);
+            System.arraycopy(content, i, content, i + 1, card - i);
+            content[i] = v;
+            card++;
+            return this;
+        }
+
+        private void ensureCapacity(final int min) {
+            if (min > content.length) {
+                this.content = Arrays.copyOf(content, Math.min(ARRAY_MAX, content.length * 2));
+            }
+        }
+
+        BitmapContainer toBitmap() {
+            final BitmapContainer bc = new BitmapContainer();
+            for (int i = 0; i < card; i++) {
+                bc.set(content[i]);
+            }
+            return bc;
+        }
+
+        @Override
+        boolean contains(final char v) {
+            return Arrays.binarySearch(content, 0, card, v) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        int copyTo(final long base, final long[] dst, int pos) {
+            for (int i = 0; i < card; i++) {
+                dst[pos++] = base | content[i];
+            }
+            return pos;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(content, card), card);
+        }
+
+        @Override
+        Container and(final Container other) {
+            final char[] dst = new char[card];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer ac = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < card && j < ac.card) {
+                    final char x = content[i], y = ac.content[j];
+                    if (x < y) {
+                        i++;
+                    } else if (x > y) {
+                        j++;
+                    } else {
+                        dst[n++] = x;
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < card; i++) {
+                    if (other.contains(content[i])) {
+                        dst[n++] = content[i];
+                    }
+                }
+            }
+            return new ArrayContainer(dst, n);
+        }
+
+        @Override
+        Container or(final Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            final ArrayContainer ac = (ArrayContainer) other;
+            final char[] dst = new char[card + ac.card];
+            int i = 0, j = 0, n = 0;
+            while (i < card && j < ac.card) {
+                final char x = content[i], y = ac.content[j];
+                if (x < y) {
+                    dst[n++] = x;
+                    i++;
+                } else if (x > y) {
+                    dst[n++] = y;
+                    j++;
+                } else {
+                    dst[n++] = x;
+                    i++;
+                    j++;
+                }
+            }
+            while (i < card) {
+                dst[n++] = content[i++];
+            }
+            while (j < ac.card) {
+                dst[n++] = ac.content[j++];
+            }
+            final ArrayContainer merged = new ArrayContainer(dst, n);
+            return (n > ARRAY_MAX) ? merged.toBitmap() : merged;
+        }
+
+        @Override
+        Container andNot(final Container other) {
+            final char[] dst = new char[card];
+            int n = 0;
+            for (int i = 0; i < card; i++) {
+                if (!other.contains(content[i])) {
+                    dst[n++] = content[i];
+                }
+            }
+            return new ArrayContainer(dst, n);
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+
+        final long[] bits;
+        int card;
+
+        BitmapContainer() {
+            this(new long[1024], 0);
+        }
+
+        BitmapContainer(long[] bits, int card) {
+            this.bits = bits;
+            this.card = card;
+        }
+
+        void set(final char v) {
+            final long before = bits[v >>> 6];
+            final long after = before | (1L << v);
+            bits[v >>> 6] = after;
+            if (before != after) {
+                card++;
+            }
+        }
+
+        void clear(final char v) {
+            final long before = bits[v >>> 6];
+            final long after = before & ~(1L << v);
+            bits[v >>> 6] = after;
+            if (before != after) {
+                card--;
+            }
+        }
+
+        @Override
+        Container add(final char v) {
+            set(v);
+            return this;
+        }
+
+        @Override
+        boolean contains(final char v) {
+            return (bits[v >>> 6] & (1L << v)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        int copyTo(final long base, final long[] dst, int pos) {
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    dst[pos++] = base | ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return pos;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(bits.clone(), card);
+        }
+
+        /** Converts back to an array container when sparse enough */
+        Container shrink() {
+            if (card > ARRAY_MAX) {
+                return this;
+            }
+            final char[] content = new char[card];
+            int n = 0;
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    content[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(content, n);
+        }
+
+        @Override
+        Container and(final Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            final long[] ob = ((BitmapContainer) other).bits;
+            final long[] dst = new long[bits.length];
+            int n = 0;
+            for (int w = 0; w < bits.length; w++) {
+                dst[w] = bits[w] & ob[w];
+                n += Long.bitCount(dst[w]);
+            }
+            return new BitmapContainer(dst, n).shrink();
+        }
+
+        @Override
+        Container or(final Container other) {
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer ac = (ArrayContainer) other;
+                final BitmapContainer dst = (BitmapContainer) copy();
+                for (int i = 0; i < ac.card; i++) {
+                    dst.set(ac.content[i]);
+                }
+                return dst;
+            }
+            final long[] ob = ((BitmapContainer) other).bits;
+            final long[] dst = new long[bits.length];
+            int n = 0;
+            for (int w = 0; w < bits.length; w++) {
+                dst[w] = bits[w] | ob[w];
+                n += Long.bitCount(dst[w]);
+            }
+            return new BitmapContainer(dst, n);
+        }
+
+        @Override
+        Container andNot(final Container other) {
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer ac = (ArrayContainer) other;
+                final BitmapContainer dst = (BitmapContainer) copy();
+                for (int i = 0; i < ac.card; i++) {
+                    dst.clear(ac.content[i]);
+                }
+                return dst.shrink();
+            }
+            final long[] ob = ((BitmapContainer) other).bits;
+            final long[] dst = new long[bits.length];
+            int n = 0;
+            for (int w = 0; w < bits.length; w++) {
+                dst[w] = bits[w] & ~ob[w];
+                n += Long.bitCount(dst[w]);
+            }
+            return new BitmapContainer(dst, n).shrink();
+        }
+    }
+
+}
@@ -31,7 +31,9 @@
 package btree4j.utils.lang;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Random;
 
 public final class ArrayUtils {
@@ -411,6 +413,126 @@ public final class ArrayUtils {
         return -(low + 1); // key not found.
     }
 
+    public static <T> int binarySearch(final T[] a, final int fromIndex, final int toIndex,
+            final T key, final Comparator<? super T> c) {
+        int low = fromIndex;
+        int high = toIndex - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            T midVal = a[mid];
+            int cmp = c.compare(midVal, key);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid; // key found
+            }
+        }
+        return -(low + 1); // key not found.
+    }
+
+    /**
+     * Returns the indexes of the elements in the ascending order of the elements. Equal elements
+     * keep their order in the given array.
+     */
+    public static <T extends Comparable<T>> int[] sortedIndexes(final T[] a) {
+        final int len = a.length;
+        final int[] indexes = new int[len];
+        boolean sorted = true;
+        for (int i = 0; i < len; i++) {
+            indexes[i] = i;
+            if (sorted && i > 0 && a[i - 1].compareTo(a[i]) > 0) {
+                sorted = false;
+            }
+        }
+        if (sorted) {
+            return indexes;
+        }
+        final Integer[] boxed = new Integer[len];
+        for (int i = 0; i < len; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i, Integer j) {
+                return a[i.intValue()].compareTo(a[j.intValue()]);
+            }
+        });
+        for (int i = 0; i < len; i++) {
+            indexes[i] = boxed[i].intValue();
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the indexes of the elements in the ascending order of the elements. Equal elements
+     * keep their order in the given array.
+     */
+    public static <T> int[] sortedIndexes(final T[] a, final Comparator<? super T> c) {
+        final int len = a.length;
+        final int[] indexes = new int[len];
+        boolean sorted = true;
+        for (int i = 0; i < len; i++) {
+            indexes[i] = i;
+            if (sorted && i > 0 && c.compare(a[i - 1], a[i]) > 0) {
+                sorted = false;
+            }
+        }
+        if (sorted) {
+            return indexes;
+        }
+        final Integer[] boxed = new Integer[len];
+        for (int i = 0; i < len; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i, Integer j) {
+                return c.compare(a[i.intValue()], a[j.intValue()]);
+            }
+        });
+        for (int i = 0; i < len; i++) {
+            indexes[i] = boxed[i].intValue();
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the indexes of the elements in the ascending order of the elements. Equal elements
+     * keep their order in the given array.
+     */
+    public static int[] sortedIndexes(final long[] a) {
+        final int len = a.length;
+        final int[] indexes = new int[len];
+        boolean sorted = true;
+        for (int i = 0; i < len; i++) {
+            indexes[i] = i;
+            if (sorted && i > 0 && a[i - 1] > a[i]) {
+                sorted = false;
+            }
+        }
+        if (sorted) {
+            return indexes;
+        }
+        final Integer[] boxed = new Integer[len];
+        for (int i = 0; i < len; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i, Integer j) {
+                return Long.compare(a[i.intValue()], a[j.intValue()]);
+            }
+        });
+        for (int i = 0; i < len; i++) {
+            indexes[i] = boxed[i].intValue();
+        }
+        return indexes;
+    }
+
     /**
      * Reverses the order of the given array.
      */
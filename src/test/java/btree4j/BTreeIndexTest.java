@@ -16,6 +16,7 @@
 package btree4j;
 
 import btree4j.indexer.BasicIndexQuery.IndexConditionANY;
+import btree4j.indexer.IndexQuery;
 import btree4j.utils.datetime.StopWatch;
 import btree4j.utils.io.FileUtils;
 import btree4j.utils.lang.ArrayUtils;
@@ -24,15 +25,19 @@ import btree4j.utils.lang.PrintUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -115,6 +120,926 @@ public class BTreeIndexTest {
         }
     }
 
+    @Test
+    public void testOpenLegacyHeader() throws IOException, BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestLegacy.idx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        BTreeIndex btree = new BTreeIndex(tmpFile);
+        btree.init(/* bulkload */ false);
+        for (int i = 0; i < 1000; i++) {
+            btree.addValue(new Value("k" + i), new Value("v" + i));
+        }
+        btree.flush();
+        btree.close();
+        writeLegacyHeader(tmpFile);
+
+        btree = new BTreeIndex(tmpFile);
+        btree.init(/* bulkload */ false);
+        Assert.assertEquals(0, btree.getFixedKeyWidth());
+        Assert.assertSame(KeyComparator.BYTES, btree.getKeyComparator());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(new Value("v" + i), btree.getValue(new Value("k" + i)));
+        }
+        for (int i = 1000; i < 1100; i++) {
+            btree.addValue(new Value("k" + i), new Value("v" + i));
+        }
+        btree.flush();
+        btree.close();
+
+        btree = new BTreeIndex(tmpFile);
+        btree.init(/* bulkload */ false);
+        for (int i = 0; i < 1100; i++) {
+            Assert.assertEquals(new Value("v" + i), btree.getValue(new Value("k" + i)));
+        }
+        btree.close();
+    }
+
+    @Test
+    public void testKeyComparatorAfterReopen() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestComparator.idx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        BTreeIndex btree = new BTreeIndex(tmpFile);
+        btree.setKeyComparator(KeyComparator.CASE_INSENSITIVE);
+        btree.init(/* bulkload */ false);
+        for (int i = 0; i < 1000; i++) {
+            btree.addValue(new Value("K" + i), new Value("v" + i));
+        }
+        btree.flush();
+        btree.close();
+
+        btree = new BTreeIndex(tmpFile);
+        btree.init(/* bulkload */ false);
+        Assert.assertSame(KeyComparator.CASE_INSENSITIVE, btree.getKeyComparator());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(new Value("v" + i), btree.getValue(new Value("k" + i)));
+        }
+        btree.close();
+    }
+
+    /**
+     * Rewrites the header of a closed {@link BTreeIndex} file in the layout used before the
+     * header trailer was introduced.
+     */
+    private static void writeLegacyHeader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final short fhSize = raf.readShort();
+            // pageSize, totalPageCount, firstFreePage, lastFreePage, pageHeaderSize,
+            // duplicateAllowed, rootPage, multiValue
+            raf.seek(2 + 4 + 8 + 8 + 8 + 1 + 1 + 8 + 1);
+            final int frees = raf.readInt();
+            final long end = raf.getFilePointer() + frees * 12L;
+            raf.seek(end);
+            raf.write(new byte[(int) (fhSize - end)]);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testAddValuesPutAll() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestBatch.idx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        BTreeIndex btree = new BTreeIndex(tmpFile, false);
+        btree.init(/* bulkload */ false);
+
+        final int size = 50000, batch = 5000;
+        final int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        ArrayUtils.shuffle(ids);
+        for (int from = 0; from < size; from += batch) {
+            Value[] keys = new Value[batch];
+            Value[] values = new Value[batch];
+            for (int i = 0; i < batch; i++) {
+                int id = ids[from + i];
+                keys[i] = new Value("k" + id);
+                values[i] = new Value("v" + id);
+            }
+            long[] ptrs = btree.addValues(keys, values);
+            Assert.assertEquals(batch, ptrs.length);
+        }
+        // updates existing keys and adds a key twice, where the last value wins
+        Value[] keys = new Value[] {new Value("k10"), new Value("new"), new Value("k20"),
+                new Value("new")};
+        Value[] values = new Value[] {new Value("v10_u"), new Value("new1"), new Value("v20_u"),
+                new Value("new2")};
+        long[] ptrs = btree.putAll(keys, values);
+        Assert.assertEquals(ptrs[1], ptrs[3]);
+
+        btree.flush(true, true);
+        btree.close();
+
+        btree = new BTreeIndex(tmpFile, false);
+        btree.init(/* bulkload */ false);
+        for (int i = 0; i < size; i++) {
+            Value expected = new Value((i == 10 || i == 20) ? "v" + i + "_u" : "v" + i);
+            Assert.assertEquals(expected, btree.getValue(new Value("k" + i)));
+        }
+        Assert.assertEquals(new Value("new2"), btree.getValue(new Value("new")));
+
+        Value[] queries = new Value[size + 1];
+        for (int i = 0; i < size; i++) {
+            queries[i] = new Value("k" + ids[i]);
+        }
+        queries[size] = new Value("missing");
+        byte[][] results = btree.getValues(queries);
+        Assert.assertEquals(queries.length, results.length);
+        for (int i = 0; i < size; i++) {
+            Assert.assertArrayEquals(btree.getValueBytes(queries[i]), results[i]);
+        }
+        Assert.assertNull(results[size]);
+        btree.close();
+    }
+
+    @Test
+    public void testBTreeIndexDupAddValues() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestBatch.bmidx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        BTreeIndexDup btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+
+        final Random rand = new Random(31L);
+        final int[] counts = new int[100];
+        for (int n = 0; n < 10; n++) {
+            Value[] keys = new Value[1000];
+            Value[] values = new Value[1000];
+            for (int i = 0; i < 1000; i++) {
+                int k = rand.nextInt(counts.length);
+                counts[k]++;
+                keys[i] = new Value("k" + k);
+                values[i] = new Value("v" + k + "_" + (n * 1000 + i));
+            }
+            btree.addValues(keys, values);
+        }
+        final int[] actual = new int[counts.length];
+        btree.search(new IndexConditionANY(), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                String v = new Value(value).toString();
+                Assert.assertTrue(v, v.startsWith("v" + key.toString().substring(1) + "_"));
+                actual[Integer.parseInt(key.toString().substring(1))]++;
+                return true;
+            }
+        });
+        Assert.assertArrayEquals(counts, actual);
+
+        Arrays.fill(actual, 0);
+        btree.search(new IndexConditionANY(), new BTreeBatchCallback() {
+            @Override
+            public boolean indexInfo(Value[] keys, long[] pointers, int from, int to) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean indexInfo(Value[] keys, byte[][] values, int from, int to) {
+                for (int i = from; i < to; i++) {
+                    String v = new Value(values[i]).toString();
+                    String k = keys[i].toString().substring(1);
+                    Assert.assertTrue(v, v.startsWith("v" + k + "_"));
+                    actual[Integer.parseInt(k)]++;
+                }
+                return true;
+            }
+        });
+        Assert.assertArrayEquals(counts, actual);
+        btree.close();
+    }
+
+    @Test
+    public void testBTreeIndexDupHotKey() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestHotKey.bmidx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        BTreeIndexDup btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+
+        // values of various sizes fill free spaces of former pages in a random order
+        final Random rand = new Random(47L);
+        final Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int i = 0; i < 5000; i++) {
+            String v = i + "_" + repeat(rand.nextInt(1500));
+            btree.addValue(new Value("hot"), new Value(v));
+            btree.addValue(new Value("cold" + (i % 10)), new Value(v));
+            expected.put(v, 2);
+        }
+        assertValues(btree, expected);
+        btree.flush(true, true);
+        btree.close();
+
+        btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+        assertValues(btree, expected);
+        // appends to the lists loaded from the file
+        for (int i = 5000; i < 5500; i++) {
+            String v = i + "_" + repeat(rand.nextInt(1500));
+            btree.addValue(new Value("hot"), new Value(v));
+            expected.put(v, 1);
+        }
+        assertValues(btree, expected);
+        btree.close();
+    }
+
+    @Test
+    public void testOpenLegacyBTreeIndexDup() throws IOException, BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestLegacy.bmidx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        // posting lists of the former layout [used:int, free:int, pointers...]
+        BTreeIndex legacy = new BTreeIndex(tmpFile, false);
+        legacy.getFileHeader().setMultiValue(true);
+        legacy.init(/* bulkload */ false);
+        final Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int k = 0; k < 10; k++) {
+            final int used = 100 * k + 1;
+            final byte[] list = new byte[8 + used * 8];
+            Primitives.putInt(list, 0, used);
+            for (int i = 0; i < used; i++) {
+                String v = "v" + k + "_" + i;
+                Primitives.putLong(list, 8 + i * 8, legacy.storeValue(new Value(v)));
+                expected.put(v, 1);
+            }
+            legacy.addValue(new Value("k" + k), legacy.storeValue(new Value(list)));
+        }
+        legacy.flush();
+        legacy.close();
+        writeLegacyHeader(tmpFile);
+
+        BTreeIndexDup btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+        Assert.assertEquals(0, btree.getInlineThreshold());
+        assertValues(btree, expected);
+        for (int k = 0; k < 10; k++) {
+            String v = "v" + k + "_new";
+            btree.addValue(new Value("k" + k), new Value(v));
+            expected.put(v, 1);
+        }
+        assertValues(btree, expected);
+        btree.flush();
+        btree.close();
+
+        btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+        assertValues(btree, expected);
+        btree.close();
+    }
+
+    @Test
+    public void testBTreeIndexDupRemoveFreesValues() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestRemove.bmidx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        BTreeIndexDup btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+
+        final Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            btree.addValue(new Value("keep"), new Value("keep" + i));
+            expected.put("keep" + i, 1);
+        }
+        btree.addValue(new Value[] {new Value("keep"), new Value("tmp")}, new Value("shared"));
+        expected.put("shared", 1);
+        long pages = 0L;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 2000; i++) {
+                btree.addValue(new Value("tmp"), new Value(round + "_" + i + repeat(50)));
+            }
+            Assert.assertEquals(round == 0 ? 2001 : 2000, btree.remove(new Value("tmp")).length);
+            if (round == 0) {
+                pages = btree.getFileHeader().getTotalPageCount();
+            }
+        }
+        // pages of the freed values are reused
+        Assert.assertTrue(btree.getFileHeader().getTotalPageCount() < pages * 2);
+        assertValues(btree, expected);
+        btree.addValue(new Value("tmp"), new Value("tmp"));
+        expected.put("tmp", 1);
+        btree.flush();
+        btree.close();
+
+        btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+        assertValues(btree, expected);
+        btree.close();
+    }
+
+    @Test
+    public void testBTreeIndexDupConcurrentAdd() throws BTreeException, InterruptedException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestConcurrent.bmidx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        final BTreeIndexDup btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+
+        final int numThreads = 8, perThread = 3000;
+        final Map<String, Integer> expected = new HashMap<String, Integer>();
+        final Thread[] threads = new Thread[numThreads];
+        final Throwable[] errors = new Throwable[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int tid = t;
+            for (int i = 0; i < perThread; i++) {
+                expected.put("v" + tid + "_" + i, 1);
+            }
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            btree.addValue(new Value("k" + (i % 50)),
+                                new Value("v" + tid + "_" + i));
+                        }
+                    } catch (Throwable e) {
+                        errors[tid] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Throwable e : errors) {
+            Assert.assertNull(e);
+        }
+        assertValues(btree, expected);
+        btree.close();
+    }
+
+    @Test
+    public void testBTreeIndexDupConcurrentRemove() throws BTreeException, InterruptedException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestConcurrentRemove.bmidx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        final BTreeIndexDup btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+
+        // every value added is either removed with the key or remains under the key
+        final int numThreads = 4, perThread = 3000;
+        final Value key = new Value("k");
+        final Map<String, Integer> expected = new HashMap<String, Integer>();
+        final Map<String, Integer> removed = new HashMap<String, Integer>();
+        final Thread[] threads = new Thread[numThreads + 1];
+        final Throwable[] errors = new Throwable[numThreads + 1];
+        final AtomicInteger running = new AtomicInteger(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            final int tid = t;
+            for (int i = 0; i < perThread; i++) {
+                expected.put("v" + tid + "_" + i, 1);
+            }
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            btree.addValue(key, new Value("v" + tid + "_" + i));
+                        }
+                    } catch (Throwable e) {
+                        errors[tid] = e;
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            };
+        }
+        threads[numThreads] = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (running.get() > 0) {
+                        countValues(btree.remove(key), removed);
+                    }
+                } catch (Throwable e) {
+                    errors[numThreads] = e;
+                }
+            }
+        };
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Throwable e : errors) {
+            Assert.assertNull(e);
+        }
+        countValues(btree.remove(key), removed);
+        Assert.assertEquals(expected, removed);
+        Assert.assertNull(btree.remove(key));
+        btree.close();
+    }
+
+    private static void countValues(byte[][] values, Map<String, Integer> counts) {
+        if (values == null) {
+            return;
+        }
+        for (byte[] v : values) {
+            String s = new Value(v).toString();
+            Integer cnt = counts.get(s);
+            counts.put(s, (cnt == null) ? 1 : cnt + 1);
+        }
+    }
+
+    @Test
+    public void testIntersectUnion() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestIntersect.bmidx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        final BTreeIndexDup btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+
+        // doc i contains the terms "t2" if i % 2 == 0, "t3" if i % 3 == 0, and so on
+        final int[] divisors = {2, 3, 5, 97};
+        for (int i = 0; i < 20000; i++) {
+            List<Value> terms = new ArrayList<Value>();
+            for (int d : divisors) {
+                if (i % d == 0) {
+                    terms.add(new Value("t" + d));
+                }
+            }
+            if (!terms.isEmpty()) {
+                btree.addValue(terms.toArray(new Value[terms.size()]), new Value("doc" + i));
+            }
+        }
+        Set<String> and = new HashSet<String>(), or = new HashSet<String>();
+        for (int i = 0; i < 20000; i++) {
+            if (i % 3 == 0 && i % 97 == 0 && i % 2 == 0) {
+                and.add("doc" + i);
+            }
+            if (i % 5 == 0 || i % 97 == 0) {
+                or.add("doc" + i);
+            }
+        }
+        Assert.assertEquals(and,
+            toSet(btree.intersect(new Value("t2"), new Value("t97"), new Value("t3"))));
+        byte[][] unioned = btree.union(new Value("t5"), new Value("t97"));
+        Assert.assertEquals(or.size(), unioned.length);
+        Assert.assertEquals(or, toSet(unioned));
+        Assert.assertEquals(0, btree.intersect(new Value("t2"), new Value("t7")).length);
+
+        // equal values added by separate calls are matched by their bytes
+        for (int i = 0; i < 3000; i++) {
+            if (i % 2 == 0) {
+                btree.addValue(new Value("p2"), new Value("doc" + i));
+            }
+            if (i % 3 == 0) {
+                btree.addValue(new Value("p3"), new Value("doc" + i));
+            }
+        }
+        btree.addValue(new Value[] {new Value("p2"), new Value("p3")}, new Value("shared"));
+        btree.addValue(new Value("p2"), new Value("doc0"));
+        Set<String> both = new HashSet<String>();
+        for (int i = 0; i < 3000; i += 6) {
+            both.add("doc" + i);
+        }
+        both.add("shared");
+        byte[][] intersected = btree.intersect(new Value("p2"), new Value("p3"));
+        Assert.assertEquals(both.size(), intersected.length);
+        Assert.assertEquals(both, toSet(intersected));
+        Assert.assertEquals(2001, btree.union(new Value("p2"), new Value("p3")).length);
+        Set<String> mixed = new HashSet<String>();
+        for (int i = 0; i < 3000; i += 6 * 97) {
+            mixed.add("doc" + i);
+        }
+        Assert.assertEquals(mixed,
+            toSet(btree.intersect(new Value("t2"), new Value("p3"), new Value("t97"))));
+        btree.close();
+    }
+
+    private static Set<String> toSet(byte[][] values) {
+        Set<String> set = new HashSet<String>();
+        for (byte[] v : values) {
+            set.add(new Value(v).toString());
+        }
+        return set;
+    }
+
+    @Test
+    public void testPageOrderedSearch() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestPageOrdered.idx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        BTreeIndex btree = new BTreeIndex(tmpFile, false);
+        btree.init(/* bulkload */ false);
+        final Random rand = new Random(53L);
+        for (int i = 0; i < 20000; i++) {
+            int k = rand.nextInt(1000000);
+            btree.addValue(new Value(String.format("k%07d", k)), new Value("v" + k));
+        }
+        btree.flush(true, true);
+
+        final List<String> expected = new ArrayList<String>();
+        final IndexQuery query = new IndexConditionANY();
+        btree.search(query, new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                expected.add(key + "=" + new Value(value));
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, long pointer) {
+                throw new UnsupportedOperationException();
+            }
+        });
+
+        final List<String> keyOrder = new ArrayList<String>();
+        btree.search(query, 100, true, new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                keyOrder.add(key + "=" + new Value(value));
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, long pointer) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Assert.assertEquals(expected, keyOrder);
+
+        final List<String> pageOrder = new ArrayList<String>();
+        btree.search(query, 100, false, new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                pageOrder.add(key + "=" + new Value(value));
+                return pageOrder.size() < 150;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, long pointer) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Assert.assertEquals(150, pageOrder.size());
+        Assert.assertNotEquals(expected.subList(0, 100), pageOrder.subList(0, 100));
+        Assert.assertEquals(new HashSet<String>(expected.subList(0, 100)),
+            new HashSet<String>(pageOrder.subList(0, 100)));
+        btree.close();
+    }
+
+    @Test
+    public void testClusteredIndex() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestClustered.idx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        BTreeIndex btree = new BTreeIndex(tmpFile, false);
+        btree.setInlineThreshold(32);
+        btree.init(/* bulkload */ false);
+        final SortedMap<String, String> expected = new TreeMap<String, String>();
+        final Random rand = new Random(59L);
+        for (int i = 0; i < 20000; i++) {
+            int k = rand.nextInt(1000000);
+            String key = String.format("k%07d", k);
+            // every 10th value goes to data pages
+            String value = (k % 10 == 0) ? repeat(100) + k : "v" + k;
+            // inline values have no record pointers
+            long ptr = btree.putValue(new Value(key), new Value(value));
+            Assert.assertEquals(value.length() <= 32, ptr == BTree.INLINE_VALUE);
+            expected.put(key, value);
+        }
+        // inline values growing beyond the threshold and the other way around
+        int i = 0;
+        for (Entry<String, String> e : expected.entrySet()) {
+            if (++i % 7 == 0) {
+                String value = (e.getValue().length() > 32) ? "w" + i : repeat(64) + i;
+                btree.putValue(new Value(e.getKey()), new Value(value));
+                e.setValue(value);
+            }
+        }
+        assertClustered(btree, expected);
+
+        btree.flush(true, true);
+        btree.close();
+        btree = new BTreeIndex(tmpFile, false);
+        btree.init(/* bulkload */ false);
+        Assert.assertEquals(32, btree.getInlineThreshold());
+        assertClustered(btree, expected);
+
+        final List<String> removed = new ArrayList<String>();
+        for (String key : expected.keySet()) {
+            if (++i % 5 == 0) {
+                removed.add(key);
+            }
+        }
+        for (String key : removed) {
+            Assert.assertNotNull(btree.remove(new Value(key)));
+            expected.remove(key);
+        }
+        assertClustered(btree, expected);
+        btree.close();
+    }
+
+    private static void assertClustered(BTreeIndex btree, SortedMap<String, String> expected)
+            throws BTreeException {
+        final Value[] keys = new Value[expected.size()];
+        int i = 0, numInline = 0;
+        for (Entry<String, String> e : expected.entrySet()) {
+            final Value key = new Value(e.getKey());
+            Assert.assertEquals(e.getValue(), new Value(btree.getValueBytes(key)).toString());
+            Assert.assertTrue(btree.containsKey(key));
+            // values updated to shrink stay in data pages
+            if (btree.findValue(key) == BTree.INLINE_VALUE) {
+                Assert.assertTrue(e.getValue().length() <= 32);
+                numInline++;
+            }
+            keys[i++] = key;
+        }
+        Assert.assertEquals(BTree.KEY_NOT_FOUND, btree.findValue(new Value("missing")));
+        final int[] reported = new int[1];
+        btree.searchKeys(new IndexConditionANY(), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value key, long pointer) {
+                if (pointer == BTree.INLINE_VALUE) {
+                    reported[0]++;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Assert.assertTrue(numInline > 0);
+        Assert.assertEquals(numInline, reported[0]);
+        final byte[][] values = btree.getValues(keys);
+        i = 0;
+        for (String value : expected.values()) {
+            Assert.assertEquals(value, new Value(values[i++]).toString());
+        }
+        final List<String> scanned = new ArrayList<String>();
+        btree.search(new IndexConditionANY(), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                scanned.add(key + "=" + new Value(value));
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, long pointer) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        final List<String> entries = new ArrayList<String>();
+        for (Entry<String, String> e : expected.entrySet()) {
+            entries.add(e.getKey() + "=" + e.getValue());
+        }
+        Assert.assertEquals(entries, scanned);
+    }
+
+    private static String repeat(int n) {
+        char[] c = new char[n];
+        Arrays.fill(c, 'x');
+        return new String(c);
+    }
+
+    private static void assertValues(BTreeIndexDup btree, Map<String, Integer> expected)
+            throws BTreeException {
+        final Map<String, Integer> actual = new HashMap<String, Integer>();
+        btree.search(new IndexConditionANY(), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                String v = new Value(value).toString();
+                Integer cnt = actual.get(v);
+                actual.put(v, (cnt == null) ? 1 : cnt + 1);
+                return true;
+            }
+        });
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testSearchWithValuePredicate() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestPredicate.idx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        BTreeIndex btree = new BTreeIndex(tmpFile, false);
+        btree.init(/* bulkload */ false);
+
+        final int size = 20000;
+        final Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < size; i++) {
+            String v = (i % 7 == 0 ? "x" : "v") + i;
+            if (i % 7 == 0) {
+                expected.add(v);
+            }
+            btree.addValue(new Value("k" + i), new Value(v));
+        }
+        // values starting with 'x' (2 bytes big-endian char)
+        final ValuePredicate predicate = new ValuePredicate() {
+            @Override
+            public boolean test(Value key, byte[] data, int offset, int length) {
+                return length >= 2 && data[offset] == 0 && data[offset + 1] == 'x';
+            }
+        };
+        final Set<String> actual = new HashSet<String>();
+        final BTreeCallback callback = new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                String v = new Value(value).toString();
+                Assert.assertEquals(key.toString().substring(1), v.substring(1));
+                Assert.assertTrue(actual.add(v));
+                return true;
+            }
+        };
+        // values in memory
+        btree.search(new IndexConditionANY(), predicate, callback);
+        Assert.assertEquals(expected, actual);
+
+        // values read from pages
+        btree.flush(true, true);
+        actual.clear();
+        btree.search(new IndexConditionANY(), predicate, callback);
+        Assert.assertEquals(expected, actual);
+
+        // rewrites pages holding unretrieved values
+        btree.putValue(new Value("k1"), new Value("x1"));
+        expected.add("x1");
+        btree.flush(true, true);
+        btree.close();
+        btree = new BTreeIndex(tmpFile, false);
+        btree.init(/* bulkload */ false);
+        actual.clear();
+        btree.search(new IndexConditionANY(), predicate, callback);
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(new Value("v2"), btree.getValue(new Value("k2")));
+        btree.close();
+    }
+
+    @Test
+    public void testSearchKeys() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestKeys.bmidx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        final BTreeIndexDup btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+        for (int i = 0; i < 10000; i++) {
+            btree.addValue(new Value("k" + (i % 1000)), new Value("v" + i));
+        }
+        btree.flush(true, true);
+
+        final Set<String> keys = new HashSet<String>();
+        btree.searchKeys(new IndexConditionANY(), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value key, long pointer) {
+                try {
+                    Assert.assertEquals(btree.findValue(key), pointer);
+                } catch (BTreeException e) {
+                    throw new IllegalStateException(e);
+                }
+                Assert.assertTrue(keys.add(key.toString()));
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Assert.assertEquals(1000, keys.size());
+        Assert.assertTrue(keys.contains("k999"));
+        Assert.assertTrue(btree.containsKey(new Value("k0")));
+        Assert.assertFalse(btree.containsKey(new Value("k1000")));
+        btree.close();
+    }
+
+    @Test
+    public void testSearchViews() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BIndexFileTestViews.bmidx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+        final BTreeIndexDup btree = new BTreeIndexDup(tmpFile);
+        btree.init(/* bulkload */ false);
+        for (int i = 0; i < 10000; i++) {
+            btree.addValue(new Value("k" + (i % 1000)), new Value("v" + i));
+        }
+        btree.flush(true, true);
+
+        final Map<String, Integer> expected = new HashMap<String, Integer>();
+        btree.search(new IndexConditionANY(), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                String kv = key + "=" + new Value(value);
+                Integer cnt = expected.get(kv);
+                expected.put(kv, (cnt == null) ? 1 : cnt + 1);
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, long pointer) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Assert.assertEquals(10000, expected.size());
+
+        final ValueView[] view = new ValueView[1];
+        final Map<String, Integer> actual = new HashMap<String, Integer>();
+        btree.searchViews(new IndexConditionANY(), new BTreeViewCallback() {
+            @Override
+            public boolean indexInfo(Value key, ValueView value) {
+                if (view[0] == null) {
+                    view[0] = value;
+                }
+                Assert.assertSame(view[0], value); // reused
+                String kv = key + "=" + value;
+                Integer cnt = actual.get(kv);
+                actual.put(kv, (cnt == null) ? 1 : cnt + 1);
+                return true;
+            }
+        });
+        Assert.assertEquals(expected, actual);
+
+        final int[] seen = new int[1];
+        btree.searchViews(new IndexConditionANY(), new BTreeViewCallback() {
+            @Override
+            public boolean indexInfo(Value key, ValueView value) {
+                return ++seen[0] < 5;
+            }
+        });
+        Assert.assertEquals(5, seen[0]);
+        btree.close();
+    }
+
     @Test
     public void testBTreeIndexDup() throws IOException, BTreeException {
         File tmpDir = FileUtils.getTempDir();
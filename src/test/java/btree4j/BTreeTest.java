@@ -15,15 +15,45 @@
  */
 package btree4j;
 
+import btree4j.SplitPolicy.RightmostInsertSplitPolicy;
+import btree4j.indexer.BTreeIndexer;
+import btree4j.indexer.BasicIndexQuery;
+import btree4j.indexer.BasicIndexQuery.IndexConditionANY;
 import btree4j.indexer.BasicIndexQuery.IndexConditionBW;
+import btree4j.indexer.BasicIndexQuery.IndexConditionBWX;
+import btree4j.indexer.BasicIndexQuery.IndexConditionEQ;
+import btree4j.indexer.BasicIndexQuery.IndexConditionGE;
+import btree4j.indexer.BasicIndexQuery.IndexConditionGT;
+import btree4j.indexer.BasicIndexQuery.IndexConditionIN;
+import btree4j.indexer.BasicIndexQuery.IndexConditionLE;
+import btree4j.indexer.BasicIndexQuery.IndexConditionLT;
+import btree4j.indexer.BasicIndexQuery.IndexConditionNBW;
+import btree4j.indexer.BasicIndexQuery.IndexConditionNE;
+import btree4j.indexer.BasicIndexQuery.IndexConditionSW;
+import btree4j.indexer.ByteLikeIndexQuery;
+import btree4j.indexer.FuzzyIndexQuery;
+import btree4j.indexer.IndexExpression;
+import btree4j.indexer.IndexMatch;
+import btree4j.indexer.IndexQuery;
+import btree4j.indexer.LikeIndexQuery;
+import btree4j.indexer.RegexIndexQuery;
+import btree4j.utils.collections.longs.LongBitmap;
 import btree4j.utils.io.FileUtils;
+import btree4j.utils.lang.ArrayUtils;
 import btree4j.utils.lang.PrintUtils;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -73,6 +103,787 @@ public class BTreeTest {
             });
     }
 
+    @Test
+    public void testFixedKeyWidth() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File tmpFile = new File(tmpDir, "BTreeTestFixed.idx");
+        tmpFile.deleteOnExit();
+        if (tmpFile.exists()) {
+            Assert.assertTrue(tmpFile.delete());
+        }
+
+        BTree btree = new BTree(tmpFile, false);
+        btree.setFixedKeyWidth(8);
+        btree.init(/* bulkload */ false);
+
+        final int size = 200000;
+        final Object[] ids = new Object[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = Long.valueOf(i * 3L);
+        }
+        ArrayUtils.shuffle(ids, 31L);
+        for (Object id : ids) {
+            long l = ((Long) id).longValue();
+            btree.addValue(new Value(l), l);
+        }
+        for (int i = 0; i < size; i++) {
+            long l = i * 3L;
+            Assert.assertEquals(l, btree.findValue(new Value(l)));
+            Assert.assertEquals(BTree.KEY_NOT_FOUND, btree.findValue(new Value(l + 1L)));
+        }
+        btree.flush(true, true);
+        btree.close();
+
+        btree = new BTree(tmpFile, false);
+        btree.init(false);
+        Assert.assertEquals(8, btree.getFixedKeyWidth());
+        for (int i = 0; i < size; i += 7) {
+            long l = i * 3L;
+            Assert.assertEquals(l, btree.findValue(new Value(l)));
+        }
+        final Value from = new Value(3000L), to = new Value(6000L);
+        final int[] count = new int[1];
+        btree.search(new IndexConditionBW(from, to), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                Assert.assertTrue(value.compareTo(from) >= 0 && value.compareTo(to) <= 0);
+                count[0]++;
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        int expected = 0;
+        for (int i = 0; i < size; i++) {
+            Value v = new Value(i * 3L);
+            if (v.compareTo(from) >= 0 && v.compareTo(to) <= 0) {
+                expected++;
+            }
+        }
+        Assert.assertEquals(expected, count[0]);
+        btree.close();
+    }
+
+    @Test
+    public void testRightmostInsertSplitPolicy() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File halfFile = new File(tmpDir, "BTreeTestHalfSplit.idx");
+        File rightmostFile = new File(tmpDir, "BTreeTestRightmostSplit.idx");
+
+        insertSequentialKeys(halfFile, SplitPolicy.HALF, 100000);
+        insertSequentialKeys(rightmostFile, new RightmostInsertSplitPolicy(), 100000);
+        println("File size of half split: " + PrintUtils.prettyFileSize(halfFile)
+                + ", rightmost insert split: " + PrintUtils.prettyFileSize(rightmostFile));
+        Assert.assertTrue(rightmostFile.length() < halfFile.length());
+    }
+
+    private static void insertSequentialKeys(File file, SplitPolicy policy, int size)
+            throws BTreeException {
+        file.deleteOnExit();
+        if (file.exists()) {
+            Assert.assertTrue(file.delete());
+        }
+        BTree btree = new BTree(file, false);
+        btree.init(false);
+        btree.setSplitPolicy(policy);
+        for (int i = 0; i < size; i++) {
+            btree.addValue(new Value(String.format("%08d", i)), i);
+        }
+        // random inserts into the packed nodes
+        for (int i = 0; i < size; i += 10) {
+            btree.addValue(new Value(String.format("%08d", i) + "_"), size + i);
+        }
+        for (int i = 0; i < size; i++) {
+            Assert.assertEquals(i, btree.findValue(new Value(String.format("%08d", i))));
+        }
+        for (int i = 0; i < size; i += 10) {
+            Assert.assertEquals(size + i,
+                btree.findValue(new Value(String.format("%08d", i) + "_")));
+        }
+        btree.flush(true, true);
+        btree.close();
+    }
+
+    @Test
+    public void testAppendWithDuplicates() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File indexFile = new File(tmpDir, "BTreeTestAppend.idx");
+        indexFile.deleteOnExit();
+        if (indexFile.exists()) {
+            Assert.assertTrue(indexFile.delete());
+        }
+
+        BTree btree = new BTree(indexFile, true);
+        btree.init(false);
+        final int size = 200000;
+        for (int i = 0; i < size; i++) {
+            btree.addValue(new Value(String.format("%08d", i / 3)), i);
+            if (i % 1000 == 0) {// goes back to a leaf on the left
+                btree.addValue(new Value(String.format("%08d", i / 7) + "_"), i);
+            }
+        }
+        for (int i = 0; i < size; i += 3) {
+            Assert.assertEquals(i, btree.findValue(new Value(String.format("%08d", i / 3))));
+        }
+        for (int i = 0; i < size; i += 1000) {
+            Assert.assertEquals(i, btree.findValue(new Value(String.format("%08d", i / 7) + "_")));
+        }
+        final int[] count = new int[1];
+        btree.search(new IndexConditionANY(), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                count[0]++;
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Assert.assertEquals(size + size / 1000, count[0]);
+        btree.close();
+    }
+
+    @Test
+    public void testInQuery() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        for (boolean dupAllowed : new boolean[] {false, true}) {
+            File indexFile = new File(tmpDir, "BTreeTestIn.idx");
+            indexFile.deleteOnExit();
+            if (indexFile.exists()) {
+                Assert.assertTrue(indexFile.delete());
+            }
+            BTree btree = new BTree(indexFile, dupAllowed);
+            btree.init(false);
+            final int size = 100000, copies = dupAllowed ? 2 : 1;
+            for (int c = 0; c < copies; c++) {
+                for (int i = 0; i < size; i += 2) {// even ids only
+                    btree.addValue(new Value(String.format("%08d", i)), i);
+                }
+            }
+
+            // sparse operands are looked up one by one
+            final Random rand = new Random(43L);
+            final Value[] sparse = new Value[50];
+            final Map<Value, Long> expected = new HashMap<>();
+            for (int i = 0; i < sparse.length; i++) {
+                int id = rand.nextInt(size);
+                sparse[i] = new Value(String.format("%08d", id));
+                if (id % 2 == 0) {
+                    expected.put(sparse[i], Long.valueOf(id));
+                }
+            }
+            Arrays.sort(sparse);
+            assertIn(btree, sparse, expected, copies);
+            // operands may be given in any order
+            Collections.reverse(Arrays.asList(sparse));
+            assertIn(btree, sparse, expected, copies);
+
+            // dense operands are scanned
+            final Value[] dense = new Value[300];
+            expected.clear();
+            for (int i = 0; i < dense.length; i++) {
+                int id = 50000 + i;
+                dense[i] = new Value(String.format("%08d", id));
+                if (id % 2 == 0) {
+                    expected.put(dense[i], Long.valueOf(id));
+                }
+            }
+            assertIn(btree, dense, expected, copies);
+            Collections.reverse(Arrays.asList(dense));
+            assertIn(btree, dense, expected, copies);
+            btree.close();
+        }
+    }
+
+    private static void assertIn(BTree btree, Value[] operands, final Map<Value, Long> expected,
+            final int copies) throws BTreeException {
+        final Map<Value, Integer> actual = new HashMap<>();
+        btree.search(new IndexConditionIN(operands), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                Assert.assertEquals(expected.get(value), Long.valueOf(pointer));
+                Integer cnt = actual.get(value);
+                actual.put(value, cnt == null ? 1 : cnt.intValue() + 1);
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (Integer cnt : actual.values()) {
+            Assert.assertEquals(copies, cnt.intValue());
+        }
+    }
+
+    @Test
+    public void testAggregates() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        for (boolean dupAllowed : new boolean[] {false, true}) {
+            File indexFile = new File(tmpDir, "BTreeTestAggregates.idx");
+            indexFile.deleteOnExit();
+            if (indexFile.exists()) {
+                Assert.assertTrue(indexFile.delete());
+            }
+            BTree btree = new BTree(indexFile, dupAllowed);
+            btree.init(false);
+            Assert.assertNull(btree.firstKey());
+            Assert.assertNull(btree.lastKey());
+            Assert.assertEquals(0L, btree.countRange(new IndexConditionANY()));
+
+            final int size = 100000, copies = dupAllowed ? 3 : 1;
+            final List<Value> sorted = new ArrayList<Value>();
+            for (int c = 0; c < copies; c++) {
+                for (int i = 0; i < size; i += 2) {// even ids only
+                    btree.addValue(key(i), i);
+                    sorted.add(key(i));
+                }
+            }
+            Collections.sort(sorted);
+            final TreeSet<Value> set = new TreeSet<Value>(sorted);
+            Assert.assertEquals(key(0), btree.firstKey());
+            Assert.assertEquals(key(size - 2), btree.lastKey());
+
+            final Random rand = new Random(47L);
+            for (int n = 0; n < 50; n++) {
+                final int lo = rand.nextInt(size + 10) - 5;
+                final int hi = lo + rand.nextInt(n % 2 == 0 ? 20 : size);
+                final Value k1 = key(lo), k2 = key(hi);
+                Assert.assertEquals(set.floor(k1), btree.floor(k1));
+                Assert.assertEquals(set.ceiling(k1), btree.ceiling(k1));
+                for (BasicIndexQuery query : new BasicIndexQuery[] {new IndexConditionANY(),
+                        new IndexConditionEQ(k1), new IndexConditionNE(k1),
+                        new IndexConditionGT(k1), new IndexConditionGE(k1),
+                        new IndexConditionLT(k1), new IndexConditionLE(k1),
+                        new IndexConditionBW(k1, k2), new IndexConditionBWX(k1, k2),
+                        new IndexConditionBW(k2, k1), new IndexConditionNBW(k1, k2),
+                        new IndexConditionSW(prefix(k1, 12))}) {
+                    long expected = 0;
+                    for (Value k : sorted) {
+                        if (query.testValue(k)) {
+                            expected++;
+                        }
+                    }
+                    Assert.assertEquals("op=" + query.getOperator(), expected,
+                        btree.countRange(query));
+                }
+            }
+            btree.close();
+        }
+    }
+
+    @Test
+    public void testPagedSearch() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        for (boolean dupAllowed : new boolean[] {false, true}) {
+            File indexFile = new File(tmpDir, "BTreeTestPaged.idx");
+            indexFile.deleteOnExit();
+            if (indexFile.exists()) {
+                Assert.assertTrue(indexFile.delete());
+            }
+            BTree btree = new BTree(indexFile, dupAllowed);
+            btree.init(false);
+            final int size = 60000, copies = dupAllowed ? 3 : 1;
+            final List<Value> sorted = new ArrayList<Value>();
+            for (int c = 0; c < copies; c++) {
+                for (int i = 0; i < size; i += 2) {
+                    btree.addValue(key(i), c * size + i);
+                    sorted.add(key(i));
+                }
+            }
+            Collections.sort(sorted);
+
+            final Random rand = new Random(53L);
+            for (int n = 0; n < 10; n++) {
+                final int lo = rand.nextInt(size), hi = lo + rand.nextInt(size / 2);
+                final Value k1 = key(lo), k2 = key(hi);
+                for (BasicIndexQuery query : new BasicIndexQuery[] {new IndexConditionANY(),
+                        new IndexConditionEQ(k1), new IndexConditionNE(k1),
+                        new IndexConditionGT(k1), new IndexConditionLE(k1),
+                        new IndexConditionBW(k1, k2), new IndexConditionBWX(k1, k2),
+                        new IndexConditionIN(new Value[] {k1, key(lo + 2), k2}),
+                        new IndexConditionSW(prefix(k1, 12)),
+                        new LikeIndexQuery(new Value(""), "%1_")}) {
+                    final List<Value> expected = new ArrayList<Value>();
+                    for (Value k : sorted) {
+                        if (query.testValue(k)) {
+                            expected.add(k);
+                        }
+                    }
+                    // a single page
+                    final List<Long> all = new ArrayList<Long>();
+                    Assert.assertNull(btree.search(query, null, 0, Integer.MAX_VALUE,
+                        collect(new ArrayList<Value>(), all)));
+                    Assert.assertEquals(expected.size(), all.size());
+
+                    // offset and limit
+                    final int offset = rand.nextInt(expected.size() + 1);
+                    final List<Value> keys = new ArrayList<Value>();
+                    final List<Long> ptrs = new ArrayList<Long>();
+                    btree.search(query, null, offset, 50, collect(keys, ptrs));
+                    final int end = Math.min(offset + 50, expected.size());
+                    Assert.assertEquals(expected.subList(offset, end), keys);
+                    Assert.assertEquals(all.subList(offset, end), ptrs);
+
+                    // pages resumed by tokens
+                    keys.clear();
+                    ptrs.clear();
+                    ContinuationToken token = null;
+                    do {
+                        final int before = keys.size();
+                        token = btree.search(query, token, 0, 7, collect(keys, ptrs));
+                        if (token != null) {
+                            Assert.assertEquals(before + 7, keys.size());
+                            token = ContinuationToken.fromBytes(token.toBytes());
+                        }
+                    } while (token != null);
+                    Assert.assertEquals(expected, keys);
+                    Assert.assertEquals(all, ptrs);
+                }
+            }
+
+            // a callback returning false cancels the search
+            final int[] count = new int[1];
+            btree.search(new IndexConditionANY(), new BTreeCallback() {
+                @Override
+                public boolean indexInfo(Value value, long pointer) {
+                    return ++count[0] < 10;
+                }
+
+                @Override
+                public boolean indexInfo(Value key, byte[] value) {
+                    throw new UnsupportedOperationException();
+                }
+            });
+            Assert.assertEquals(10, count[0]);
+            btree.close();
+        }
+    }
+
+    @Test
+    public void testBatchCallback() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File indexFile = new File(tmpDir, "BTreeTestBatchCallback.idx");
+        indexFile.deleteOnExit();
+        if (indexFile.exists()) {
+            Assert.assertTrue(indexFile.delete());
+        }
+        BTree btree = new BTree(indexFile, true);
+        btree.init(false);
+        final int size = 60000;
+        final List<Value> sorted = new ArrayList<Value>();
+        for (int c = 0; c < 2; c++) {
+            for (int i = 0; i < size; i += 2) {
+                btree.addValue(key(i), i);
+                sorted.add(key(i));
+            }
+        }
+        Collections.sort(sorted);
+
+        final Value k1 = key(10001), k2 = key(40000);
+        for (BasicIndexQuery query : new BasicIndexQuery[] {new IndexConditionANY(),
+                new IndexConditionEQ(k2), new IndexConditionNE(k2), new IndexConditionGT(k1),
+                new IndexConditionLE(k1), new IndexConditionLT(k2), new IndexConditionBW(k1, k2),
+                new IndexConditionNBW(k1, k2), new IndexConditionSW(prefix(k1, 12)),
+                new IndexConditionIN(new Value[] {key(2), k1, k2}),
+                new LikeIndexQuery(new Value(""), "%1_")}) {
+            final List<Value> expected = new ArrayList<Value>();
+            for (Value k : sorted) {
+                if (query.testValue(k)) {
+                    expected.add(k);
+                }
+            }
+            final List<Value> actual = new ArrayList<Value>();
+            btree.search(query, new BTreeBatchCallback() {
+                @Override
+                public boolean indexInfo(Value[] keys, long[] pointers, int from, int to) {
+                    Assert.assertTrue(from < to);
+                    for (int i = from; i < to; i++) {
+                        Assert.assertEquals(keys[i], key((int) pointers[i]));
+                        actual.add(keys[i]);
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean indexInfo(Value[] keys, byte[][] values, int from, int to) {
+                    throw new UnsupportedOperationException();
+                }
+            });
+            Assert.assertEquals("op=" + query.getOperator(), expected, actual);
+        }
+        btree.close();
+    }
+
+    private static BTreeCallback collect(final List<Value> keys, final List<Long> ptrs) {
+        return new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                keys.add(value);
+                ptrs.add(pointer);
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static Value key(int i) {
+        return new Value(String.format("%08d", i));
+    }
+
+    private static Value prefix(Value v, int len) {
+        return new Value(Arrays.copyOf(v.getData(), len));
+    }
+
+    @Test
+    public void testKeyComparator() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File indexFile = new File(tmpDir, "BTreeTestComparator.idx");
+        indexFile.deleteOnExit();
+        if (indexFile.exists()) {
+            Assert.assertTrue(indexFile.delete());
+        }
+        BTree btree = new BTree(indexFile, false);
+        btree.setKeyComparator(KeyComparator.LITTLE_ENDIAN_INTEGER);
+        btree.init(false);
+        final Random rand = new Random(37L);
+        final int[] values = new int[20000];
+        final TreeSet<Integer> distinct = new TreeSet<>();
+        for (int i = 0; i < values.length; i++) {
+            do {
+                values[i] = rand.nextInt();
+            } while (!distinct.add(values[i]));
+            btree.addValue(littleEndian(values[i]), values[i] & 0xFFFFFFFFL);
+        }
+        btree.flush(true, true);
+        btree.close();
+
+        // the comparator is looked up by the name recorded in the file
+        btree = new BTree(indexFile, false);
+        btree.init(false);
+        Assert.assertSame(KeyComparator.LITTLE_ENDIAN_INTEGER, btree.getKeyComparator());
+        Arrays.sort(values);
+        final List<Long> actual = new ArrayList<>();
+        final BTreeCallback collector = new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                actual.add(pointer);
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        btree.search(new IndexConditionANY(), collector);
+        Assert.assertEquals(values.length, actual.size());
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertEquals(values[i], (int) actual.get(i).longValue());
+        }
+        actual.clear();
+        btree.search(new IndexConditionBW(littleEndian(-1000000), littleEndian(1000000)),
+            collector);
+        final List<Long> expected = new ArrayList<>();
+        for (int v : values) {
+            if (v >= -1000000 && v <= 1000000) {
+                expected.add(v & 0xFFFFFFFFL);
+            }
+        }
+        Assert.assertEquals(expected, actual);
+        for (int i = 0; i < values.length; i += 7) {
+            Assert.assertEquals(values[i] & 0xFFFFFFFFL, btree.findValue(littleEndian(values[i])));
+        }
+        btree.close();
+
+        Assert.assertTrue(indexFile.delete());
+        btree = new BTree(indexFile, false);
+        btree.setKeyComparator(KeyComparator.CASE_INSENSITIVE);
+        btree.init(false);
+        final String[] names = new String[] {"alice", "Bob", "carol", "DAVE", "Alicia", "bobby"};
+        for (int i = 0; i < names.length; i++) {
+            btree.addValue(new Value(names[i]), i);
+        }
+        Assert.assertEquals(3, btree.findValue(new Value("dave")));
+        Assert.assertEquals(4, btree.findValue(new Value("ALICIA")));
+        actual.clear();
+        btree.search(new IndexConditionANY(), collector);
+        Assert.assertEquals(Arrays.asList(0L, 4L, 1L, 5L, 2L, 3L), actual);
+        actual.clear();
+        btree.search(new IndexConditionSW(new Value("b")), collector);
+        Assert.assertEquals(Arrays.asList(5L), actual);
+        // the query of the caller keeps comparing bytes
+        final IndexConditionBW bw = new IndexConditionBW(new Value("carol"), new Value("dave"));
+        actual.clear();
+        btree.search(bw, collector);
+        Assert.assertEquals(Arrays.asList(2L, 3L), actual);
+        Assert.assertEquals(2L, btree.countRange(bw));
+        Assert.assertFalse(bw.testValue(new Value("DAVE")));
+        btree.close();
+    }
+
+    private static Value littleEndian(int v) {
+        return new Value(new byte[] {(byte) v, (byte) (v >>> 8), (byte) (v >>> 16),
+                (byte) (v >>> 24)});
+    }
+
+    @Test
+    public void testLikeSkipScan() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File indexFile = new File(tmpDir, "BTreeTestLike.idx");
+        indexFile.deleteOnExit();
+        if (indexFile.exists()) {
+            Assert.assertTrue(indexFile.delete());
+        }
+        BTree btree = new BTree(indexFile, false);
+        btree.init(false);
+        final List<Value> allKeys = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            for (int j = 0; j < 200; j += 3) {
+                Value key = new Value(String.format("%04d-%03d", i, j));
+                btree.addValue(key, i * 1000 + j);
+                allKeys.add(key);
+            }
+        }
+        final String[][] patterns = new String[][] {{"", "____-042"}, {"", "00_5-%"},
+                {"01", "%-1_2"}, {"", "%9"}, {"0123-", "%"}, {"0123-", ""}, {"", "%2%1%"},
+                {"", "0299-198"}, {"", "x%"}};
+        for (String[] ptn : patterns) {
+            final LikeIndexQuery query = new LikeIndexQuery(new Value(ptn[0]), ptn[1]);
+            final List<Value> expected = new ArrayList<>();
+            for (Value k : allKeys) {
+                if (query.testValue(k)) {
+                    expected.add(k);
+                }
+            }
+            final List<Value> actual = new ArrayList<>();
+            btree.search(query, new BTreeCallback() {
+                @Override
+                public boolean indexInfo(Value value, long pointer) {
+                    actual.add(value);
+                    return true;
+                }
+
+                @Override
+                public boolean indexInfo(Value key, byte[] value) {
+                    throw new UnsupportedOperationException();
+                }
+            });
+            Assert.assertEquals(query.toString(), expected, actual);
+        }
+        btree.close();
+    }
+
+    @Test
+    public void testRegexQuery() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File indexFile = new File(tmpDir, "BTreeTestRegex.idx");
+        indexFile.deleteOnExit();
+        if (indexFile.exists()) {
+            Assert.assertTrue(indexFile.delete());
+        }
+        BTree btree = new BTree(indexFile, false);
+        btree.init(false);
+        final List<String> allKeys = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            for (int j = 0; j < 200; j += 3) {
+                String key = String.format("%04d-%03d", i, j);
+                btree.addValue(new Value(key), i * 1000 + j);
+                allKeys.add(key);
+            }
+        }
+        Assert.assertEquals(new Value("0012-"), new RegexIndexQuery("0012-.*").getOperand(0));
+        // "00" and the high byte of '1' and '2'
+        Assert.assertEquals(5, new RegexIndexQuery("00(1|2)\\d-0+").getOperand(0).getLength());
+        final String[] regexes = new String[] {"0012-.*", "(0001|0150)-0[0-9]3", "\\d{3}7-1.*",
+                "[^0].*-(?:099|102)", ".*", "x+", "00(1|2)\\d-00[36]", "^0{2}[2-3]+.-..9$",
+                "0299-198", "[0-2]\\d\\d[05]-0+[1-9]?"};
+        for (String regex : regexes) {
+            final RegexIndexQuery query = new RegexIndexQuery(regex);
+            final Pattern pattern = Pattern.compile(regex);
+            final List<Value> expected = new ArrayList<>();
+            for (String k : allKeys) {
+                if (pattern.matcher(k).matches()) {
+                    expected.add(new Value(k));
+                }
+            }
+            final List<Value> actual = new ArrayList<>();
+            btree.search(query, new BTreeCallback() {
+                @Override
+                public boolean indexInfo(Value value, long pointer) {
+                    actual.add(value);
+                    return true;
+                }
+
+                @Override
+                public boolean indexInfo(Value key, byte[] value) {
+                    throw new UnsupportedOperationException();
+                }
+            });
+            Assert.assertEquals(regex, expected, actual);
+        }
+        btree.close();
+    }
+
+    @Test
+    public void testFuzzyQuery() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File indexFile = new File(tmpDir, "BTreeTestFuzzy.idx");
+        indexFile.deleteOnExit();
+        if (indexFile.exists()) {
+            Assert.assertTrue(indexFile.delete());
+        }
+        BTree btree = new BTree(indexFile, false);
+        btree.init(false);
+        final Random rand = new Random(41L);
+        final TreeSet<String> allKeys = new TreeSet<>();
+        while (allKeys.size() < 30000) {
+            final StringBuilder buf = new StringBuilder();
+            for (int len = 3 + rand.nextInt(6); len > 0; len--) {
+                buf.append((char) ('a' + rand.nextInt(6)));
+            }
+            if (allKeys.add(buf.toString())) {
+                btree.addValue(new Value(buf.toString()), allKeys.size());
+            }
+        }
+        final Object[][] queries = new Object[][] {{"abcde", 1, 0}, {"abcde", 2, 1},
+                {"face", 0, 0}, {"fedcba", 2, 2}, {"", 1, 0}, {"bad", 1, 5}, {"\u3042", 2, 0}};
+        for (Object[] q : queries) {
+            final String term = (String) q[0];
+            final int maxEdits = (Integer) q[1], prefixLength = (Integer) q[2];
+            final FuzzyIndexQuery query =
+                    new FuzzyIndexQuery(new Value(term), maxEdits, prefixLength);
+            final String prefix = term.substring(0, Math.min(prefixLength, term.length()));
+            final List<Value> expected = new ArrayList<>();
+            for (String k : allKeys) {
+                if (k.startsWith(prefix) && editDistance(k.substring(prefix.length()),
+                    term.substring(prefix.length())) <= maxEdits) {
+                    expected.add(new Value(k));
+                }
+            }
+            final List<Value> actual = new ArrayList<>();
+            btree.search(query, new BTreeCallback() {
+                @Override
+                public boolean indexInfo(Value value, long pointer) {
+                    actual.add(value);
+                    return true;
+                }
+
+                @Override
+                public boolean indexInfo(Value key, byte[] value) {
+                    throw new UnsupportedOperationException();
+                }
+            });
+            Assert.assertEquals(query.toString(), expected, actual);
+        }
+        btree.close();
+    }
+
+    private static int editDistance(String s, String t) {
+        final int[][] d = new int[s.length() + 1][t.length() + 1];
+        for (int i = 0; i <= s.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= t.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= s.length(); i++) {
+            for (int j = 1; j <= t.length(); j++) {
+                final int cost = s.charAt(i - 1) == t.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                    d[i - 1][j - 1] + cost);
+            }
+        }
+        return d[s.length()][t.length()];
+    }
+
+    @Test
+    public void testLikeMatch() {
+        final Random rand = new Random(31L);
+        final String[] patterns = new String[] {"", "%", "a%", "%a", "%ab%", "a_b%", "%b_a",
+                "%a%b%a%", "_%_", "ab", "%a" + repeat('_', 12) + "b%", "%%a%%",
+                "%" + repeat('_', 9) + "a" + repeat('_', 9),
+                "%a" + repeat('_', 12) + "b%aab%abab%"};
+        for (String ptn : patterns) {
+            for (String prefix : new String[] {"", "b"}) {
+                final LikeIndexQuery like = new LikeIndexQuery(new Value(prefix), ptn);
+                final ByteLikeIndexQuery byteLike = new ByteLikeIndexQuery(
+                    new Value(prefix.getBytes(StandardCharsets.US_ASCII)),
+                    ptn.replace('_', '?').getBytes(StandardCharsets.US_ASCII), (byte) '%');
+                for (int i = 0; i < 2000; i++) {
+                    final StringBuilder buf = new StringBuilder();
+                    for (int len = rand.nextInt(30); len > 0; len--) {
+                        buf.append((char) ('a' + rand.nextInt(2)));
+                    }
+                    final String s = buf.toString();
+                    // an empty pattern is a prefix match
+                    final boolean expected = s.startsWith(prefix) && (ptn.isEmpty()
+                            || likeMatch(s.substring(prefix.length()), ptn, '_'));
+                    Assert.assertEquals(like + " for " + s, expected,
+                        like.testValue(new Value(s)));
+                    // a view in the middle of a larger array
+                    final byte[] b = new Value("x" + s + "y").getData();
+                    Assert.assertEquals(like + " for " + s, expected,
+                        like.testValue(new Value(b, 2, b.length - 4)));
+
+                    final byte[] ascii = s.getBytes(StandardCharsets.US_ASCII);
+                    final boolean byteExpected = s.startsWith(prefix) && (ptn.isEmpty()
+                            || likeMatch(s.substring(prefix.length()), ptn.replace('_', '?'), '\0'));
+                    Assert.assertEquals(byteLike + " for " + s, byteExpected,
+                        byteLike.testValue(new Value(ascii)));
+                }
+            }
+        }
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /** reference implementation by dynamic programming */
+    private static boolean likeMatch(String s, String ptn, char one) {
+        final boolean[][] dp = new boolean[s.length() + 1][ptn.length() + 1];
+        dp[0][0] = true;
+        for (int j = 1; j <= ptn.length(); j++) {
+            dp[0][j] = dp[0][j - 1] && ptn.charAt(j - 1) == '%';
+        }
+        for (int i = 1; i <= s.length(); i++) {
+            for (int j = 1; j <= ptn.length(); j++) {
+                final char p = ptn.charAt(j - 1);
+                if (p == '%') {
+                    dp[i][j] = dp[i][j - 1] || dp[i - 1][j];
+                } else {
+                    dp[i][j] = dp[i - 1][j - 1] && (p == one || p == s.charAt(i - 1));
+                }
+            }
+        }
+        return dp[s.length()][ptn.length()];
+    }
+
     @Test
     public void test10m() throws BTreeException {
         File tmpDir = FileUtils.getTempDir();
@@ -121,6 +932,110 @@ public class BTreeTest {
         }
     }
 
+    @Test
+    public void testBitmapMatch() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File indexFile = new File(tmpDir, "testBitmapMatch.idx");
+        indexFile.deleteOnExit();
+        if (indexFile.exists()) {
+            Assert.assertTrue(indexFile.delete());
+        }
+        BTreeIndexer indexer = new BTreeIndexer("test", indexFile, false);
+        for (int i = 0; i < 10000; i++) {
+            indexer.add(key(i).getData(), (i * 7919L) % 100003L);
+        }
+        IndexQuery query = new IndexConditionGE(key(2500));
+        IndexMatch arrayMatch = indexer.find(query);
+        IndexMatch bitmapMatch = indexer.findBitmap(query);
+        Assert.assertTrue(bitmapMatch.isBitmap());
+        Assert.assertEquals(7500, bitmapMatch.countMatched());
+        Assert.assertArrayEquals(arrayMatch.getMatchedSorted(), bitmapMatch.getMatchedSorted());
+        indexer.close();
+
+        // sparse and dense partitions
+        final Random rand = new Random(43);
+        final TreeSet<Long> set1 = new TreeSet<Long>(), set2 = new TreeSet<Long>();
+        final LongBitmap bm1 = new LongBitmap(), bm2 = new LongBitmap();
+        for (int i = 0; i < 200000; i++) {
+            long v1 = (i < 100000) ? rand.nextInt(70000) : rand.nextLong() >>> 20;
+            long v2 = (i < 100000) ? rand.nextInt(140000) : (rand.nextInt(100) << 16);
+            set1.add(v1);
+            bm1.add(v1);
+            set2.add(v2);
+            bm2.add(v2);
+        }
+        Assert.assertEquals(set1.size(), bm1.getCardinality());
+        Assert.assertTrue(bm1.contains(set1.first()));
+        IndexMatch m1 = new IndexMatch(bm1), m2 = new IndexMatch(bm2);
+
+        TreeSet<Long> expected = new TreeSet<Long>(set1);
+        expected.retainAll(set2);
+        Assert.assertArrayEquals(toArray(expected), m1.and(m2).getMatchedSorted());
+        expected = new TreeSet<Long>(set1);
+        expected.addAll(set2);
+        Assert.assertArrayEquals(toArray(expected), m1.or(m2).getMatchedSorted());
+        expected = new TreeSet<Long>(set1);
+        expected.removeAll(set2);
+        Assert.assertArrayEquals(toArray(expected), m1.andNot(m2).getMatchedSorted());
+        Assert.assertEquals(expected.size(), m1.andNot(m2).countMatched());
+    }
+
+    @Test
+    public void testIndexExpression() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        BTreeIndexer[] indexers = new BTreeIndexer[2];
+        for (int i = 0; i < indexers.length; i++) {
+            File file = new File(tmpDir, "testIndexExpression" + i + ".idx");
+            file.deleteOnExit();
+            if (file.exists()) {
+                Assert.assertTrue(file.delete());
+            }
+            indexers[i] = new BTreeIndexer("attr" + i, file, false);
+        }
+        // attr0 = row % 100, attr1 = row % 7
+        for (int row = 0; row < 20000; row++) {
+            indexers[0].add(key(row % 100).getData(), row);
+            indexers[1].add(key(row % 7).getData(), row);
+        }
+        IndexExpression a = IndexExpression.leaf(indexers[0], new IndexConditionLT(key(3)));
+        IndexExpression b = IndexExpression.leaf(indexers[1], new IndexConditionEQ(key(2)));
+        Assert.assertEquals(600L, a.estimate());
+
+        TreeSet<Long> and = new TreeSet<Long>(), or = new TreeSet<Long>();
+        TreeSet<Long> andNot = new TreeSet<Long>();
+        for (long row = 0; row < 20000; row++) {
+            boolean ma = row % 100 < 3, mb = row % 7 == 2;
+            if (ma && mb) {
+                and.add(row);
+            }
+            if (ma || mb) {
+                or.add(row);
+            }
+            if (mb && !ma) {
+                andNot.add(row);
+            }
+        }
+        Assert.assertArrayEquals(toArray(and),
+            IndexExpression.and(b, a).execute().getMatchedSorted());
+        Assert.assertArrayEquals(toArray(or),
+            IndexExpression.or(a, b).execute().getMatchedSorted());
+        Assert.assertArrayEquals(toArray(andNot),
+            IndexExpression.and(IndexExpression.not(a), b).execute().getMatchedSorted());
+        for (BTreeIndexer indexer : indexers) {
+            indexer.close();
+        }
+    }
+
+    private static long[] toArray(TreeSet<Long> set) {
+        long[] a = new long[set.size()];
+        int i = 0;
+        for (Long v : set) {
+            a[i++] = v.longValue();
+        }
+        return a;
+    }
+
     private static void println(String msg) {
         if (DEBUG) {
             System.out.println(msg);
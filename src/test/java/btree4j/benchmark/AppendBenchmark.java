@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.benchmark;
+
+import btree4j.BTree;
+import btree4j.BTreeException;
+import btree4j.Value;
+import btree4j.utils.io.FileUtils;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares inserting increasing keys, which take the append fast path of {@link BTree}, with
+ * inserting keys in random order, which descend from the root.
+ */
+@State(Scope.Thread)
+public class AppendBenchmark {
+
+    private static final int KEYS_PER_INVOCATION = 100000;
+
+    @Param({"sequential", "random"})
+    public String order;
+
+    private File file;
+    private BTree btree;
+    private long seq;
+    private Random rand;
+
+    @Setup(Level.Iteration)
+    public void setup() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        this.file = new File(tmpDir, "AppendBenchmark.idx");
+        file.deleteOnExit();
+        if (file.exists()) {
+            Assert.assertTrue(file.delete());
+        }
+        this.btree = new BTree(file, false);
+        btree.init(/* bulkload */ false);
+        this.seq = 0L;
+        this.rand = new Random(43L);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws BTreeException {
+        btree.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS_PER_INVOCATION)
+    public void benchInsert() throws BTreeException {
+        final boolean sequential = "sequential".equals(order);
+        for (int i = 0; i < KEYS_PER_INVOCATION; i++) {
+            long id = seq++;
+            long k = sequential ? id : (rand.nextLong() & Long.MAX_VALUE);
+            btree.addValue(new Value(String.format("%019d", k)), id);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(AppendBenchmark.class.getSimpleName())
+                                          .forks(1)
+                                          .warmupIterations(3)
+                                          .measurementIterations(5)
+                                          .mode(Mode.Throughput)
+                                          .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.benchmark;
+
+import btree4j.BTreeException;
+import btree4j.BTreeIndex;
+import btree4j.Value;
+import btree4j.utils.io.FileUtils;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link BTreeIndex#addValues(Value[], Value[])} with calling
+ * {@link BTreeIndex#addValue(Value, Value)} for each key of a batch in random order.
+ */
+@State(Scope.Thread)
+public class BatchInsertBenchmark {
+
+    @Param({"1000", "100000"})
+    public int batchSize;
+
+    private File file;
+    private BTreeIndex btree;
+    private Random rand;
+
+    private Value[] keys;
+    private Value[] values;
+
+    @Setup(Level.Iteration)
+    public void setup() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        this.file = new File(tmpDir, "BatchInsertBenchmark.idx");
+        file.deleteOnExit();
+        if (file.exists()) {
+            Assert.assertTrue(file.delete());
+        }
+        this.btree = new BTreeIndex(file, false);
+        btree.init(/* bulkload */ false);
+        this.rand = new Random(43L);
+        this.keys = new Value[batchSize];
+        this.values = new Value[batchSize];
+    }
+
+    @Setup(Level.Invocation)
+    public void nextBatch() {
+        for (int i = 0; i < batchSize; i++) {
+            long k = rand.nextLong() & Long.MAX_VALUE;
+            keys[i] = new Value(String.format("%019d", k));
+            values[i] = new Value("value-" + k);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws BTreeException {
+        btree.close();
+    }
+
+    @Benchmark
+    public void benchAddValue() throws BTreeException {
+        for (int i = 0; i < batchSize; i++) {
+            btree.addValue(keys[i], values[i]);
+        }
+    }
+
+    @Benchmark
+    public long[] benchAddValues() throws BTreeException {
+        return btree.addValues(keys, values);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(BatchInsertBenchmark.class.getSimpleName())
+                                          .forks(1)
+                                          .warmupIterations(3)
+                                          .measurementIterations(5)
+                                          .mode(Mode.Throughput)
+                                          .build();
+
+        new Runner(opt).run();
+    }
+}
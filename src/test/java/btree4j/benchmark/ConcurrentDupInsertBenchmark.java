@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.benchmark;
+
+import btree4j.BTreeException;
+import btree4j.BTreeIndexDup;
+import btree4j.Value;
+import btree4j.utils.io.FileUtils;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Inserts duplicates of a few hundred keys into a shared {@link BTreeIndexDup} from 16 threads.
+ */
+@State(Scope.Benchmark)
+public class ConcurrentDupInsertBenchmark {
+
+    @Param({"16", "1024"})
+    public int numKeys;
+
+    private File file;
+    private BTreeIndexDup btree;
+
+    @Setup(Level.Iteration)
+    public void setup() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        this.file = new File(tmpDir, "ConcurrentDupInsertBenchmark.idx");
+        file.deleteOnExit();
+        if (file.exists()) {
+            Assert.assertTrue(file.delete());
+        }
+        this.btree = new BTreeIndexDup(file);
+        btree.init(/* bulkload */ false);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws BTreeException {
+        btree.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Random rand = new Random(Thread.currentThread().getId());
+        long seq = 0L;
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long benchAddValue(ThreadState ts) throws BTreeException {
+        Value key = new Value("key-" + ts.rand.nextInt(numKeys));
+        Value value = new Value("value-" + Thread.currentThread().getId() + '-' + (ts.seq++));
+        return btree.addValue(key, value);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt =
+                new OptionsBuilder().include(ConcurrentDupInsertBenchmark.class.getSimpleName())
+                                    .forks(1)
+                                    .warmupIterations(3)
+                                    .measurementIterations(5)
+                                    .mode(Mode.Throughput)
+                                    .build();
+
+        new Runner(opt).run();
+    }
+}
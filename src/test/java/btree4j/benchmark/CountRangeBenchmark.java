@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.benchmark;
+
+import btree4j.BTree;
+import btree4j.BTreeCallback;
+import btree4j.BTreeException;
+import btree4j.Value;
+import btree4j.indexer.BasicIndexQuery.IndexConditionANY;
+import btree4j.indexer.BasicIndexQuery.IndexConditionBW;
+import btree4j.indexer.IndexQuery;
+import btree4j.utils.io.FileUtils;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Counts keys in ranges over 10M keys with {@link BTree#countRange(IndexQuery)} and with a
+ * callback, and finds the maximum key with {@link BTree#lastKey()} and with a full scan.
+ */
+@State(Scope.Benchmark)
+public class CountRangeBenchmark {
+
+    private static final int NUM_KEYS = 10000000;
+    private static final int BATCH = 10000;
+
+    @Param({"1000", "100000", "5000000"})
+    public int width;
+
+    private File file;
+    private BTree btree;
+    private IndexQuery range;
+
+    @Setup(Level.Trial)
+    public void setup() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        this.file = new File(tmpDir, "CountRangeBenchmark.idx");
+        file.deleteOnExit();
+        if (file.exists()) {
+            Assert.assertTrue(file.delete());
+        }
+        this.btree = new BTree(file, false);
+        btree.init(/* bulkload */ false);
+        final Value[] keys = new Value[BATCH];
+        final long[] ptrs = new long[BATCH];
+        for (int from = 0; from < NUM_KEYS; from += BATCH) {
+            for (int i = 0; i < BATCH; i++) {
+                keys[i] = new Value(String.format("%010d", from + i));
+                ptrs[i] = from + i;
+            }
+            btree.addValues(keys, ptrs);
+        }
+        btree.flush(true, true);
+        final int lo = (NUM_KEYS - width) / 2;
+        this.range = new IndexConditionBW(new Value(String.format("%010d", lo)),
+            new Value(String.format("%010d", lo + width - 1)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BTreeException {
+        btree.close();
+    }
+
+    @Benchmark
+    public long benchCountRange() throws BTreeException {
+        return btree.countRange(range);
+    }
+
+    @Benchmark
+    public long benchCountByCallback() throws BTreeException {
+        final long[] count = new long[1];
+        btree.search(range, new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                count[0]++;
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public Value benchLastKey() throws BTreeException {
+        return btree.lastKey();
+    }
+
+    @Benchmark
+    public Value benchLastKeyByScan() throws BTreeException {
+        final Value[] last = new Value[1];
+        btree.search(new IndexConditionANY(), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                last[0] = value;
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        return last[0];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(CountRangeBenchmark.class.getSimpleName())
+                                          .forks(1)
+                                          .warmupIterations(3)
+                                          .measurementIterations(5)
+                                          .mode(Mode.Throughput)
+                                          .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.benchmark;
+
+import btree4j.Value;
+import btree4j.indexer.LikeIndexQuery;
+import btree4j.utils.lang.Primitives;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link LikeIndexQuery#testValue(Value)} with the former backtracking matcher on long
+ * keys of {@code aaa...ac} that do not match.
+ */
+@State(Scope.Thread)
+public class LikeMatchBenchmark {
+
+    private static final int MATCH = 0, ONE = 1, ANY = 2;
+
+    @Param({"256"})
+    public int keyLength;
+
+    @Param({"%needle%", "%a_b%", "%a%a%a%b"})
+    public String pattern;
+
+    private Value key;
+    private LikeIndexQuery query;
+    private char[][] patterns;
+    private int[] types;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        char[] chars = new char[keyLength];
+        Arrays.fill(chars, 'a');
+        chars[keyLength - 1] = 'c';
+        this.key = new Value(new String(chars));
+        this.query = new LikeIndexQuery(new Value(""), pattern);
+        // the pattern of the former matcher. '%'s are not repeated in the params.
+        final String[] parts = pattern.split("(?<=[%_])|(?=[%_])");
+        this.patterns = new char[parts.length][];
+        this.types = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            if ("%".equals(parts[i])) {
+                types[i] = ANY;
+            } else if ("_".equals(parts[i])) {
+                types[i] = ONE;
+            } else {
+                types[i] = MATCH;
+                patterns[i] = parts[i].toCharArray();
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean benchCompiled() {
+        return query.testValue(key);
+    }
+
+    @Benchmark
+    public boolean benchBacktracking() {
+        byte[] data = key.getData();
+        char[] target = Primitives.toChars(data, 0, data.length);
+        return match(target, patterns, types, 0, 0);
+    }
+
+    private static boolean match(char[] target, char[][] verifyPatterns, int[] verifyType, int ti,
+            int pi) {
+        final int round = verifyType.length;
+        final int tlimit = target.length;
+        for (; pi < round; pi++) {
+            final int type = verifyType[pi];
+            final char[] ptn = verifyPatterns[pi];
+            switch (type) {
+                case MATCH:
+                    final int ptnlen = ptn.length;
+                    if ((ti + ptnlen) > tlimit) {
+                        return false;
+                    }
+                    for (int j = 0; j < ptnlen; j++) {
+                        if (target[ti++] != ptn[j]) {
+                            return false;
+                        }
+                    }
+                    break;
+                case ONE:
+                    if (ti++ >= tlimit) {
+                        return false;
+                    }
+                    break;
+                case ANY:
+                    if (++pi >= round) {
+                        return true;
+                    }
+                    for (; ti < tlimit; ti++) {
+                        if (match(target, verifyPatterns, verifyType, ti, pi)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                default:
+                    throw new IllegalStateException("Illegal type: " + type);
+            }
+        }
+        return ti == tlimit;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(LikeMatchBenchmark.class.getSimpleName())
+                                          .forks(1)
+                                          .warmupIterations(3)
+                                          .measurementIterations(5)
+                                          .mode(Mode.Throughput)
+                                          .build();
+
+        new Runner(opt).run();
+    }
+}
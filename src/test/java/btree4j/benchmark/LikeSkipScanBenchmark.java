@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.benchmark;
+
+import btree4j.BTree;
+import btree4j.BTreeCallback;
+import btree4j.BTreeException;
+import btree4j.Value;
+import btree4j.indexer.IndexQuery;
+import btree4j.indexer.LikeIndexQuery;
+import btree4j.utils.io.FileUtils;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs selective LIKE patterns over 10M keys of the form {@code user-GGGGG-IIII} with the skip
+ * scan and with a plain scan testing every key.
+ */
+@State(Scope.Benchmark)
+public class LikeSkipScanBenchmark {
+
+    private static final int NUM_GROUPS = 10000;
+    private static final int IDS_PER_GROUP = 1000;
+
+    @Param({"user-____1-0042", "user-%-0_42", "user-0012%-%7"})
+    public String pattern;
+
+    private File file;
+    private BTree btree;
+
+    @Setup(Level.Trial)
+    public void setup() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        this.file = new File(tmpDir, "LikeSkipScanBenchmark.idx");
+        file.deleteOnExit();
+        if (file.exists()) {
+            Assert.assertTrue(file.delete());
+        }
+        this.btree = new BTree(file, false);
+        btree.init(/* bulkload */ false);
+        final Value[] keys = new Value[IDS_PER_GROUP];
+        final long[] ptrs = new long[IDS_PER_GROUP];
+        for (int g = 0; g < NUM_GROUPS; g++) {
+            for (int i = 0; i < IDS_PER_GROUP; i++) {
+                keys[i] = new Value(String.format("user-%05d-%04d", g, i));
+                ptrs[i] = (long) g * IDS_PER_GROUP + i;
+            }
+            btree.addValues(keys, ptrs);
+        }
+        btree.flush(true, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BTreeException {
+        btree.close();
+    }
+
+    @Benchmark
+    public int benchSkipScan() throws BTreeException {
+        return search(new LikeIndexQuery(new Value(""), pattern));
+    }
+
+    @Benchmark
+    public int benchFullScan() throws BTreeException {
+        final LikeIndexQuery like = new LikeIndexQuery(new Value(""), pattern);
+        // hides the skip scan capability
+        return search(new IndexQuery() {
+            @Override
+            public int getOperator() {
+                return like.getOperator();
+            }
+
+            @Override
+            public Value[] getOperands() {
+                return like.getOperands();
+            }
+
+            @Override
+            public Value getOperand(int index) {
+                return like.getOperand(index);
+            }
+
+            @Override
+            public boolean testValue(Value value) {
+                return like.testValue(value);
+            }
+        });
+    }
+
+    private int search(IndexQuery query) throws BTreeException {
+        final int[] matches = new int[1];
+        btree.search(query, new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                matches[0]++;
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        return matches[0];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(LikeSkipScanBenchmark.class.getSimpleName())
+                                          .forks(1)
+                                          .warmupIterations(3)
+                                          .measurementIterations(5)
+                                          .mode(Mode.Throughput)
+                                          .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.benchmark;
+
+import btree4j.BTreeException;
+import btree4j.BTreeIndex;
+import btree4j.Value;
+import btree4j.utils.io.FileUtils;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link BTreeIndex#getValues(Value[])} with calling
+ * {@link BTreeIndex#getValueBytes(Value)} for each of random keys.
+ */
+@State(Scope.Benchmark)
+public class MultiGetBenchmark {
+
+    private static final int NUM_KEYS = 1000000;
+
+    @Param({"10000"})
+    public int lookups;
+
+    private File file;
+    private BTreeIndex btree;
+    private Random rand;
+    private Value[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        this.file = new File(tmpDir, "MultiGetBenchmark.idx");
+        file.deleteOnExit();
+        if (file.exists()) {
+            Assert.assertTrue(file.delete());
+        }
+        this.btree = new BTreeIndex(file, false);
+        btree.init(/* bulkload */ false);
+        final int batch = 100000;
+        for (int from = 0; from < NUM_KEYS; from += batch) {
+            Value[] k = new Value[batch];
+            Value[] v = new Value[batch];
+            for (int i = 0; i < batch; i++) {
+                k[i] = new Value(String.format("%08d", from + i));
+                v[i] = new Value("value-" + (from + i));
+            }
+            btree.addValues(k, v);
+        }
+        btree.flush(true, true);
+        this.rand = new Random(43L);
+        this.keys = new Value[lookups];
+    }
+
+    @Setup(Level.Invocation)
+    public void nextKeys() {
+        for (int i = 0; i < lookups; i++) {
+            keys[i] = new Value(String.format("%08d", rand.nextInt(NUM_KEYS)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BTreeException {
+        btree.close();
+    }
+
+    @Benchmark
+    public void benchGetValueBytes(Blackhole bh) throws BTreeException {
+        for (int i = 0; i < lookups; i++) {
+            bh.consume(btree.getValueBytes(keys[i]));
+        }
+    }
+
+    @Benchmark
+    public byte[][] benchGetValues() throws BTreeException {
+        return btree.getValues(keys);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(MultiGetBenchmark.class.getSimpleName())
+                                          .forks(1)
+                                          .warmupIterations(3)
+                                          .measurementIterations(5)
+                                          .mode(Mode.Throughput)
+                                          .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.benchmark;
+
+import btree4j.BTree;
+import btree4j.BTreeException;
+import btree4j.SplitPolicy;
+import btree4j.SplitPolicy.RightmostInsertSplitPolicy;
+import btree4j.Value;
+import btree4j.utils.io.FileUtils;
+import btree4j.utils.lang.PrintUtils;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Inserts monotonically increasing keys under each split policy. The file size per key is
+ * printed at the end of each iteration.
+ */
+@State(Scope.Thread)
+public class SplitPolicyBenchmark {
+
+    private static final int KEYS_PER_INVOCATION = 100000;
+
+    @Param({"half", "rightmost"})
+    public String policy;
+
+    private File file;
+    private BTree btree;
+    private long seq;
+
+    @Setup(Level.Iteration)
+    public void setup() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        this.file = new File(tmpDir, "SplitPolicyBenchmark.idx");
+        file.deleteOnExit();
+        if (file.exists()) {
+            Assert.assertTrue(file.delete());
+        }
+        this.btree = new BTree(file, false);
+        btree.init(/* bulkload */ false);
+        if ("rightmost".equals(policy)) {
+            btree.setSplitPolicy(new RightmostInsertSplitPolicy());
+        } else {
+            btree.setSplitPolicy(SplitPolicy.HALF);
+        }
+        this.seq = 0L;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws BTreeException {
+        btree.flush(true, true);
+        btree.close();
+        System.out.println(policy + ": " + seq + " keys, file size "
+                + PrintUtils.prettyFileSize(file) + " (" + (file.length() / seq) + " bytes/key)");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS_PER_INVOCATION)
+    public void benchSequentialInsert() throws BTreeException {
+        for (int i = 0; i < KEYS_PER_INVOCATION; i++) {
+            long id = seq++;
+            btree.addValue(new Value(String.format("%016d", id)), id);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(SplitPolicyBenchmark.class.getSimpleName())
+                                          .forks(1)
+                                          .warmupIterations(3)
+                                          .measurementIterations(5)
+                                          .mode(Mode.Throughput)
+                                          .build();
+
+        new Runner(opt).run();
+    }
+}
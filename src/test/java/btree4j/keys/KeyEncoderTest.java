@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2006 and onwards Makoto Yui
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package btree4j.keys;
+
+import btree4j.BTree;
+import btree4j.BTreeCallback;
+import btree4j.BTreeException;
+import btree4j.Value;
+import btree4j.utils.io.FileUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeyEncoderTest {
+
+    @Test
+    public void testLongOrder() {
+        final Random rand = new Random(11L);
+        final long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rand.nextInt(4) == 0 ? rand.nextInt(512) - 256 : rand.nextLong();
+        }
+        values[0] = Long.MIN_VALUE;
+        values[1] = Long.MAX_VALUE;
+        values[2] = 0L;
+        final KeyEncoder enc = new KeyEncoder();
+        final KeyDecoder dec = new KeyDecoder();
+        for (Order order : Order.values()) {
+            final Value[] keys = new Value[values.length];
+            for (int i = 0; i < values.length; i++) {
+                keys[i] = enc.reset().writeLong(values[i], order).writeInt((int) values[i], order)
+                             .toValue();
+                dec.reset(keys[i]);
+                Assert.assertEquals(values[i], dec.readLong(order));
+                Assert.assertEquals((int) values[i], dec.readInt(order));
+                Assert.assertFalse(dec.hasRemaining());
+            }
+            for (int i = 1; i < values.length; i++) {
+                int expected = Long.compare(values[i - 1], values[i]);
+                if (order == Order.DESC) {
+                    expected = -expected;
+                }
+                Assert.assertEquals(Integer.signum(expected),
+                    Integer.signum(keys[i - 1].compareTo(keys[i])));
+            }
+        }
+    }
+
+    @Test
+    public void testDoubleOrder() {
+        final double[] values = new double[] {Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1.5d,
+                -Double.MIN_VALUE, -0.d, 0.d, Double.MIN_VALUE, 1.d, 1.5d, Double.MAX_VALUE,
+                Double.POSITIVE_INFINITY, Double.NaN};
+        final KeyEncoder enc = new KeyEncoder();
+        final KeyDecoder dec = new KeyDecoder();
+        for (Order order : Order.values()) {
+            Value prev = null;
+            for (double v : values) {
+                Value key = enc.reset().writeDouble(v, order).writeFloat((float) v, order)
+                               .toValue();
+                dec.reset(key);
+                Assert.assertEquals(Double.doubleToLongBits(v),
+                    Double.doubleToLongBits(dec.readDouble(order)));
+                Assert.assertEquals(Float.floatToIntBits((float) v),
+                    Float.floatToIntBits(dec.readFloat(order)));
+                if (prev != null) {
+                    Assert.assertEquals(order == Order.ASC ? -1 : 1,
+                        Integer.signum(prev.compareTo(key)));
+                }
+                prev = key;
+            }
+        }
+    }
+
+    @Test
+    public void testStringOrder() {
+        final String[] symbols = new String[] {"\0", "a", "b", "\u00e9", "\u3042", "\ud83d\ude00"};
+        final Random rand = new Random(13L);
+        final String[] values = new String[500];
+        for (int i = 0; i < values.length; i++) {
+            StringBuilder buf = new StringBuilder();
+            for (int len = rand.nextInt(5); len > 0; len--) {
+                buf.append(symbols[rand.nextInt(symbols.length)]);
+            }
+            values[i] = buf.toString();
+        }
+        final Comparator<String> byCodePoints = new Comparator<String>() {
+            @Override
+            public int compare(String s1, String s2) {
+                int i = 0, j = 0;
+                while (i < s1.length() && j < s2.length()) {
+                    int c1 = s1.codePointAt(i), c2 = s2.codePointAt(j);
+                    if (c1 != c2) {
+                        return Integer.compare(c1, c2);
+                    }
+                    i += Character.charCount(c1);
+                    j += Character.charCount(c2);
+                }
+                return Integer.compare(s1.length() - i, s2.length() - j);
+            }
+        };
+        final KeyEncoder enc = new KeyEncoder(4);
+        final KeyDecoder dec = new KeyDecoder();
+        for (Order order : Order.values()) {
+            for (int i = 1; i < values.length; i++) {
+                // a following column must not affect the order
+                Value k1 = enc.reset().writeString(values[i - 1], order).writeInt(i).toValue();
+                Value k2 = enc.reset().writeString(values[i], order).writeInt(-i).toValue();
+                int expected = byCodePoints.compare(values[i - 1], values[i]);
+                if (expected == 0) {
+                    continue;
+                }
+                if (order == Order.DESC) {
+                    expected = -expected;
+                }
+                Assert.assertEquals(values[i - 1] + " <> " + values[i], Integer.signum(expected),
+                    Integer.signum(k1.compareTo(k2)));
+                dec.reset(k1);
+                Assert.assertEquals(values[i - 1], dec.readString(order));
+                Assert.assertEquals(i, dec.readInt());
+                byte[] b = values[i].getBytes(StandardCharsets.UTF_8);
+                dec.reset(enc.reset().writeBytes(b, 0, b.length, order).toValue());
+                Assert.assertArrayEquals(b, dec.readBytes(order));
+            }
+        }
+    }
+
+    @Test
+    public void testTupleRange() throws BTreeException {
+        File tmpDir = FileUtils.getTempDir();
+        Assert.assertTrue(tmpDir.exists());
+        File indexFile = new File(tmpDir, "KeyEncoderTest.idx");
+        indexFile.deleteOnExit();
+        if (indexFile.exists()) {
+            Assert.assertTrue(indexFile.delete());
+        }
+        BTree btree = new BTree(indexFile, false);
+        btree.init(false);
+        // (a int ASC, b string DESC, c long ASC)
+        final KeyEncoder enc = new KeyEncoder();
+        long ptr = 0;
+        for (int a = -20; a < 20; a++) {
+            for (String b : new String[] {"", "x", "xy", "y", "z"}) {
+                for (long c = -300; c < 300; c += 7) {
+                    btree.addValue(enc.reset().writeInt(a).writeString(b, Order.DESC)
+                                      .writeLong(c).toValue(),
+                        ptr++);
+                }
+            }
+        }
+        // a = -1 and "y" >= b >= "x" in the descending order
+        final List<String> actual = new ArrayList<>();
+        final KeyDecoder dec = new KeyDecoder();
+        btree.search(KeyRangeQuery.between(enc.reset().writeInt(-1).writeString("y", Order.DESC),
+            new KeyEncoder().writeInt(-1).writeString("x", Order.DESC)), new BTreeCallback() {
+                @Override
+                public boolean indexInfo(Value value, long pointer) {
+                    dec.reset(value);
+                    actual.add(dec.readInt() + "," + dec.readString(Order.DESC));
+                    return true;
+                }
+
+                @Override
+                public boolean indexInfo(Value key, byte[] value) {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        final List<String> expected = new ArrayList<>();
+        for (String b : new String[] {"y", "xy", "x"}) {
+            for (long c = -300; c < 300; c += 7) {
+                expected.add("-1," + b);
+            }
+        }
+        Assert.assertEquals(expected, actual);
+
+        final int[] count = new int[1];
+        btree.search(KeyRangeQuery.prefix(enc.reset().writeInt(19)), new BTreeCallback() {
+            @Override
+            public boolean indexInfo(Value value, long pointer) {
+                dec.reset(value);
+                Assert.assertEquals(19, dec.readInt());
+                count[0]++;
+                return true;
+            }
+
+            @Override
+            public boolean indexInfo(Value key, byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Assert.assertEquals(5 * 86, count[0]);
+        btree.close();
+    }
+
+    @Test
+    public void testSuccessor() {
+        Assert.assertEquals(new Value(new byte[] {1, 3}),
+            KeyRangeQuery.successor(new Value(new byte[] {1, 2})));
+        Assert.assertEquals(new Value(new byte[] {2}),
+            KeyRangeQuery.successor(new Value(new byte[] {1, Byte.MAX_VALUE})));
+        Assert.assertNull(KeyRangeQuery.successor(new Value(new byte[] {Byte.MAX_VALUE})));
+        Assert.assertTrue(Arrays.equals(new byte[] {0, 1},
+            KeyRangeQuery.successor(new Value(new byte[] {0, 0, Byte.MAX_VALUE})).getData()));
+    }
+
+}